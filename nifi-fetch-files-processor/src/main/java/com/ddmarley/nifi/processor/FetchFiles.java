@@ -18,26 +18,49 @@
 package com.ddmarley.nifi.processor;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.CopyOption;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.nifi.annotation.behavior.InputRequirement;
 import org.apache.nifi.annotation.behavior.InputRequirement.Requirement;
 import org.apache.nifi.annotation.behavior.Restricted;
 import org.apache.nifi.annotation.behavior.Restriction;
+import org.apache.nifi.annotation.behavior.WritesAttribute;
+import org.apache.nifi.annotation.behavior.WritesAttributes;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.annotation.lifecycle.OnStopped;
 import org.apache.nifi.components.AllowableValue;
 import org.apache.nifi.components.PropertyDescriptor;
 import org.apache.nifi.components.RequiredPermission;
@@ -48,9 +71,11 @@ import org.apache.nifi.flowfile.FlowFile;
 import org.apache.nifi.flowfile.attributes.CoreAttributes;
 import org.apache.nifi.logging.LogLevel;
 import org.apache.nifi.processor.AbstractProcessor;
+import org.apache.nifi.processor.DataUnit;
 import org.apache.nifi.processor.ProcessContext;
 import org.apache.nifi.processor.ProcessSession;
 import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.processor.exception.FlowFileAccessException;
 import org.apache.nifi.processor.exception.ProcessException;
 import org.apache.nifi.processor.util.StandardValidators;
 import org.apache.nifi.util.StopWatch;
@@ -59,6 +84,12 @@ import org.apache.nifi.util.StopWatch;
 @Tags({ "local", "files", "filesystem", "ingest", "ingress", "get", "source", "input", "fetch" })
 @CapabilityDescription("Reads the contents of a file or directory from disk and streams it into the contents of an incoming FlowFile. Once this is done, the file is optionally moved elsewhere or deleted "
 		+ "to help keep the file system organized.")
+@WritesAttributes({ @WritesAttribute(attribute = "file.size", description = "With Output Mode Listing Only, the size of the file in bytes"),
+		@WritesAttribute(attribute = "file.lastModifiedTime", description = "With Output Mode Listing Only, the last modification time of the file, formatted as yyyy-MM-dd'T'HH:mm:ssZ"),
+		@WritesAttribute(attribute = "file.owner", description = "With Output Mode Listing Only, the owner of the file"),
+		@WritesAttribute(attribute = "absolute.path", description = "With Output Mode Listing Only, the directory of the file, otherwise the file itself"),
+		@WritesAttribute(attribute = "fetch.cursor", description = "With Max Files Per Trigger, on the incoming FlowFile waiting in the queue for the next batch: "
+				+ "the path of the last file walked relative to the directory") })
 @Restricted(restrictions = {
 		@Restriction(requiredPermission = RequiredPermission.READ_FILESYSTEM, explanation = "Provides operator the ability to read from any file that NiFi has access to."),
 		@Restriction(requiredPermission = RequiredPermission.WRITE_FILESYSTEM, explanation = "Provides operator the ability to delete any file that NiFi has access to.") })
@@ -87,7 +118,11 @@ public class FetchFiles extends AbstractProcessor {
 			.defaultValue("${absolute.path}/${filename}").required(true).build();
 	static final PropertyDescriptor COMPLETION_STRATEGY = new PropertyDescriptor.Builder().name("Completion Strategy")
 			.description(
-					"Specifies what to do with the original file on the file system once it has been pulled into NiFi")
+					"Specifies what to do with the original file on the file system once it has been pulled into NiFi. For a directory, every fetched file is "
+								+ "moved or deleted, moved files keep their path below a directory of the same name as the fetched one. This happens in the background "
+							+ "once the fetched files are committed, the outcome is counted in the Completed files, Completion retries and Failed completions counters. "
+							+ "Files are fetched at least once: if NiFi stops or crashes after the commit but before a file is moved or deleted, the file stays "
+							+ "in place and the next fetch of its directory fetches it again.")
 			.expressionLanguageSupported(ExpressionLanguageScope.NONE)
 			.allowableValues(COMPLETION_NONE, COMPLETION_MOVE, COMPLETION_DELETE)
 			.defaultValue(COMPLETION_NONE.getValue()).required(true).build();
@@ -113,6 +148,93 @@ public class FetchFiles extends AbstractProcessor {
 			.description("Log level to use in case user " + System.getProperty("user.name")
 					+ " does not have sufficient permissions to read the file")
 			.allowableValues(LogLevel.values()).defaultValue(LogLevel.ERROR.toString()).required(true).build();
+	static final PropertyDescriptor WALK_PARALLELISM = new PropertyDescriptor.Builder()
+			.name("Walk Parallelism")
+			.description("The number of threads walking the directory tree, each of them reading the attributes of the files of other subdirectories. "
+					+ "Worth raising for large trees on network file systems, where every attribute read is a round trip. The files are imported "
+					+ "one after the other on the task thread either way, ordered by their path.")
+			.addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR).defaultValue("1").required(true).build();
+	static final PropertyDescriptor MAX_FILES = new PropertyDescriptor.Builder()
+			.name("Max Files Per Trigger")
+			.description("The maximum number of files fetched from a directory per trigger, 0 for no limit. Files skipped by the Fetch Tracking do not count. "
+					+ "With a limit the files are committed in batches: the incoming FlowFile goes back to the queue until the whole directory is fetched, "
+					+ "with the path of the last file walked in its fetch.cursor attribute, and the walk picks up after that file on the next trigger. "
+					+ "The cursor is committed along with its batch, so a restart does not fetch a batch again. A failure starts over.")
+			.addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR).defaultValue("0").required(true).build();
+	static final PropertyDescriptor IMPORT_BUFFER_SIZE = new PropertyDescriptor.Builder()
+			.name("Import Buffer Size")
+			.description("If set, the files are copied into the content repository with reads and writes of this size, instead of the 8 KB "
+					+ "of the repository's own import. Worth setting for large files: with 64 KB to 1 MB the copy of a cached file was about "
+					+ "a quarter faster, larger buffers did not help. The buffers are kept while the processor runs, one per concurrent task.")
+			.addValidator(StandardValidators.createDataSizeBoundsValidator(4096, 8 * 1024 * 1024)).required(false).build();
+	static final PropertyDescriptor COMPLETION_THREADS = new PropertyDescriptor.Builder()
+			.name("Completion Threads")
+			.description("The number of threads moving or deleting the fetched files in the background. If they fall behind, the fetching waits for them.")
+			.addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR).defaultValue("1").required(true).build();
+	static final PropertyDescriptor FILE_FILTER = new PropertyDescriptor.Builder()
+			.name("File Filter")
+			.description("Only files of a directory whose names match the given regular expression will be fetched")
+			.addValidator(StandardValidators.REGULAR_EXPRESSION_VALIDATOR).defaultValue(".*").required(true).build();
+	static final PropertyDescriptor PATH_FILTER = new PropertyDescriptor.Builder()
+			.name("Path Filter")
+			.description("Only files whose directory path relative to the fetched directory matches the given regular expression will be fetched. "
+					+ "The files directly in the fetched directory are not filtered by path.")
+			.addValidator(StandardValidators.REGULAR_EXPRESSION_VALIDATOR).required(false).build();
+	static final PropertyDescriptor IGNORE_HIDDEN_FILES = new PropertyDescriptor.Builder()
+			.name("Ignore Hidden Files")
+			.description("Indicates whether or not hidden files should be ignored. Hidden directories are not walked at all.")
+			.allowableValues("true", "false").defaultValue("false").required(true).build();
+	static final PropertyDescriptor MAX_DEPTH = new PropertyDescriptor.Builder()
+			.name("Max Depth")
+			.description("The maximum number of directory levels to walk, 1 to fetch the files directly in the directory only. "
+					+ "Deeper subdirectories are not walked at all. If not set, the whole tree is walked.")
+			.addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR).required(false).build();
+	static final PropertyDescriptor MIN_AGE = new PropertyDescriptor.Builder()
+			.name("Minimum File Age")
+			.description("The minimum age that a file must be in order to be fetched; any file younger than this amount of time (according to last modification date) will be ignored")
+			.addValidator(StandardValidators.TIME_PERIOD_VALIDATOR).defaultValue("0 sec").required(true).build();
+	static final PropertyDescriptor MAX_AGE = new PropertyDescriptor.Builder()
+			.name("Maximum File Age")
+			.description("The maximum age that a file must be in order to be fetched; any file older than this amount of time (according to last modification date) will be ignored")
+			.addValidator(StandardValidators.TIME_PERIOD_VALIDATOR).required(false).build();
+	static final PropertyDescriptor MIN_SIZE = new PropertyDescriptor.Builder()
+			.name("Minimum File Size")
+			.description("The minimum size that a file must be in order to be fetched")
+			.addValidator(StandardValidators.DATA_SIZE_VALIDATOR).defaultValue("0 B").required(true).build();
+	static final PropertyDescriptor MAX_SIZE = new PropertyDescriptor.Builder()
+			.name("Maximum File Size")
+			.description("The maximum size that a file can be in order to be fetched")
+			.addValidator(StandardValidators.DATA_SIZE_VALIDATOR).required(false).build();
+
+	static final AllowableValue OUTPUT_CONTENT = new AllowableValue("Content", "Content", "Import the content of every file into a FlowFile");
+	static final AllowableValue OUTPUT_LISTING = new AllowableValue("Listing Only", "Listing Only",
+			"Emit a FlowFile without content for every file, with its path, size, last modification time and owner as attributes. "
+					+ "The FlowFiles can be load-balanced to other nodes, where another FetchFiles with the default Files to Fetch imports the content");
+
+	static final PropertyDescriptor OUTPUT_MODE = new PropertyDescriptor.Builder()
+			.name("Output Mode")
+			.description("Whether to fetch the content of the files or only list them. A listing is not moved or deleted, the Completion Strategy must be None.")
+			.allowableValues(OUTPUT_CONTENT, OUTPUT_LISTING).defaultValue(OUTPUT_CONTENT.getValue()).required(true).build();
+
+	static final AllowableValue TRACKING_NONE = new AllowableValue("None", "None", "Fetch every file on every trigger");
+	static final AllowableValue TRACKING_TIMESTAMPS = new AllowableValue("Size and Modification Time", "Size and Modification Time",
+			"Skip the files whose size and last modification time did not change since they were fetched");
+	static final AllowableValue TRACKING_CONTENT_HASH = new AllowableValue("Content Hash", "Content Hash",
+			"Like Size and Modification Time, but also skip the files whose content did not change, even if their modification time did. "
+					+ "Costs an extra read of every new or changed file to hash its content");
+
+	static final PropertyDescriptor TRACKING = new PropertyDescriptor.Builder()
+			.name("Fetch Tracking")
+			.description("Whether to keep track of the fetched files, so repeated fetches of a directory only fetch new and changed files. "
+					+ "Mostly useful with the Completion Strategy None. The index of the fetched files survives restarts, it is kept in the "
+					+ "Tracking Index Directory and takes 40 bytes per file on disk, but little heap.")
+			.allowableValues(TRACKING_NONE, TRACKING_TIMESTAMPS, TRACKING_CONTENT_HASH)
+			.defaultValue(TRACKING_NONE.getValue()).required(true).build();
+	static final PropertyDescriptor TRACKING_DIRECTORY = new PropertyDescriptor.Builder()
+			.name("Tracking Index Directory")
+			.description("The directory to keep the index of the fetched files in, named after the identifier of the processor. "
+					+ "Required unless Fetch Tracking is None. If the directory does not exist, it will be created.")
+			.addValidator(StandardValidators.createDirectoryExistsValidator(false, true)).required(false).build();
 
 	static final Relationship REL_SUCCESS = new Relationship.Builder().name("success").description(
 			"Any FlowFile that is successfully fetched from the file system will be transferred to this Relationship.")
@@ -131,14 +253,111 @@ public class FetchFiles extends AbstractProcessor {
 	protected List<PropertyDescriptor> getSupportedPropertyDescriptors() {
 		final List<PropertyDescriptor> properties = new ArrayList<>();
 		properties.add(FILEPATH);
+		properties.add(OUTPUT_MODE);
 		properties.add(COMPLETION_STRATEGY);
 		properties.add(MOVE_DESTINATION_DIR);
 		properties.add(CONFLICT_STRATEGY);
+		properties.add(COMPLETION_THREADS);
 		properties.add(FILE_NOT_FOUND_LOG_LEVEL);
 		properties.add(PERM_DENIED_LOG_LEVEL);
+		properties.add(WALK_PARALLELISM);
+		properties.add(MAX_FILES);
+		properties.add(IMPORT_BUFFER_SIZE);
+		properties.add(FILE_FILTER);
+		properties.add(PATH_FILTER);
+		properties.add(IGNORE_HIDDEN_FILES);
+		properties.add(MAX_DEPTH);
+		properties.add(MIN_AGE);
+		properties.add(MAX_AGE);
+		properties.add(MIN_SIZE);
+		properties.add(MAX_SIZE);
+		properties.add(TRACKING);
+		properties.add(TRACKING_DIRECTORY);
 		return properties;
 	}
 
+	// The cursor of an incoming FlowFile waiting for its next batch
+	static final String ATTRIBUTE_CURSOR = "fetch.cursor";
+	static final String ATTRIBUTE_SIZE = "file.size";
+	static final String ATTRIBUTE_LAST_MODIFIED = "file.lastModifiedTime";
+	static final String ATTRIBUTE_OWNER = "file.owner";
+	// Like ListFile
+	private static final DateTimeFormatter LAST_MODIFIED_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ssZ").withZone(ZoneId.systemDefault());
+	// Batches of files waiting to be moved or deleted
+	private static final int COMPLETION_QUEUE_SIZE = 64;
+	private static final int COMPLETION_ATTEMPTS = 3;
+	private static final long COMPLETION_RETRY_DELAY_MILLIS = 200;
+	private static final long COMPLETION_SHUTDOWN_TIMEOUT_SECONDS = 60;
+
+	private volatile ForkJoinPool walkPool;
+	private volatile Pattern fileFilter;
+	private volatile Pattern pathFilter;
+	private volatile SeenFileIndex seenFileIndex;
+	private volatile ThreadPoolExecutor completionExecutor;
+	// Import buffers of the tasks, taken for a trigger and put back afterwards, null without an Import Buffer Size
+	private volatile Queue<byte[]> importBuffers;
+	private final LongAdder completedFiles = new LongAdder();
+	private final LongAdder completionRetries = new LongAdder();
+	private final LongAdder failedCompletions = new LongAdder();
+
+	@OnScheduled
+	public void onScheduled(final ProcessContext context) throws IOException {
+		final int parallelism = context.getProperty(WALK_PARALLELISM).asInteger();
+		// With a single thread the tree is walked on the task thread
+		this.walkPool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+		this.fileFilter = Pattern.compile(context.getProperty(FILE_FILTER).getValue());
+		this.pathFilter = context.getProperty(PATH_FILTER).isSet() ? Pattern.compile(context.getProperty(PATH_FILTER).getValue()) : null;
+		if (!TRACKING_NONE.getValue().equals(context.getProperty(TRACKING).getValue())) {
+			this.seenFileIndex = new SeenFileIndex(Paths.get(context.getProperty(TRACKING_DIRECTORY).getValue(), getIdentifier() + ".index"));
+		}
+		this.importBuffers = context.getProperty(IMPORT_BUFFER_SIZE).isSet() ? new ConcurrentLinkedQueue<>() : null;
+		if (!COMPLETION_NONE.getValue().equalsIgnoreCase(context.getProperty(COMPLETION_STRATEGY).getValue())) {
+			final int threads = context.getProperty(COMPLETION_THREADS).asInteger();
+			this.completionExecutor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+					new ArrayBlockingQueue<>(COMPLETION_QUEUE_SIZE), new ThreadPoolExecutor.CallerRunsPolicy());
+		}
+	}
+
+	/**
+	 * @return The filter of the walk, with the file ages taken from now
+	 */
+	private WalkFilter createWalkFilter(final ProcessContext context) {
+		return new WalkFilter(this.fileFilter, this.pathFilter,
+				context.getProperty(IGNORE_HIDDEN_FILES).asBoolean(),
+				context.getProperty(MAX_DEPTH).isSet() ? context.getProperty(MAX_DEPTH).asInteger() : Integer.MAX_VALUE,
+				context.getProperty(MIN_SIZE).asDataSize(DataUnit.B).longValue(),
+				context.getProperty(MAX_SIZE).isSet() ? context.getProperty(MAX_SIZE).asDataSize(DataUnit.B).longValue() : Long.MAX_VALUE,
+				context.getProperty(MIN_AGE).asTimePeriod(TimeUnit.MILLISECONDS),
+				context.getProperty(MAX_AGE).isSet() ? context.getProperty(MAX_AGE).asTimePeriod(TimeUnit.MILLISECONDS) : Long.MAX_VALUE);
+	}
+
+	@OnStopped
+	public void onStopped() throws IOException {
+		if (this.walkPool != null) {
+			this.walkPool.shutdownNow();
+			this.walkPool = null;
+		}
+		if (this.seenFileIndex != null) {
+			this.seenFileIndex.close();
+			this.seenFileIndex = null;
+		}
+		this.importBuffers = null;
+		if (this.completionExecutor != null) {
+			// Let the queued files complete, those left behind stay in place
+			this.completionExecutor.shutdown();
+			try {
+				if (!this.completionExecutor.awaitTermination(COMPLETION_SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+					getLogger().warn("Stopped before the Completion Strategy was performed on all fetched files");
+					this.completionExecutor.shutdownNow();
+				}
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				this.completionExecutor.shutdownNow();
+			}
+			this.completionExecutor = null;
+		}
+	}
+
 	@Override
 	public Set<Relationship> getRelationships() {
 		final Set<Relationship> relationships = new HashSet<>();
@@ -164,11 +383,28 @@ public class FetchFiles extends AbstractProcessor {
 			}
 		}
 
+		if (OUTPUT_LISTING.getValue().equals(validationContext.getProperty(OUTPUT_MODE).getValue())
+				&& !COMPLETION_NONE.getValue().equalsIgnoreCase(validationContext.getProperty(COMPLETION_STRATEGY).getValue())) {
+			results.add(new ValidationResult.Builder().subject(COMPLETION_STRATEGY.getName()).input(validationContext.getProperty(COMPLETION_STRATEGY).getValue())
+					.valid(false)
+					.explanation(COMPLETION_STRATEGY.getName() + " must be " + COMPLETION_NONE.getDisplayName() + " if " + OUTPUT_MODE.getName()
+							+ " is " + OUTPUT_LISTING.getDisplayName() + ", the listed files are fetched later")
+					.build());
+		}
+
+		if (!TRACKING_NONE.getValue().equals(validationContext.getProperty(TRACKING).getValue())
+				&& !validationContext.getProperty(TRACKING_DIRECTORY).isSet()) {
+			results.add(new ValidationResult.Builder().subject(TRACKING_DIRECTORY.getName()).input(null).valid(false)
+					.explanation(TRACKING_DIRECTORY.getName() + " must be specified if " + TRACKING.getName() + " is not " + TRACKING_NONE.getDisplayName())
+					.build());
+		}
+
 		return results;
 	}
 
 	@Override
 	public void onTrigger(final ProcessContext context, final ProcessSession session) throws ProcessException {
+		this.adjustCompletionCounters(session);
 		FlowFile flowFile = session.get();
 		if (flowFile == null) {
 			return;
@@ -227,42 +463,109 @@ public class FetchFiles extends AbstractProcessor {
 					return;
 				}
 
-				final String conflictStrategy = context.getProperty(CONFLICT_STRATEGY).getValue();
+			}
+		}
+		// Every file is checked before it is imported, a single file as well as the files of a directory
+		final Path conflictTarget = targetDirectoryName != null && COMPLETION_MOVE.getValue().equalsIgnoreCase(completionStrategy)
+				&& CONFLICT_FAIL.getValue().equalsIgnoreCase(context.getProperty(CONFLICT_STRATEGY).getValue())
+				? Paths.get(targetDirectoryName).resolve(filePath.getFileName()) : null;
 
-				if (CONFLICT_FAIL.getValue().equalsIgnoreCase(conflictStrategy)) {
-					final File targetFile = new File(targetDir, file.getName());
-					if (targetFile.exists()) {
+		// import content from file system
+		final int maxFiles = context.getProperty(MAX_FILES).asInteger();
+		final SeenFileIndex index = this.seenFileIndex;
+		final boolean hashContent = TRACKING_CONTENT_HASH.getValue().equals(context.getProperty(TRACKING).getValue());
+		// Entries of the fetched files, recorded once they are committed
+		final List<SeenFileIndex.Entry> fetched = new ArrayList<>();
+		final List<Path> imported = new ArrayList<>();
+		// Transferred once the walk is done, so they can still be removed on a conflict or a failure
+		final List<FlowFile> children = new ArrayList<>();
+		boolean more = false;
+		String cursor = maxFiles > 0 ? flowFile.getAttribute(ATTRIBUTE_CURSOR) : null;
+		final Queue<byte[]> importBuffers = this.importBuffers;
+		byte[] buffer = null;
+		try {
+			// The walk may run in parallel, the session is only used on this thread
+			final ParallelFileWalker walker = new ParallelFileWalker(this.walkPool, this.createWalkFilter(context));
+			final boolean listingOnly = OUTPUT_LISTING.getValue().equals(context.getProperty(OUTPUT_MODE).getValue());
+			int emitted = 0;
+			boolean walkDone = false;
+			while (!walkDone) {
+				final List<ParallelFileWalker.WalkedFile> files;
+				if (maxFiles > 0) {
+					// One file more tells whether another batch is due, the walk goes on past the files skipped by the tracking
+					files = walker.walk(filePath, cursor == null ? null : Paths.get(cursor), maxFiles + 1);
+					walkDone = files.size() <= maxFiles;
+				} else {
+					files = walker.walk(filePath);
+					walkDone = true;
+				}
+				for (ParallelFileWalker.WalkedFile walked : files) {
+					if (maxFiles > 0 && emitted == maxFiles) {
+						more = true;
+						walkDone = true;
+						break;
+					}
+					final Path n = walked.path;
+					cursor = filePath.relativize(n).toString();
+					if (index != null && !this.hasChanged(index, walked, hashContent, fetched)) {
+						continue;
+					}
+					if (conflictTarget != null && Files.exists(conflictTarget.resolve(filePath.relativize(n)))) {
 						getLogger().error(
 								"Could not fetch file {} from file system for {} because Completion Strategy is configured to move the original file to {}, "
 										+ "but a file with name {} already exists in that directory and the Move Conflict Strategy is configured for failure",
-								new Object[] { file, flowFile, targetDir, file.getName() });
+								new Object[] { n, flowFile, conflictTarget.resolve(filePath.relativize(n)).getParent(), n.getFileName() });
+						session.remove(children);
+						flowFile = session.removeAttribute(flowFile, ATTRIBUTE_CURSOR);
 						session.transfer(flowFile, REL_FAILURE);
 						return;
 					}
+					emitted++;
+					FlowFile flowFile_tmp;
+					if (listingOnly) {
+						flowFile_tmp = session.putAllAttributes(session.create(flowFile), this.listingAttributes(filePath, walked));
+						children.add(session.removeAttribute(flowFile_tmp, ATTRIBUTE_CURSOR));
+						continue;
+					}
+					if (importBuffers != null && buffer == null) {
+						buffer = importBuffers.poll();
+						if (buffer == null) {
+							buffer = new byte[context.getProperty(IMPORT_BUFFER_SIZE).asDataSize(DataUnit.B).intValue()];
+						}
+					}
+					flowFile_tmp = session.clone(flowFile);
+					children.add(flowFile_tmp);
+					flowFile_tmp = this.importFile(session, n, flowFile_tmp, buffer);
+					flowFile_tmp = session.removeAttribute(flowFile_tmp, ATTRIBUTE_CURSOR);
+					flowFile_tmp = session.putAttribute(flowFile_tmp, CoreAttributes.FILENAME.key(), n.getFileName().toString());
+					flowFile_tmp = session.putAttribute(flowFile_tmp, CoreAttributes.ABSOLUTE_PATH.key(), n.toAbsolutePath().toString());
+					flowFile_tmp = session.putAttribute(flowFile_tmp, CoreAttributes.PATH.key(), filePath.relativize(n).toString());
+					session.getProvenanceReporter().modifyContent(flowFile_tmp, "Replaced content of FlowFile with contents of " + file.toURI(), stopWatch.getElapsed(TimeUnit.MILLISECONDS));
+					children.set(children.size() - 1, flowFile_tmp);
+					imported.add(n);
 				}
 			}
-		}
-
-		// import content from file system
-		try {
-			Files.walk(filePath).filter(Files::isRegularFile)
-					.forEach(n -> {
-						FlowFile flowFile_tmp = session.importFrom(n, true, session.clone(flowFile));
-						flowFile_tmp = session.putAttribute(flowFile_tmp, CoreAttributes.FILENAME.key(), n.getFileName().toString());
-						flowFile_tmp = session.putAttribute(flowFile_tmp, CoreAttributes.ABSOLUTE_PATH.key(), n.toAbsolutePath().toString());
-						flowFile_tmp = session.putAttribute(flowFile_tmp, CoreAttributes.PATH.key(), filePath.relativize(n).toString());
-						session.getProvenanceReporter().modifyContent(flowFile_tmp, "Replaced content of FlowFile with contents of " + file.toURI(), stopWatch.getElapsed(TimeUnit.MILLISECONDS));
-						session.transfer(flowFile_tmp, REL_SUCCESS);
-					});
-		} catch (IOException ioe) {
+		} catch (IOException | FlowFileAccessException | ProcessException e) {
+			// The whole batch fails, none of its files is completed or recorded
+			session.remove(children);
 			getLogger().error("Could not fetch file {} from file system for {} due to {}; routing to failure",
-					new Object[] { file, flowFile, ioe.toString() }, ioe);
+					new Object[] { file, flowFile, e.toString() }, e);
+			// Keeps the cursor it came with, so the batch is fetched again if routed back
 			session.transfer(session.penalize(flowFile), REL_FAILURE);
 			return;
+		} finally {
+			if (buffer != null) {
+				importBuffers.offer(buffer);
+			}
 		}
 
-		session.remove(flowFile);
-		
+		session.transfer(children, REL_SUCCESS);
+		if (more) {
+			// Back to the queue for the next batch, the cursor is committed along with the batch
+			session.transfer(session.putAttribute(flowFile, ATTRIBUTE_CURSOR, cursor));
+		} else {
+			session.remove(flowFile);
+		}
 
 		// It is critical that we commit the session before we perform the Completion
 		// Strategy. Otherwise, we could have a case where we
@@ -271,61 +574,209 @@ public class FetchFiles extends AbstractProcessor {
 		// As long as we commit the session right here, before we perform the Completion
 		// Strategy, we are safe.
 		session.commit();
+		recordFetched(index, fetched);
 
-		// Attempt to perform the Completion Strategy action
-		Exception completionFailureException = null;
-		if (COMPLETION_DELETE.getValue().equalsIgnoreCase(completionStrategy)) {
-			// convert to path and use Files.delete instead of file.delete so that if we
-			// fail, we know why
+		// Complete the files of this batch in the background
+		if (this.completionExecutor != null && !imported.isEmpty()) {
+			this.submitCompletion(completionStrategy, context.getProperty(CONFLICT_STRATEGY).getValue(), filePath,
+					COMPLETION_MOVE.getValue().equalsIgnoreCase(completionStrategy) ? Paths.get(targetDirectoryName) : null, imported);
+		}
+	}
+
+	/**
+	 * Moves or deletes the fetched files in the background, in one task per target directory. Moved files keep their
+	 * path below the fetched directory.
+	 * @param targetDirectory The Move Destination Directory, null unless moving
+	 */
+	private void submitCompletion(final String completionStrategy, final String conflictStrategy, final Path filePath, final Path targetDirectory, final List<Path> imported) {
+		final Map<Path, List<Path[]>> batches = new LinkedHashMap<>();
+		for (Path source : imported) {
+			final Path target = targetDirectory == null ? null : targetDirectory.resolve(filePath.getFileName()).resolve(filePath.relativize(source));
+			batches.computeIfAbsent(target == null ? source.getParent() : target.getParent(), d -> new ArrayList<>()).add(new Path[] { source, target });
+		}
+		for (List<Path[]> batch : batches.values()) {
+			// Runs on this thread if the queue is full, which holds back the fetching
+			this.completionExecutor.execute(() -> this.completeBatch(completionStrategy, conflictStrategy, batch));
+		}
+	}
+
+	/**
+	 * Completes the files of a target directory, retrying the failures that may be transient.
+	 * @param batch The source and target of every file, the targets null unless moving
+	 */
+	private void completeBatch(final String completionStrategy, final String conflictStrategy, final List<Path[]> batch) {
+		if (batch.get(0)[1] != null) {
 			try {
-				delete(file);
+				Files.createDirectories(batch.get(0)[1].getParent());
 			} catch (final IOException ioe) {
-				completionFailureException = ioe;
+				// The moves fail and are retried on their own
 			}
-		} else if (COMPLETION_MOVE.getValue().equalsIgnoreCase(completionStrategy)) {
-			final File targetDirectory = new File(targetDirectoryName);
-			final File targetFile = new File(targetDirectory, file.getName());
-			try {
-				if (targetFile.exists()) {
-					final String conflictStrategy = context.getProperty(CONFLICT_STRATEGY).getValue();
-					if (CONFLICT_KEEP_INTACT.getValue().equalsIgnoreCase(conflictStrategy)) {
-						// don't move, just delete the original
-						Files.delete(file.toPath());
-					} else if (CONFLICT_RENAME.getValue().equalsIgnoreCase(conflictStrategy)) {
-						// rename to add a random UUID but keep the file extension if it has one.
-						final String simpleFilename = targetFile.getName();
-						final String newName;
-						if (simpleFilename.contains(".")) {
-							newName = StringUtils.substringBeforeLast(simpleFilename, ".") + "-"
-									+ UUID.randomUUID().toString() + "."
-									+ StringUtils.substringAfterLast(simpleFilename, ".");
-						} else {
-							newName = simpleFilename + "-" + UUID.randomUUID().toString();
-						}
+		}
+		for (Path[] files : batch) {
+			final File source = files[0].toFile();
+			for (int attempt = 1;; attempt++) {
+				try {
+					this.complete(completionStrategy, conflictStrategy, source, files[1] == null ? null : files[1].toFile());
+					this.completedFiles.increment();
+					break;
+				} catch (final IOException ioe) {
+					final boolean permanent = ioe instanceof NoSuchFileException || ioe instanceof FileAlreadyExistsException;
+					if (permanent || attempt == COMPLETION_ATTEMPTS || !this.sleep(COMPLETION_RETRY_DELAY_MILLIS * attempt)) {
+						this.failedCompletions.increment();
+						getLogger().warn("Successfully fetched the content from {} but failed to perform Completion Action due to {}",
+								new Object[] { source, ioe }, ioe);
+						break;
+					}
+					this.completionRetries.increment();
+				}
+			}
+		}
+	}
+
+	private boolean sleep(final long millis) {
+		try {
+			Thread.sleep(millis);
+			return true;
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
 
-						move(file, new File(targetDirectory, newName), false);
-					} else if (CONFLICT_REPLACE.getValue().equalsIgnoreCase(conflictStrategy)) {
-						move(file, targetFile, true);
+	/**
+	 * Performs the Completion Strategy on a file.
+	 * @param targetFile The file to move to, null unless moving
+	 */
+	private void complete(final String completionStrategy, final String conflictStrategy, final File file, final File targetFile) throws IOException {
+		if (COMPLETION_DELETE.getValue().equalsIgnoreCase(completionStrategy)) {
+			// convert to path and use Files.delete instead of file.delete so that if we
+			// fail, we know why
+			delete(file);
+		} else if (COMPLETION_MOVE.getValue().equalsIgnoreCase(completionStrategy)) {
+			final File targetDirectory = targetFile.getParentFile();
+			if (targetFile.exists()) {
+				if (CONFLICT_KEEP_INTACT.getValue().equalsIgnoreCase(conflictStrategy)) {
+					// don't move, just delete the original
+					Files.delete(file.toPath());
+				} else if (CONFLICT_RENAME.getValue().equalsIgnoreCase(conflictStrategy)) {
+					// rename to add a random UUID but keep the file extension if it has one.
+					final String simpleFilename = targetFile.getName();
+					final String newName;
+					if (simpleFilename.contains(".")) {
+						newName = StringUtils.substringBeforeLast(simpleFilename, ".") + "-"
+								+ UUID.randomUUID().toString() + "."
+								+ StringUtils.substringAfterLast(simpleFilename, ".");
+					} else {
+						newName = simpleFilename + "-" + UUID.randomUUID().toString();
 					}
+
+					move(file, new File(targetDirectory, newName), false);
+				} else if (CONFLICT_REPLACE.getValue().equalsIgnoreCase(conflictStrategy)) {
+					move(file, targetFile, true);
 				} else {
-					move(file, targetFile, false);
+					throw new FileAlreadyExistsException(targetFile.toString());
 				}
-			} catch (final IOException ioe) {
-				completionFailureException = ioe;
+			} else {
+				move(file, targetFile, false);
 			}
 		}
+	}
 
-		// Handle completion failures
-		if (completionFailureException != null) {
-			getLogger().warn(
-					"Successfully fetched the content from {} for {} but failed to perform Completion Action due to {}; routing to success",
-					new Object[] { file, flowFile, completionFailureException }, completionFailureException);
+	/**
+	 * Hands the completions done in the background over to the counters of the processor.
+	 */
+	private void adjustCompletionCounters(final ProcessSession session) {
+		adjustCounter(session, "Completed files", this.completedFiles);
+		adjustCounter(session, "Completion retries", this.completionRetries);
+		adjustCounter(session, "Failed completions", this.failedCompletions);
+	}
+
+	private static void adjustCounter(final ProcessSession session, final String name, final LongAdder adder) {
+		final long delta = adder.sumThenReset();
+		if (delta != 0) {
+			session.adjustCounter(name, delta, true);
+		}
+	}
+
+	/**
+	 * @return The attributes of the listed file, with the owner read from the file system if it can be looked up
+	 */
+	private Map<String, String> listingAttributes(final Path filePath, final ParallelFileWalker.WalkedFile file) {
+		final Map<String, String> attributes = new HashMap<>();
+		attributes.put(CoreAttributes.FILENAME.key(), file.path.getFileName().toString());
+		// The directory, so the default Files to Fetch of another FetchFiles finds the file
+		attributes.put(CoreAttributes.ABSOLUTE_PATH.key(), file.path.toAbsolutePath().getParent().toString());
+		attributes.put(CoreAttributes.PATH.key(), filePath.relativize(file.path).toString());
+		attributes.put(ATTRIBUTE_SIZE, String.valueOf(file.size));
+		attributes.put(ATTRIBUTE_LAST_MODIFIED, LAST_MODIFIED_FORMAT.format(Instant.ofEpochMilli(file.lastModified)));
+		try {
+			attributes.put(ATTRIBUTE_OWNER, Files.getOwner(file.path).getName());
+		} catch (final UnsupportedOperationException e) {
+			// No owners on this file system
+		} catch (final IOException ioe) {
+			// The file is listed all the same, e.g. if it is gone meanwhile or its owner is unknown
+			getLogger().debug("Could not look up the owner of {} due to {}", new Object[] { file.path, ioe.toString() });
+		}
+		return attributes;
+	}
+
+	/**
+	 * Looks the file up in the index of fetched files.
+	 * @param hashContent Whether to compare the content of files whose modification time changed
+	 * @param fetched Receives the entry to record for the file
+	 * @return Whether the file is new or changed since it was recorded, and should be fetched
+	 */
+	private boolean hasChanged(final SeenFileIndex index, final ParallelFileWalker.WalkedFile file, final boolean hashContent, final List<SeenFileIndex.Entry> fetched) throws IOException {
+		final byte[] key = SeenFileIndex.key(file.path);
+		final SeenFileIndex.Entry seen = index.get(key);
+		if (seen != null && seen.size == file.size && seen.lastModified == file.lastModified) {
+			return false;
+		}
+		final long contentHash = hashContent ? SeenFileIndex.contentHash(file.path) : 0;
+		fetched.add(new SeenFileIndex.Entry(key, file.size, file.lastModified, contentHash));
+		// Only touched, the new modification time is recorded without fetching the file again
+		return !(hashContent && seen != null && seen.size == file.size && seen.contentHash == contentHash);
+	}
+
+	/**
+	 * Records the committed files in the index of fetched files.
+	 */
+	private void recordFetched(final SeenFileIndex index, final List<SeenFileIndex.Entry> fetched) {
+		if (index == null || fetched.isEmpty()) {
+			return;
+		}
+		try {
+			index.putAll(fetched);
+		} catch (final IOException ioe) {
+			// The files are committed already, they are only fetched again
+			getLogger().warn("Could not record {} fetched files due to {}; they will be fetched again",
+					new Object[] { fetched.size(), ioe.toString() }, ioe);
+		}
+	}
+
+	/**
+	 * Copies a file with reads and writes of the size of the buffer. A FileInputStream reads straight into the array,
+	 * a file channel would read through a temporary direct buffer of the same size, cached by the thread.
+	 */
+	static void copy(final Path source, final OutputStream out, final byte[] buffer) throws IOException {
+		try (InputStream in = new FileInputStream(source.toFile())) {
+			int n;
+			while ((n = in.read(buffer)) > 0) {
+				out.write(buffer, 0, n);
+			}
 		}
 	}
 
 	//
 	// The following set of methods exist purely for testing purposes
 	//
+	protected FlowFile importFile(final ProcessSession session, final Path file, final FlowFile flowFile, final byte[] buffer) {
+		if (buffer == null) {
+			return session.importFrom(file, true, flowFile);
+		}
+		return session.write(flowFile, out -> copy(file, out, buffer));
+	}
+
 	protected void move(final File source, final File target, final boolean overwrite) throws IOException {
 		final File targetDirectory = target.getParentFile();
 
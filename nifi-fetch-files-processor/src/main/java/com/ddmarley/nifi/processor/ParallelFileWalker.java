@@ -0,0 +1,358 @@
+package com.ddmarley.nifi.processor;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Collects the regular files of a directory tree. With a fork-join pool every directory is walked by a task of its own,
+ * and large directories are split further, so the attributes of many entries are read at the same time. That pays off
+ * on network file systems, where every attribute read is a round trip.<br>
+ * Either way the files come in the same order: depth first, with the entries of every directory sorted by name.
+ * Like {@code Files.walk} symbolic links to directories are not followed, while links to regular files are collected.<br>
+ * A walk can also be bounded, picking up after the last file of the previous walk, to go through a large tree in batches.
+ * A {@link WalkFilter} decides which subdirectories are walked and which files are collected.
+ */
+class ParallelFileWalker {
+
+	// Entries of a directory read by one task, larger directories are split
+	private static final int ENTRIES_PER_TASK = 256;
+	// Entries whose attributes are read by one task of a bounded walk
+	private static final int ENTRIES_PER_CHUNK = 16;
+
+	private static final Comparator<Path> BY_NAME = Comparator.comparing(p -> p.getFileName().toString());
+
+	/**
+	 * A collected file with the attributes read by the walk, of the target for a link.
+	 */
+	static final class WalkedFile {
+		final Path path;
+		final long size;
+		final long lastModified;
+
+		WalkedFile(Path path, BasicFileAttributes attributes) {
+			this.path = path;
+			this.size = attributes.size();
+			this.lastModified = attributes.lastModifiedTime().toMillis();
+		}
+	}
+
+	private final ForkJoinPool pool;
+	private final WalkFilter filter;
+
+	/**
+	 * @param pool The pool to walk the tree in, or null to walk it on the calling thread
+	 */
+	ParallelFileWalker(ForkJoinPool pool) {
+		this(pool, WalkFilter.ALL);
+	}
+
+	/**
+	 * @param pool The pool to walk the tree in, or null to walk it on the calling thread
+	 * @param filter The filter of the subdirectories and files
+	 */
+	ParallelFileWalker(ForkJoinPool pool, WalkFilter filter) {
+		this.pool = pool;
+		this.filter = filter;
+	}
+
+	/**
+	 * @param start The directory to walk, or a single file
+	 * @return The regular files within the directory, or the file itself
+	 * @throws IOException If a directory could not be read
+	 */
+	List<WalkedFile> walk(Path start) throws IOException {
+		final BasicFileAttributes attributes = Files.readAttributes(start, BasicFileAttributes.class);
+		if (!attributes.isDirectory()) {
+			return attributes.isRegularFile() ? Collections.singletonList(new WalkedFile(start, attributes)) : Collections.emptyList();
+		}
+		if (pool == null) {
+			final List<WalkedFile> files = new ArrayList<>();
+			walkSequential(start, start, 0, files);
+			return files;
+		}
+		try {
+			return pool.invoke(new DirectoryTask(start, start, 0));
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Walks the tree up to the given number of files, skipping the subtrees up to the file the previous walk ended with.
+	 * The subdirectories are walked one after the other then, only the attributes of the entries of a directory are read
+	 * in parallel, so the walk stops as soon as enough files are found.
+	 * @param start The directory to walk, or a single file
+	 * @param after The path of the last file of the previous walk relative to start, or null to walk from the beginning
+	 * @param limit The maximum number of files to collect
+	 * @return The next files within the directory in walk order, or the file itself if nothing comes after
+	 * @throws IOException If a directory could not be read
+	 */
+	List<WalkedFile> walk(Path start, Path after, int limit) throws IOException {
+		final BasicFileAttributes attributes = Files.readAttributes(start, BasicFileAttributes.class);
+		if (!attributes.isDirectory()) {
+			return attributes.isRegularFile() && after == null && limit > 0 ? Collections.singletonList(new WalkedFile(start, attributes)) : Collections.emptyList();
+		}
+		final List<WalkedFile> files = new ArrayList<>();
+		walkBounded(start, start, after, 0, limit, files);
+		return files;
+	}
+
+	private void walkBounded(Path start, Path dir, Path after, int depth, int limit, List<WalkedFile> files) throws IOException {
+		final List<Path> entries = list(dir);
+		// The name of the entry on the way to the last file of the previous walk, the entries before are done
+		final String cursor = after != null && depth < after.getNameCount() ? after.getName(depth).toString() : null;
+		int from = 0;
+		if (cursor != null) {
+			while (from < entries.size() && entries.get(from).getFileName().toString().compareTo(cursor) < 0) {
+				from++;
+			}
+		}
+		final int window = pool == null ? 1 : ENTRIES_PER_TASK;
+		for (int next = from; next < entries.size() && files.size() < limit; next += window) {
+			final List<Path> chunk = entries.subList(next, Math.min(next + window, entries.size()));
+			final BasicFileAttributes[] attributes = this.readAttributes(chunk);
+			for (int i = 0; i < chunk.size() && files.size() < limit; i++) {
+				final Path entry = chunk.get(i);
+				if (attributes[i] == null) {
+					continue;
+				}
+				final boolean onCursor = cursor != null && cursor.equals(entry.getFileName().toString());
+				if (attributes[i].isDirectory()) {
+					if (filter.acceptDirectory(entry, depth + 1)) {
+						walkBounded(start, entry, onCursor ? after : null, depth + 1, limit, files);
+					}
+				} else if (!onCursor) {
+					final WalkedFile file = this.acceptFile(start, entry, attributes[i]);
+					if (file != null) {
+						files.add(file);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return The attributes of the entries, in the pool if there is one
+	 */
+	private BasicFileAttributes[] readAttributes(List<Path> entries) throws IOException {
+		final BasicFileAttributes[] attributes = new BasicFileAttributes[entries.size()];
+		if (pool == null) {
+			for (int i = 0; i < attributes.length; i++) {
+				attributes[i] = readAttributes(entries.get(i));
+			}
+			return attributes;
+		}
+		try {
+			pool.invoke(new AttributesTask(entries, attributes, 0, attributes.length));
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		return attributes;
+	}
+
+	private void walkSequential(Path start, Path dir, int depth, List<WalkedFile> files) throws IOException {
+		for (Path entry : list(dir)) {
+			final BasicFileAttributes attributes = readAttributes(entry);
+			if (attributes == null) {
+				continue;
+			}
+			if (attributes.isDirectory()) {
+				if (filter.acceptDirectory(entry, depth + 1)) {
+					walkSequential(start, entry, depth + 1, files);
+				}
+			} else {
+				final WalkedFile file = this.acceptFile(start, entry, attributes);
+				if (file != null) {
+					files.add(file);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param dir The directory
+	 * @return The entries of the directory, sorted by name
+	 */
+	private static List<Path> list(Path dir) throws IOException {
+		final List<Path> entries = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+			for (Path entry : stream) {
+				entries.add(entry);
+			}
+		}
+		entries.sort(BY_NAME);
+		return entries;
+	}
+
+	/**
+	 * @return The attributes of the entry itself, not of the target of a link, or null if the entry is gone meanwhile
+	 */
+	private static BasicFileAttributes readAttributes(Path entry) throws IOException {
+		try {
+			return Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @param attributes The attributes of the entry itself
+	 * @return The entry if it is a regular file, or a link to one, that passes the filter, null otherwise
+	 */
+	private WalkedFile acceptFile(Path start, Path entry, BasicFileAttributes attributes) throws IOException {
+		BasicFileAttributes fileAttributes = attributes;
+		if (attributes.isSymbolicLink()) {
+			try {
+				fileAttributes = Files.readAttributes(entry, BasicFileAttributes.class);
+			} catch (NoSuchFileException e) {
+				// Dangling link
+				return null;
+			}
+		}
+		return fileAttributes.isRegularFile() && filter.acceptFile(entry, start.relativize(entry.getParent()), fileAttributes)
+				? new WalkedFile(entry, fileAttributes) : null;
+	}
+
+	/**
+	 * Reads the attributes of a range of entries.
+	 */
+	private static class AttributesTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final List<Path> entries;
+		private final BasicFileAttributes[] attributes;
+		private final int from;
+		private final int to;
+
+		AttributesTask(List<Path> entries, BasicFileAttributes[] attributes, int from, int to) {
+			this.entries = entries;
+			this.attributes = attributes;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > ENTRIES_PER_CHUNK) {
+				final int middle = (from + to) >>> 1;
+				ForkJoinTask.invokeAll(new AttributesTask(entries, attributes, from, middle), new AttributesTask(entries, attributes, middle, to));
+				return;
+			}
+			try {
+				for (int i = from; i < to; i++) {
+					attributes[i] = ParallelFileWalker.readAttributes(entries.get(i));
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	/**
+	 * Walks a directory.
+	 */
+	private class DirectoryTask extends RecursiveTask<List<WalkedFile>> {
+		private static final long serialVersionUID = 1L;
+
+		private final Path start;
+		private final Path dir;
+		private final int depth;
+
+		DirectoryTask(Path start, Path dir, int depth) {
+			this.start = start;
+			this.dir = dir;
+			this.depth = depth;
+		}
+
+		@Override
+		protected List<WalkedFile> compute() {
+			try {
+				final List<Path> entries = list(dir);
+				return new EntriesTask(start, entries, depth, 0, entries.size()).compute();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	/**
+	 * Reads the attributes of a range of the entries of a directory and walks the subdirectories among them.
+	 */
+	private class EntriesTask extends RecursiveTask<List<WalkedFile>> {
+		private static final long serialVersionUID = 1L;
+
+		private final Path start;
+		private final List<Path> entries;
+		private final int depth;
+		private final int from;
+		private final int to;
+
+		/**
+		 * @param depth The depth of the directory of the entries
+		 */
+		EntriesTask(Path start, List<Path> entries, int depth, int from, int to) {
+			this.start = start;
+			this.entries = entries;
+			this.depth = depth;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected List<WalkedFile> compute() {
+			if (to - from > ENTRIES_PER_TASK) {
+				final int middle = (from + to) >>> 1;
+				final EntriesTask head = new EntriesTask(start, entries, depth, from, middle);
+				final EntriesTask tail = new EntriesTask(start, entries, depth, middle, to);
+				ForkJoinTask.invokeAll(head, tail);
+				final List<WalkedFile> files = new ArrayList<>(head.join());
+				files.addAll(tail.join());
+				return files;
+			}
+
+			// Fork the subdirectories as soon as they are found, the order is restored while joining
+			final Object[] found = new Object[to - from];
+			try {
+				for (int i = from; i < to; i++) {
+					final Path entry = entries.get(i);
+					final BasicFileAttributes attributes = readAttributes(entry);
+					if (attributes == null) {
+						continue;
+					}
+					if (attributes.isDirectory()) {
+						if (filter.acceptDirectory(entry, depth + 1)) {
+							found[i - from] = new DirectoryTask(start, entry, depth + 1).fork();
+						}
+					} else {
+						found[i - from] = acceptFile(start, entry, attributes);
+					}
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			final List<WalkedFile> files = new ArrayList<>();
+			for (Object f : found) {
+				if (f instanceof WalkedFile) {
+					files.add((WalkedFile) f);
+				} else if (f != null) {
+					files.addAll(((DirectoryTask) f).join());
+				}
+			}
+			return files;
+		}
+	}
+}
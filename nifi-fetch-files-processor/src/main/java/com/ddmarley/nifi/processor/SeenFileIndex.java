@@ -0,0 +1,423 @@
+package com.ddmarley.nifi.processor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persistent index of fetched files, used to skip the files that did not change since. Every file takes a record of
+ * 40 bytes: a digest of its absolute path, its size, its last modification time and optionally a hash of its content.<br>
+ * The records are kept in runs, files sorted by path digest. The runs are memory-mapped and binary searched, newest
+ * first, so millions of files take no heap. New records are appended to a journal and held in memory until there are
+ * enough of them to write a new run. The newest runs are merged as long as they are no smaller than the one before, so
+ * there are about log2(files / journal limit) runs and every record is rewritten about as often. All files survive
+ * restarts. A single run is limited to 2 GB, about 50 million files.
+ */
+class SeenFileIndex implements Closeable {
+
+	private static final int KEY_SIZE = 16;
+	private static final int RECORD_SIZE = KEY_SIZE + 3 * Long.BYTES;
+	// Records held in memory before they are written into a new run, about 10 MB of heap
+	private static final int JOURNAL_LIMIT = 1 << 16;
+	private static final int RECORDS_PER_WRITE = 1024;
+
+	/**
+	 * A file as recorded in the index.
+	 */
+	static final class Entry {
+		final byte[] key;
+		final long size;
+		final long lastModified;
+		final long contentHash;
+
+		/**
+		 * @param key The digest of the path, see {@link SeenFileIndex#key(Path)}
+		 * @param contentHash The hash of the content, see {@link SeenFileIndex#contentHash(Path)}, 0 if not hashed
+		 */
+		Entry(byte[] key, long size, long lastModified, long contentHash) {
+			this.key = key;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.contentHash = contentHash;
+		}
+	}
+
+	/**
+	 * A mapped run, named after the index file and its sequence number. Runs with higher numbers are newer.
+	 */
+	private static final class Run {
+		final Path file;
+		final MappedByteBuffer records;
+		final int count;
+
+		Run(Path file, MappedByteBuffer records) {
+			this.file = file;
+			this.records = records;
+			this.count = records.capacity() / RECORD_SIZE;
+		}
+
+		ByteBuffer keyAt(int i) {
+			final ByteBuffer key = records.duplicate();
+			key.position(i * RECORD_SIZE).limit(i * RECORD_SIZE + KEY_SIZE);
+			return key;
+		}
+
+		ByteBuffer recordAt(int i) {
+			final ByteBuffer record = records.duplicate();
+			record.position(i * RECORD_SIZE).limit((i + 1) * RECORD_SIZE);
+			return record;
+		}
+
+		/**
+		 * @return The position of the key in the run, or -1 if it is not there
+		 */
+		int indexOf(ByteBuffer key) {
+			int low = 0;
+			int high = count - 1;
+			while (low <= high) {
+				final int middle = (low + high) >>> 1;
+				final int c = this.keyAt(middle).compareTo(key);
+				if (c < 0) {
+					low = middle + 1;
+				} else if (c > 0) {
+					high = middle - 1;
+				} else {
+					return middle;
+				}
+			}
+			return -1;
+		}
+	}
+
+	private final Path indexFile;
+	private final Path journalFile;
+	private final int journalLimit;
+	private final FileChannel journal;
+	// Keys are compared as ByteBuffers, in memory as well as in the runs
+	private final Map<ByteBuffer, Entry> journaled = new HashMap<>();
+	// Oldest first
+	private final List<Run> runs = new ArrayList<>();
+	private long nextSequence = 0;
+
+	/**
+	 * Opens the index, or creates it if the files do not exist yet.
+	 * @param indexFile The name of the runs, followed by their sequence number, the journal is next to them
+	 */
+	SeenFileIndex(Path indexFile) throws IOException {
+		this(indexFile, JOURNAL_LIMIT);
+	}
+
+	SeenFileIndex(Path indexFile, int journalLimit) throws IOException {
+		this.indexFile = indexFile;
+		this.journalFile = indexFile.resolveSibling(indexFile.getFileName() + ".journal");
+		this.journalLimit = journalLimit;
+		try {
+			this.mapRuns();
+			this.journal = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		} catch (IOException e) {
+			this.unmapRuns();
+			throw e;
+		}
+		try {
+			this.replay();
+		} catch (IOException e) {
+			this.journal.close();
+			this.unmapRuns();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return The digest of the absolute path of the file, the key of its entry
+	 */
+	static byte[] key(Path file) {
+		final byte[] digest = sha256().digest(file.toAbsolutePath().toString().getBytes(StandardCharsets.UTF_8));
+		final byte[] key = new byte[KEY_SIZE];
+		System.arraycopy(digest, 0, key, 0, KEY_SIZE);
+		return key;
+	}
+
+	/**
+	 * @return The first 8 bytes of the SHA-256 digest of the content of the file
+	 */
+	static long contentHash(Path file) throws IOException {
+		final MessageDigest digest = sha256();
+		final byte[] buffer = new byte[64 * 1024];
+		try (InputStream in = Files.newInputStream(file)) {
+			int n;
+			while ((n = in.read(buffer)) > 0) {
+				digest.update(buffer, 0, n);
+			}
+		}
+		return ByteBuffer.wrap(digest.digest()).getLong();
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform has SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @param key The digest of the path
+	 * @return The entry of the file, or null if it has not been recorded
+	 */
+	synchronized Entry get(byte[] key) {
+		final ByteBuffer k = ByteBuffer.wrap(key);
+		final Entry entry = journaled.get(k);
+		if (entry != null) {
+			return entry;
+		}
+		for (int r = runs.size() - 1; r >= 0; r--) {
+			final Run run = runs.get(r);
+			final int i = run.indexOf(k);
+			if (i >= 0) {
+				final int offset = i * RECORD_SIZE + KEY_SIZE;
+				return new Entry(key, run.records.getLong(offset), run.records.getLong(offset + Long.BYTES), run.records.getLong(offset + 2 * Long.BYTES));
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Records the files, replacing their previous entries. The entries are on disk once this returns.
+	 */
+	synchronized void putAll(List<Entry> entries) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * RECORDS_PER_WRITE);
+		for (Entry entry : entries) {
+			if (!buffer.hasRemaining()) {
+				write(journal, buffer);
+			}
+			put(buffer, entry);
+			journaled.put(ByteBuffer.wrap(entry.key), entry);
+		}
+		write(journal, buffer);
+		journal.force(false);
+		if (journaled.size() >= journalLimit) {
+			this.flush();
+		}
+	}
+
+	/**
+	 * @return The number of runs, for testing
+	 */
+	synchronized int getRunCount() {
+		return runs.size();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		journal.close();
+		this.unmapRuns();
+	}
+
+	private Path runFile(long sequence) {
+		return indexFile.resolveSibling(indexFile.getFileName() + "." + sequence);
+	}
+
+	/**
+	 * Maps the runs left by earlier runs of the processor, in the order of their sequence numbers.
+	 */
+	private void mapRuns() throws IOException {
+		final Path directory = indexFile.toAbsolutePath().getParent();
+		final String prefix = indexFile.getFileName() + ".";
+		final List<Long> sequences = new ArrayList<>();
+		if (Files.isDirectory(directory)) {
+			try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix + "*")) {
+				for (Path file : files) {
+					final String suffix = file.getFileName().toString().substring(prefix.length());
+					// The journal and files being written are not runs
+					if (!suffix.isEmpty() && suffix.chars().allMatch(Character::isDigit)) {
+						sequences.add(Long.parseLong(suffix));
+					}
+				}
+			}
+		}
+		sequences.sort(Comparator.naturalOrder());
+		for (long sequence : sequences) {
+			runs.add(map(runFile(sequence)));
+			nextSequence = sequence + 1;
+		}
+	}
+
+	private static Run map(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			final long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("The index " + file + " exceeds 2 GB");
+			}
+			return new Run(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, size - size % RECORD_SIZE));
+		}
+	}
+
+	private void unmapRuns() {
+		for (Run run : runs) {
+			unmap(run.records);
+		}
+		runs.clear();
+	}
+
+	/**
+	 * Reads the journal into memory, dropping a record torn by a crash while it was written.
+	 */
+	private void replay() throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * RECORDS_PER_WRITE);
+		long position = 0;
+		while (journal.read(buffer, position + buffer.position()) > 0) {
+			buffer.flip();
+			while (buffer.remaining() >= RECORD_SIZE) {
+				final byte[] key = new byte[KEY_SIZE];
+				buffer.get(key);
+				journaled.put(ByteBuffer.wrap(key), new Entry(key, buffer.getLong(), buffer.getLong(), buffer.getLong()));
+				position += RECORD_SIZE;
+			}
+			buffer.compact();
+		}
+		journal.truncate(position);
+		journal.position(position);
+	}
+
+	/**
+	 * Writes the journal into a new run, empties the journal and merges the newest runs.
+	 */
+	private void flush() throws IOException {
+		final List<Entry> entries = new ArrayList<>(journaled.values());
+		entries.sort(Comparator.comparing(e -> ByteBuffer.wrap(e.key)));
+		final long sequence = nextSequence++;
+		final Path tmp = this.tmpFile();
+		try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			final ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * RECORDS_PER_WRITE);
+			for (Entry entry : entries) {
+				if (!buffer.hasRemaining()) {
+					write(out, buffer);
+				}
+				put(buffer, entry);
+			}
+			write(out, buffer);
+			out.force(true);
+		}
+		runs.add(this.publish(tmp, sequence));
+		// A crash before the journal is emptied only has the same entries in the journal and the run
+		journal.truncate(0);
+		journal.force(true);
+		journaled.clear();
+
+		while (runs.size() >= 2 && runs.get(runs.size() - 2).count <= runs.get(runs.size() - 1).count) {
+			this.mergeNewest();
+		}
+	}
+
+	/**
+	 * Merges the two newest runs into a new run under a new name, so no mapped file is ever replaced.
+	 */
+	private void mergeNewest() throws IOException {
+		final Run older = runs.get(runs.size() - 2);
+		final Run newer = runs.get(runs.size() - 1);
+		final long sequence = nextSequence++;
+		final Path tmp = this.tmpFile();
+		try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			final ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * RECORDS_PER_WRITE);
+			int i = 0;
+			int j = 0;
+			while (i < older.count || j < newer.count) {
+				if (!buffer.hasRemaining()) {
+					write(out, buffer);
+				}
+				final int c = i == older.count ? 1 : j == newer.count ? -1 : older.keyAt(i).compareTo(newer.keyAt(j));
+				if (c < 0) {
+					buffer.put(older.recordAt(i++));
+				} else {
+					// The newer record replaces the older one
+					buffer.put(newer.recordAt(j++));
+					if (c == 0) {
+						i++;
+					}
+				}
+			}
+			write(out, buffer);
+			out.force(true);
+		}
+		final Run merged = this.publish(tmp, sequence);
+		// A crash before the merged runs are deleted only leaves older copies of the same entries
+		runs.remove(runs.size() - 1);
+		runs.remove(runs.size() - 1);
+		runs.add(merged);
+		for (Run run : new Run[] { older, newer }) {
+			// Released before the file is deleted, which fails on Windows while it is mapped
+			unmap(run.records);
+			Files.deleteIfExists(run.file);
+		}
+	}
+
+	private Path tmpFile() {
+		return indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+	}
+
+	/**
+	 * Moves a completely written run into place and maps it.
+	 */
+	private Run publish(Path tmp, long sequence) throws IOException {
+		final Path file = runFile(sequence);
+		Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+		return map(file);
+	}
+
+	/**
+	 * Releases a mapping right away instead of once it is garbage collected. The buffer must not be used afterwards,
+	 * which the synchronized methods make sure of.
+	 */
+	private static void unmap(MappedByteBuffer buffer) {
+		try {
+			// Java 9 and later
+			final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(theUnsafe.get(null), buffer);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			try {
+				// Java 8
+				final Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+				cleanerMethod.setAccessible(true);
+				final Object cleaner = cleanerMethod.invoke(buffer);
+				if (cleaner != null) {
+					cleaner.getClass().getMethod("clean").invoke(cleaner);
+				}
+			} catch (ReflectiveOperationException | RuntimeException e2) {
+				// Released once garbage collected
+			}
+		}
+	}
+
+	private static void put(ByteBuffer buffer, Entry entry) {
+		buffer.put(entry.key).putLong(entry.size).putLong(entry.lastModified).putLong(entry.contentHash);
+	}
+
+	private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+}
@@ -0,0 +1,79 @@
+package com.ddmarley.nifi.processor;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.regex.Pattern;
+
+/**
+ * Decides which entries a walk of {@link ParallelFileWalker} descends into and collects, from their names and the
+ * attributes read by the walk anyway. Directories that are not descended into are skipped with their whole subtree.
+ */
+class WalkFilter {
+
+	static final WalkFilter ALL = new WalkFilter(null, null, false, Integer.MAX_VALUE, 0, Long.MAX_VALUE, 0, Long.MAX_VALUE);
+
+	private final Pattern fileFilter;
+	private final Pattern pathFilter;
+	private final boolean ignoreHidden;
+	private final int maxDepth;
+	private final long minSize;
+	private final long maxSize;
+	private final long minAge;
+	private final long maxAge;
+	private final long now = System.currentTimeMillis();
+
+	/**
+	 * @param fileFilter The pattern the file names must match, or null
+	 * @param pathFilter The pattern the directories of the files must match relative to the start, or null
+	 * @param ignoreHidden Whether to skip hidden files and directories
+	 * @param maxDepth The maximum depth of the collected files, 1 for the files in the start directory only
+	 * @param minSize The minimum file size in bytes
+	 * @param maxSize The maximum file size in bytes
+	 * @param minAge The minimum time since the last modification in milliseconds
+	 * @param maxAge The maximum time since the last modification in milliseconds
+	 */
+	WalkFilter(Pattern fileFilter, Pattern pathFilter, boolean ignoreHidden, int maxDepth, long minSize, long maxSize, long minAge, long maxAge) {
+		this.fileFilter = fileFilter;
+		this.pathFilter = pathFilter;
+		this.ignoreHidden = ignoreHidden;
+		this.maxDepth = maxDepth;
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.minAge = minAge;
+		this.maxAge = maxAge;
+	}
+
+	/**
+	 * @param dir The directory
+	 * @param depth The depth of the directory, 1 for the subdirectories of the start directory
+	 * @return Whether to walk the directory
+	 */
+	boolean acceptDirectory(Path dir, int depth) throws IOException {
+		return depth < maxDepth && !(ignoreHidden && Files.isHidden(dir));
+	}
+
+	/**
+	 * @param file The regular file
+	 * @param relativeDir The directory of the file relative to the start directory, empty for the start directory itself
+	 * @param attributes The attributes of the file, of the target for a link
+	 * @return Whether to collect the file
+	 */
+	boolean acceptFile(Path file, Path relativeDir, BasicFileAttributes attributes) throws IOException {
+		if (ignoreHidden && Files.isHidden(file)) {
+			return false;
+		}
+		if (fileFilter != null && !fileFilter.matcher(file.getFileName().toString()).matches()) {
+			return false;
+		}
+		// Like GetFile, the files of the start directory itself pass the path filter
+		final String dir = relativeDir.toString();
+		if (pathFilter != null && !dir.isEmpty() && !pathFilter.matcher(dir).matches()) {
+			return false;
+		}
+		final long size = attributes.size();
+		final long age = now - attributes.lastModifiedTime().toMillis();
+		return size >= minSize && size <= maxSize && age >= minAge && age <= maxAge;
+	}
+}
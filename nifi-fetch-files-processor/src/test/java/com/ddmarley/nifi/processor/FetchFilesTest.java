@@ -1,18 +1,51 @@
 package com.ddmarley.nifi.processor;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.flowfile.attributes.CoreAttributes;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.exception.FlowFileAccessException;
+import org.apache.nifi.util.MockFlowFile;
 import org.apache.nifi.util.TestRunner;
 import org.apache.nifi.util.TestRunners;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 public class FetchFilesTest {
-	
+
+	// About 1000 files, raise them to benchmark the walk
+	private static final int TREE_DEPTH = 4;
+	private static final int TREE_FANOUT = 4;
+	private static final String[] NESTED_DOCUMENTS = { "data/lvl1/test_document_v2.pdf", "data/test_document.pdf" };
+	// File sizes imported with and without buffer, add larger ones to benchmark the import
+	private static final int[] FILE_SIZES = { 0, 1024, 3 * 1024 * 1024 + 7 };
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
 	private TestRunner runner;
 
 	@Before
@@ -47,4 +80,376 @@ public class FetchFilesTest {
 		assertTrue(this.runner.getFlowFilesForRelationship(FetchFiles.REL_SUCCESS).get(1).isContentEqual(IOUtils.toString(this.getClass().getResourceAsStream("/nested_folder/data/test_document.pdf"), StandardCharsets.UTF_8)));;
 	}
 
+	@Test
+	public void testGeneratedDeepTree() throws IOException {
+		final Path root = this.folder.newFolder("deep_tree").toPath();
+		final List<String> expected = generateTree(root);
+
+		for (String parallelism : new String[] { "1", "4" }) {
+			this.runner.clearTransferState();
+			this.runner.setProperty(FetchFiles.FILEPATH, root.toString());
+			this.runner.setProperty(FetchFiles.WALK_PARALLELISM, parallelism);
+			this.runner.enqueue("");
+			this.runner.run();
+
+			this.runner.assertQueueEmpty();
+			final List<MockFlowFile> flowFiles = this.runner.getFlowFilesForRelationship(FetchFiles.REL_SUCCESS);
+			assertEquals(expected, flowFiles.stream().map(f -> f.getAttribute(CoreAttributes.PATH.key())).collect(Collectors.toList()));
+			flowFiles.get(0).assertContentEquals(this.getClass().getResourceAsStream("/nested_folder/data/lvl1/test_document_v2.pdf"));
+		}
+	}
+
+	@Test
+	public void testMaxFilesPerTrigger() throws IOException {
+		final Path root = this.folder.newFolder("deep_tree").toPath();
+		final List<String> expected = generateTree(root);
+		final int maxFiles = 100;
+
+		for (String parallelism : new String[] { "1", "4" }) {
+			this.runner.clearTransferState();
+			this.runner.setProperty(FetchFiles.FILEPATH, root.toString());
+			this.runner.setProperty(FetchFiles.WALK_PARALLELISM, parallelism);
+			this.runner.setProperty(FetchFiles.MAX_FILES, String.valueOf(maxFiles));
+			this.runner.enqueue("");
+
+			// One batch per trigger, the incoming FlowFile waits in the queue for the next one
+			this.runner.run();
+			this.runner.assertTransferCount(FetchFiles.REL_SUCCESS, maxFiles);
+			assertEquals(1, this.runner.getQueueSize().getObjectCount());
+
+			int triggers = 1;
+			while (!this.runner.isQueueEmpty()) {
+				this.runner.run();
+				triggers++;
+			}
+			assertEquals((expected.size() + maxFiles - 1) / maxFiles, triggers);
+			final List<MockFlowFile> flowFiles = this.runner.getFlowFilesForRelationship(FetchFiles.REL_SUCCESS);
+			assertEquals(expected, flowFiles.stream().map(f -> f.getAttribute(CoreAttributes.PATH.key())).collect(Collectors.toList()));
+			assertTrue(flowFiles.stream().noneMatch(f -> f.getAttribute(FetchFiles.ATTRIBUTE_CURSOR) != null));
+		}
+	}
+
+	@Test
+	public void testWalkFilters() throws IOException {
+		final Path root = this.folder.newFolder("deep_tree").toPath();
+		final List<String> expected = generateTree(root);
+		Files.write(Files.createDirectory(root.resolve(".hidden")).resolve("a.txt"), "hidden".getBytes(StandardCharsets.UTF_8));
+		Files.write(root.resolve(".a.txt"), "hidden".getBytes(StandardCharsets.UTF_8));
+		this.runner.setProperty(FetchFiles.FILEPATH, root.toString());
+
+		assertEquals(expected.size() + 2, this.fetchPaths().size());
+
+		this.runner.setProperty(FetchFiles.IGNORE_HIDDEN_FILES, "true");
+		assertEquals(expected, this.fetchPaths());
+
+		this.runner.setProperty(FetchFiles.MAX_DEPTH, "2");
+		this.runner.setProperty(FetchFiles.FILE_FILTER, ".*\\.txt");
+		assertEquals(expected.stream().filter(p -> p.endsWith(".txt") && Paths.get(p).getNameCount() <= 2).collect(Collectors.toList()), this.fetchPaths());
+
+		this.runner.removeProperty(FetchFiles.MAX_DEPTH);
+		this.runner.removeProperty(FetchFiles.FILE_FILTER);
+		this.runner.setProperty(FetchFiles.PATH_FILTER, ".*lvl1");
+		this.runner.setProperty(FetchFiles.MIN_SIZE, "1 KB");
+		assertEquals(expected.stream().filter(p -> p.endsWith("test_document_v2.pdf")).collect(Collectors.toList()), this.fetchPaths());
+
+		this.runner.setProperty(FetchFiles.MIN_AGE, "1 hour");
+		assertEquals(0, this.fetchPaths().size());
+	}
+
+	/**
+	 * @return The relative paths of the files fetched by one run
+	 */
+	private List<String> fetchPaths() {
+		this.runner.clearTransferState();
+		this.runner.enqueue("");
+		this.runner.run();
+		this.runner.assertQueueEmpty();
+		return this.runner.getFlowFilesForRelationship(FetchFiles.REL_SUCCESS).stream().map(f -> f.getAttribute(CoreAttributes.PATH.key())).collect(Collectors.toList());
+	}
+
+	@Test
+	public void testFetchTracking() throws IOException {
+		final Path root = this.folder.newFolder("tracked").toPath();
+		for (String name : new String[] { "a.txt", "b.txt", "c.txt" }) {
+			Files.write(root.resolve(name), name.getBytes(StandardCharsets.UTF_8));
+		}
+		this.runner.setProperty(FetchFiles.FILEPATH, root.toString());
+		this.runner.setProperty(FetchFiles.TRACKING, FetchFiles.TRACKING_TIMESTAMPS);
+		this.runner.assertNotValid();
+		this.runner.setProperty(FetchFiles.TRACKING_DIRECTORY, this.folder.getRoot().toPath().resolve("index").toString());
+
+		// Every run reopens the index
+		assertEquals(Arrays.asList("a.txt", "b.txt", "c.txt"), this.fetchPaths());
+		assertEquals(0, this.fetchPaths().size());
+
+		Files.write(root.resolve("b.txt"), "changed".getBytes(StandardCharsets.UTF_8));
+		Files.write(root.resolve("d.txt"), "new".getBytes(StandardCharsets.UTF_8));
+		assertEquals(Arrays.asList("b.txt", "d.txt"), this.fetchPaths());
+		assertEquals(0, this.fetchPaths().size());
+
+		// Touched, but the same content, fetched once as the files fetched before were not hashed
+		final FileTime touched = FileTime.fromMillis(Files.getLastModifiedTime(root.resolve("c.txt")).toMillis() - 60000);
+		Files.setLastModifiedTime(root.resolve("c.txt"), touched);
+		this.runner.setProperty(FetchFiles.TRACKING, FetchFiles.TRACKING_CONTENT_HASH);
+		assertEquals(Arrays.asList("c.txt"), this.fetchPaths());
+		Files.setLastModifiedTime(root.resolve("c.txt"), FileTime.fromMillis(touched.toMillis() - 60000));
+		assertEquals(0, this.fetchPaths().size());
+		this.runner.setProperty(FetchFiles.TRACKING, FetchFiles.TRACKING_TIMESTAMPS);
+		Files.setLastModifiedTime(root.resolve("c.txt"), touched);
+		assertEquals(Arrays.asList("c.txt"), this.fetchPaths());
+
+		// Only fetched files count, so the walk goes on past the unchanged ones in the same trigger
+		this.runner.setProperty(FetchFiles.MAX_FILES, "1");
+		Files.write(root.resolve("d.txt"), "changed".getBytes(StandardCharsets.UTF_8));
+		assertEquals(Arrays.asList("d.txt"), this.fetchPaths());
+	}
+
+	@Test
+	public void testSeenFileIndexMerge() throws IOException {
+		final Path indexFile = this.folder.getRoot().toPath().resolve("test.index");
+		final List<byte[]> keys = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			keys.add(SeenFileIndex.key(Paths.get("file" + i)));
+		}
+
+		// A run every 16 entries, the last ones stay in the journal
+		try (SeenFileIndex index = new SeenFileIndex(indexFile, 16)) {
+			for (int i = 0; i < keys.size(); i += 10) {
+				final List<SeenFileIndex.Entry> entries = new ArrayList<>();
+				for (int j = i; j < i + 10; j++) {
+					entries.add(new SeenFileIndex.Entry(keys.get(j), j, 0, 0));
+				}
+				index.putAll(entries);
+			}
+			index.putAll(Arrays.asList(new SeenFileIndex.Entry(keys.get(0), 1000, 0, 0)));
+			// Five runs of 20 entries, the newest merged as long as they are no smaller than the one before
+			assertEquals(2, index.getRunCount());
+		}
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(indexFile.getParent(), "test.index.[0-9]*")) {
+			int count = 0;
+			for (Path file : files) {
+				count++;
+			}
+			assertEquals(2, count);
+		}
+		try (SeenFileIndex index = new SeenFileIndex(indexFile, 16)) {
+			assertEquals(1000, index.get(keys.get(0)).size);
+			for (int i = 1; i < keys.size(); i++) {
+				assertEquals(i, index.get(keys.get(i)).size);
+			}
+			assertNull(index.get(SeenFileIndex.key(Paths.get("other"))));
+		}
+	}
+
+	@Test
+	public void testCompletionMove() throws IOException {
+		final Path source = this.copyNestedFolder();
+		final Path target = this.folder.getRoot().toPath().resolve("moved");
+		this.runner.setProperty(FetchFiles.FILEPATH, source.toString());
+		this.runner.setProperty(FetchFiles.COMPLETION_STRATEGY, FetchFiles.COMPLETION_MOVE);
+		this.runner.setProperty(FetchFiles.MOVE_DESTINATION_DIR, target.toString());
+		assertEquals(2, this.fetchPaths().size());
+
+		// Stopping waits for the background completion
+		for (String document : NESTED_DOCUMENTS) {
+			assertFalse(Files.exists(source.resolve(document)));
+			assertTrue(Files.exists(target.resolve(source.getFileName()).resolve(document)));
+		}
+		this.runner.run();
+		assertEquals(Long.valueOf(2), this.runner.getCounterValue("Completed files"));
+
+		// The second file exists in the target, so the first one is not fetched either
+		for (String document : NESTED_DOCUMENTS) {
+			Files.copy(this.getClass().getResourceAsStream("/nested_folder/" + document), source.resolve(document));
+		}
+		Files.delete(target.resolve(source.getFileName()).resolve(NESTED_DOCUMENTS[0]));
+		this.runner.setProperty(FetchFiles.CONFLICT_STRATEGY, FetchFiles.CONFLICT_FAIL);
+		assertEquals(0, this.fetchPaths().size());
+		this.runner.assertTransferCount(FetchFiles.REL_FAILURE, 1);
+		for (String document : NESTED_DOCUMENTS) {
+			assertTrue(Files.exists(source.resolve(document)));
+		}
+	}
+
+	@Test
+	public void testCompletionRetries() throws IOException {
+		final AtomicInteger deletes = new AtomicInteger();
+		this.runner = TestRunners.newTestRunner(new FetchFiles() {
+			@Override
+			protected void delete(File file) throws IOException {
+				// Every file fails once
+				if (deletes.incrementAndGet() % 2 == 1) {
+					throw new IOException("Device or resource busy");
+				}
+				super.delete(file);
+			}
+		});
+		final Path source = this.copyNestedFolder();
+		this.runner.setProperty(FetchFiles.FILEPATH, source.toString());
+		this.runner.setProperty(FetchFiles.COMPLETION_STRATEGY, FetchFiles.COMPLETION_DELETE);
+		assertEquals(2, this.fetchPaths().size());
+
+		for (String document : NESTED_DOCUMENTS) {
+			assertFalse(Files.exists(source.resolve(document)));
+		}
+		this.runner.run();
+		assertEquals(Long.valueOf(2), this.runner.getCounterValue("Completed files"));
+		assertEquals(Long.valueOf(2), this.runner.getCounterValue("Completion retries"));
+		assertNull(this.runner.getCounterValue("Failed completions"));
+	}
+
+	@Test
+	public void testImportFailure() throws IOException {
+		final AtomicInteger imports = new AtomicInteger();
+		this.runner = TestRunners.newTestRunner(new FetchFiles() {
+			@Override
+			protected FlowFile importFile(ProcessSession session, Path file, FlowFile flowFile, byte[] buffer) {
+				// The second file of the first batch fails
+				if (imports.incrementAndGet() == 2) {
+					throw new FlowFileAccessException("Input/output error");
+				}
+				return super.importFile(session, file, flowFile, buffer);
+			}
+		});
+		final Path source = this.copyNestedFolder();
+		this.runner.setProperty(FetchFiles.FILEPATH, source.toString());
+		this.runner.setProperty(FetchFiles.COMPLETION_STRATEGY, FetchFiles.COMPLETION_DELETE);
+		this.runner.enqueue("");
+		this.runner.run();
+
+		// The file imported before the failure is dropped along with the batch
+		this.runner.assertTransferCount(FetchFiles.REL_SUCCESS, 0);
+		this.runner.assertTransferCount(FetchFiles.REL_FAILURE, 1);
+		assertNull(this.runner.getCounterValue("Completed files"));
+		for (String document : NESTED_DOCUMENTS) {
+			assertTrue(Files.exists(source.resolve(document)));
+		}
+
+		// Routed back, the batch is fetched as a whole
+		final MockFlowFile failed = this.runner.getFlowFilesForRelationship(FetchFiles.REL_FAILURE).get(0);
+		this.runner.clearTransferState();
+		this.runner.enqueue(new byte[0], failed.getAttributes());
+		this.runner.run();
+		this.runner.assertAllFlowFilesTransferred(FetchFiles.REL_SUCCESS, NESTED_DOCUMENTS.length);
+		this.runner.run();
+		assertEquals(Long.valueOf(NESTED_DOCUMENTS.length), this.runner.getCounterValue("Completed files"));
+	}
+
+	@Test
+	public void testListingOnly() throws IOException {
+		final Path source = this.copyNestedFolder();
+		this.runner.setProperty(FetchFiles.FILEPATH, source.toString());
+		this.runner.setProperty(FetchFiles.OUTPUT_MODE, FetchFiles.OUTPUT_LISTING);
+		this.runner.setProperty(FetchFiles.COMPLETION_STRATEGY, FetchFiles.COMPLETION_DELETE);
+		this.runner.assertNotValid();
+		this.runner.setProperty(FetchFiles.COMPLETION_STRATEGY, FetchFiles.COMPLETION_NONE);
+		assertEquals(Arrays.stream(NESTED_DOCUMENTS).map(d -> Paths.get(d).toString()).collect(Collectors.toList()), this.fetchPaths());
+
+		// Another FetchFiles with the defaults imports the listed files
+		final TestRunner fetcher = TestRunners.newTestRunner(new FetchFiles());
+		final List<MockFlowFile> listing = this.runner.getFlowFilesForRelationship(FetchFiles.REL_SUCCESS);
+		for (int i = 0; i < listing.size(); i++) {
+			final MockFlowFile listed = listing.get(i);
+			final Path file = source.resolve(NESTED_DOCUMENTS[i]);
+			listed.assertContentEquals("");
+			listed.assertAttributeEquals(FetchFiles.ATTRIBUTE_SIZE, String.valueOf(Files.size(file)));
+			listed.assertAttributeEquals(FetchFiles.ATTRIBUTE_OWNER, Files.getOwner(file).getName());
+			listed.assertAttributeExists(FetchFiles.ATTRIBUTE_LAST_MODIFIED);
+			fetcher.enqueue(new byte[0], listed.getAttributes());
+		}
+		fetcher.run(listing.size());
+		fetcher.assertAllFlowFilesTransferred(FetchFiles.REL_SUCCESS, listing.size());
+		for (int i = 0; i < listing.size(); i++) {
+			fetcher.getFlowFilesForRelationship(FetchFiles.REL_SUCCESS).get(i).assertContentEquals(source.resolve(NESTED_DOCUMENTS[i]));
+		}
+	}
+
+	/**
+	 * @return A copy of the nested_folder documents, to be moved or deleted
+	 */
+	private Path copyNestedFolder() throws IOException {
+		final Path copy = this.folder.newFolder("nested_copy").toPath();
+		for (String document : NESTED_DOCUMENTS) {
+			final Path file = copy.resolve(document);
+			Files.createDirectories(file.getParent());
+			Files.copy(this.getClass().getResourceAsStream("/nested_folder/" + document), file);
+		}
+		return copy;
+	}
+
+	@Test
+	public void testImportBufferSize() throws IOException {
+		final Path root = this.folder.newFolder("sizes").toPath();
+		final Random random = new Random(42);
+		final List<byte[]> contents = new ArrayList<>();
+		for (int i = 0; i < FILE_SIZES.length; i++) {
+			final byte[] content = new byte[FILE_SIZES[i]];
+			random.nextBytes(content);
+			Files.write(root.resolve("file" + i), content);
+			contents.add(content);
+		}
+
+		for (String bufferSize : new String[] { null, "4 KB", "1 MB" }) {
+			this.runner.clearTransferState();
+			this.runner.setProperty(FetchFiles.FILEPATH, root.toString());
+			if (bufferSize == null) {
+				this.runner.removeProperty(FetchFiles.IMPORT_BUFFER_SIZE);
+			} else {
+				this.runner.setProperty(FetchFiles.IMPORT_BUFFER_SIZE, bufferSize);
+			}
+			this.runner.enqueue("");
+			this.runner.run();
+
+			this.runner.assertTransferCount(FetchFiles.REL_SUCCESS, FILE_SIZES.length);
+			final List<MockFlowFile> flowFiles = this.runner.getFlowFilesForRelationship(FetchFiles.REL_SUCCESS);
+			for (int i = 0; i < FILE_SIZES.length; i++) {
+				flowFiles.get(i).assertContentEquals(contents.get(i));
+			}
+		}
+	}
+
+	/**
+	 * Generates the nested_folder documents below a tree of TREE_DEPTH levels with TREE_FANOUT directories and files each.
+	 * @return The relative paths of the files in walk order: depth first, with the entries of every directory sorted by name
+	 */
+	private List<String> generateTree(Path root) throws IOException {
+		final List<String> expected = new ArrayList<>();
+		generateTree(root, "", TREE_DEPTH, expected);
+		expected.sort((a, b) -> {
+			final String[] x = a.split(Pattern.quote(File.separator));
+			final String[] y = b.split(Pattern.quote(File.separator));
+			for (int i = 0; i < Math.min(x.length, y.length); i++) {
+				if (!x[i].equals(y[i])) {
+					return x[i].compareTo(y[i]);
+				}
+			}
+			return x.length - y.length;
+		});
+		return expected;
+	}
+
+	/**
+	 * Generates the levels of the tree, with names that sort differently as path strings ('a-1' before 'a/') than by path
+	 * elements ('a' before 'a-1'), and the nested_folder documents in the deepest directories.
+	 * @param expected Receives the relative paths of the files
+	 */
+	private void generateTree(Path dir, String relative, int depth, List<String> expected) throws IOException {
+		if (depth == 0) {
+			for (String document : NESTED_DOCUMENTS) {
+				final Path file = dir.resolve(document);
+				Files.createDirectories(file.getParent());
+				Files.copy(this.getClass().getResourceAsStream("/nested_folder/" + document), file);
+				expected.add(relative + document);
+			}
+			return;
+		}
+		for (int i = 0; i < TREE_FANOUT; i++) {
+			final String name = "a" + (i == 0 ? "" : "-" + i);
+			generateTree(Files.createDirectory(dir.resolve(name)), relative + name + File.separator, depth - 1, expected);
+			final String file = name + ".txt";
+			Files.write(dir.resolve(file), file.getBytes(StandardCharsets.UTF_8));
+			expected.add(relative + file);
+		}
+	}
+
 }
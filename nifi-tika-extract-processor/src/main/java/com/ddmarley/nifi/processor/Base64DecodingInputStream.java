@@ -0,0 +1,144 @@
+package com.ddmarley.nifi.processor;
+
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * InputStream decoding base64 directly from a character sequence, e.g. a FlowFile attribute value.<br>
+ * Neither the encoded bytes nor the decoded content are copied into a buffer, the characters are decoded on the fly
+ * while the stream is read. Like {@code Base64.decodeBase64} it accepts the standard and the URL-safe alphabet, skips
+ * line breaks and any other character outside the alphabet and stops at the first padding character.<br>
+ * Mark and reset are supported at no cost, as the position in the sequence is all the state there is.
+ */
+class Base64DecodingInputStream extends InputStream {
+
+	private static final byte[] DECODE_TABLE = new byte[128];
+
+	static {
+		Arrays.fill(DECODE_TABLE, (byte) -1);
+		for (int i = 0; i < 26; i++) {
+			DECODE_TABLE['A' + i] = (byte) i;
+			DECODE_TABLE['a' + i] = (byte) (26 + i);
+		}
+		for (int i = 0; i < 10; i++) {
+			DECODE_TABLE['0' + i] = (byte) (52 + i);
+		}
+		DECODE_TABLE['+'] = 62;
+		DECODE_TABLE['-'] = 62;
+		DECODE_TABLE['/'] = 63;
+		DECODE_TABLE['_'] = 63;
+	}
+
+	private final CharSequence chars;
+	private int pos = 0;
+	// Up to three decoded bytes of the current quantum, not yet handed out
+	private int bits = 0;
+	private int available = 0;
+	private boolean eof = false;
+
+	private int markPos;
+	private int markBits;
+	private int markAvailable;
+	private boolean markEof;
+
+	/**
+	 * @param chars The base64 encoded characters
+	 */
+	Base64DecodingInputStream(CharSequence chars) {
+		this.chars = chars;
+	}
+
+	@Override
+	public int read() {
+		if (available == 0 && !decodeQuantum()) {
+			return -1;
+		}
+		available--;
+		return (bits >> (available * 8)) & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) {
+		if (len == 0) {
+			return 0;
+		}
+		int n = 0;
+		while (n < len) {
+			if (available == 0 && !decodeQuantum()) {
+				break;
+			}
+			available--;
+			b[off + n++] = (byte) (bits >> (available * 8));
+		}
+		return n == 0 ? -1 : n;
+	}
+
+	@Override
+	public int available() {
+		return available;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return true;
+	}
+
+	@Override
+	public void mark(int readlimit) {
+		markPos = pos;
+		markBits = bits;
+		markAvailable = available;
+		markEof = eof;
+	}
+
+	@Override
+	public void reset() {
+		pos = markPos;
+		bits = markBits;
+		available = markAvailable;
+		eof = markEof;
+	}
+
+	/**
+	 * Decodes the next up to four characters of the alphabet into up to three bytes.
+	 * @return Whether any bytes are available now
+	 */
+	private boolean decodeQuantum() {
+		int sextets = 0;
+		int quantum = 0;
+		while (!eof && sextets < 4) {
+			if (pos >= chars.length()) {
+				eof = true;
+				break;
+			}
+			final char ch = chars.charAt(pos++);
+			if (ch == '=') {
+				eof = true;
+				break;
+			}
+			final int value = ch < DECODE_TABLE.length ? DECODE_TABLE[ch] : -1;
+			if (value >= 0) {
+				quantum = (quantum << 6) | value;
+				sextets++;
+			}
+		}
+		switch (sextets) {
+		case 4:
+			bits = quantum;
+			available = 3;
+			break;
+		case 3:
+			bits = quantum >> 2;
+			available = 2;
+			break;
+		case 2:
+			bits = quantum >> 4;
+			available = 1;
+			break;
+		default:
+			// A single trailing character carries less than a byte and is dropped
+			available = 0;
+		}
+		return available > 0;
+	}
+}
@@ -0,0 +1,63 @@
+package com.ddmarley.nifi.processor;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.io.input.ProxyInputStream;
+
+/**
+ * InputStream counting the bytes read from the underlying stream. Unlike {@code CountingInputStream}, bytes read again
+ * after a reset are not counted twice, so the type detection of the parsers peeking at the head of the document
+ * does not add to the count.
+ */
+class ByteCountingInputStream extends ProxyInputStream {
+
+	private long position = 0;
+	private long markPosition = 0;
+	private long count = 0;
+
+	/**
+	 * @param in The stream to count the bytes of
+	 */
+	ByteCountingInputStream(InputStream in) {
+		super(in);
+	}
+
+	@Override
+	protected void afterRead(int n) {
+		if (n > 0) {
+			advance(n);
+		}
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		final long skipped = super.skip(n);
+		advance(skipped);
+		return skipped;
+	}
+
+	@Override
+	public synchronized void mark(int readlimit) {
+		super.mark(readlimit);
+		markPosition = position;
+	}
+
+	@Override
+	public synchronized void reset() throws IOException {
+		super.reset();
+		position = markPosition;
+	}
+
+	private void advance(long n) {
+		position += n;
+		count = Math.max(count, position);
+	}
+
+	/**
+	 * @return The number of distinct bytes read so far
+	 */
+	long getByteCount() {
+		return count;
+	}
+}
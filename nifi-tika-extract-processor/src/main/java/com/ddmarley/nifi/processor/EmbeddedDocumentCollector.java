@@ -0,0 +1,177 @@
+package com.ddmarley.nifi.processor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
+
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.mime.MediaType;
+import org.apache.tika.parser.AbstractParser;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.Parser;
+import org.apache.tika.parser.RecursiveParserWrapper;
+import org.apache.tika.sax.ContentHandlerDecorator;
+import org.apache.tika.sax.ContentHandlerFactory;
+import org.apache.tika.sax.RecursiveParserWrapperHandler;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+
+/**
+ * Collects the container and every embedded document, each with its own content and metadata, while a
+ * {@code RecursiveParserWrapper} walks the document tree.<br>
+ * Documents below the maximum depth are neither parsed nor collected, so their own embedded documents are never
+ * looked at. After parsing {@link #getMetadataList()} holds the container first, followed by the embedded documents.<br>
+ * The text of all documents is held until the parse is done, so it is bounded in total. The characters are counted
+ * while they are written into the handlers of the documents. Once the bound is reached the handler throws, the text
+ * of the documents is dropped, no further embedded document is parsed and the collector is flagged, see
+ * {@link #isCharacterLimitExceeded()}.
+ */
+class EmbeddedDocumentCollector extends RecursiveParserWrapperHandler {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int maxDepth;
+	private final long maxCharacters;
+	private long characters;
+	private boolean characterLimitExceeded;
+
+	/**
+	 * @param factory Creates the content handler of every single document
+	 * @param maxEmbedded The maximum number of embedded documents, -1 for no limit
+	 * @param maxDepth The maximum nesting depth of embedded documents, 1 are the documents directly embedded into the container
+	 * @param maxCharacters The maximum number of characters of all documents together, -1 for no limit
+	 */
+	EmbeddedDocumentCollector(ContentHandlerFactory factory, int maxEmbedded, int maxDepth, long maxCharacters) {
+		super(factory, maxEmbedded);
+		this.maxDepth = maxDepth;
+		this.maxCharacters = maxCharacters;
+	}
+
+	/**
+	 * @return The number of characters extracted from all documents, including the dropped ones
+	 */
+	long getCharacters() {
+		return characters;
+	}
+
+	/**
+	 * @return Whether the documents exceeded the maximum number of characters, their text has been dropped then
+	 */
+	boolean isCharacterLimitExceeded() {
+		return characterLimitExceeded;
+	}
+
+	/**
+	 * Wraps the parsers into a {@code RecursiveParserWrapper} reporting to this collector.
+	 * @param container The parser of the container document
+	 * @param embedded The parser of embedded documents, usually an auto-detecting one
+	 * @return The parser to parse the container with
+	 */
+	Parser wrap(Parser container, Parser embedded) {
+		return new RecursiveParserWrapper(new DepthLimitingParser(container, embedded));
+	}
+
+	@Override
+	public ContentHandler getNewContentHandler() {
+		return new CharacterCountingHandler(super.getNewContentHandler());
+	}
+
+	@Override
+	public void endEmbeddedDocument(ContentHandler contentHandler, Metadata metadata) throws SAXException {
+		if (!isTooDeep(metadata, maxDepth)) {
+			super.endEmbeddedDocument(contentHandler, metadata);
+			this.dropTextIfExceeded(metadata);
+		}
+	}
+
+	@Override
+	public void endDocument(ContentHandler contentHandler, Metadata metadata) throws SAXException {
+		super.endDocument(contentHandler, metadata);
+		this.dropTextIfExceeded(metadata);
+	}
+
+	/**
+	 * Counts characters about to be written into the handler of a document.
+	 * @throws SAXException If they exceed the maximum number of characters of all documents
+	 */
+	private void countCharacters(int length) throws SAXException {
+		characters += length;
+		if (maxCharacters < 0 || characters <= maxCharacters) {
+			return;
+		}
+		if (!characterLimitExceeded) {
+			// The documents are given up on, so none of their text is needed any more
+			characterLimitExceeded = true;
+			for (Metadata collected : getMetadataList()) {
+				collected.remove(TIKA_CONTENT.getName());
+			}
+		}
+		throw new SAXException("The documents exceed " + maxCharacters + " characters");
+	}
+
+	private void dropTextIfExceeded(Metadata metadata) {
+		if (characterLimitExceeded) {
+			metadata.remove(TIKA_CONTENT.getName());
+		}
+	}
+
+	private static boolean isTooDeep(Metadata metadata, int maxDepth) {
+		final Integer depth = metadata.getInt(EMBEDDED_DEPTH);
+		return depth != null && depth > maxDepth;
+	}
+
+	/**
+	 * Passes the characters of a single document on, counting them against the maximum number of characters of all documents.
+	 */
+	private class CharacterCountingHandler extends ContentHandlerDecorator {
+
+		CharacterCountingHandler(ContentHandler handler) {
+			super(handler);
+		}
+
+		@Override
+		public void characters(char[] ch, int start, int length) throws SAXException {
+			countCharacters(length);
+			super.characters(ch, start, length);
+		}
+
+		@Override
+		public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+			countCharacters(length);
+			super.ignorableWhitespace(ch, start, length);
+		}
+	}
+
+	/**
+	 * Parses the container with its own parser, embedded documents up to the maximum depth with the embedded parser
+	 * and skips anything deeper, as well as any embedded document once the maximum number of characters is exceeded.
+	 */
+	private class DepthLimitingParser extends AbstractParser {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Parser container;
+		private final Parser embedded;
+
+		DepthLimitingParser(Parser container, Parser embedded) {
+			this.container = container;
+			this.embedded = embedded;
+		}
+
+		@Override
+		public Set<MediaType> getSupportedTypes(ParseContext context) {
+			return embedded.getSupportedTypes(context);
+		}
+
+		@Override
+		public void parse(InputStream stream, ContentHandler handler, Metadata metadata, ParseContext context) throws IOException, SAXException, TikaException {
+			// The depth is only set for embedded documents, before they are parsed
+			if (metadata.getInt(EMBEDDED_DEPTH) == null) {
+				container.parse(stream, handler, metadata, context);
+			} else if (!isTooDeep(metadata, maxDepth) && !characterLimitExceeded) {
+				embedded.parse(stream, handler, metadata, context);
+			}
+		}
+	}
+}
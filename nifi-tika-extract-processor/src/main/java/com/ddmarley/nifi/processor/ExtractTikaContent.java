@@ -4,16 +4,47 @@ import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
-import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.function.IOSupplier;
+import org.apache.commons.io.input.CloseShieldInputStream;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.apache.nifi.annotation.behavior.InputRequirement;
 import org.apache.nifi.annotation.behavior.InputRequirement.Requirement;
 import org.apache.nifi.annotation.behavior.ReadsAttribute;
@@ -22,38 +53,47 @@ import org.apache.nifi.annotation.behavior.WritesAttribute;
 import org.apache.nifi.annotation.behavior.WritesAttributes;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.annotation.lifecycle.OnStopped;
 import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.ValidationContext;
+import org.apache.nifi.components.ValidationResult;
 import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.flowfile.attributes.CoreAttributes;
+import org.apache.nifi.flowfile.attributes.FragmentAttributes;
 import org.apache.nifi.processor.AbstractProcessor;
 import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.DataUnit;
 import org.apache.nifi.processor.ProcessSession;
 import org.apache.nifi.processor.Relationship;
 import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.processor.io.InputStreamCallback;
 import org.apache.nifi.processor.util.StandardValidators;
-import org.apache.tika.Tika;
+import org.apache.tika.config.TikaConfig;
 import org.apache.tika.exception.TikaException;
-import org.apache.tika.langdetect.OptimaizeLangDetector;
-import org.apache.tika.language.detect.LanguageConfidence;
-import org.apache.tika.language.detect.LanguageDetector;
-import org.apache.tika.language.detect.LanguageResult;
-import org.apache.tika.metadata.Metadata;
+import org.apache.tika.fork.ForkParser;
+import org.apache.tika.io.TikaInputStream;
 import org.apache.tika.parser.AutoDetectParser;
-import org.apache.tika.parser.ParseContext;
-import org.apache.tika.parser.Parser;
-import org.apache.tika.sax.BodyContentHandler;
-import org.apache.tika.sax.WriteOutContentHandler;
-import org.xml.sax.SAXException;
+import org.apache.tika.parser.ocr.TesseractOCRConfig;
+import org.apache.tika.parser.ocr.TesseractOCRParser;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
 @Tags({ "Tika", "Extract", "Content", "Metadata", "PDF", "Word", "Rich", "Documents" })
 @CapabilityDescription("Run Apache Tika to extract content and/or metadata on rich documents. The extracted results are stored as JSON object either in the FlowFiles content area or in its attributes.")
 @InputRequirement(Requirement.INPUT_REQUIRED)
-@ReadsAttributes({ @ReadsAttribute(attribute = "Attribute name", description = "The configured 'Attribute name' where to locate the content to extract") })
-@WritesAttributes({ @WritesAttribute(attribute = "tika_json", description = "If content destination is attribute") })
+@ReadsAttributes({ @ReadsAttribute(attribute = "Attribute name", description = "The configured 'Attribute name' where to locate the content to extract"),
+		@ReadsAttribute(attribute = "mime.type", description = "The MIME type of the content, used instead of detecting it if 'Trust mime.type attribute' is enabled") })
+@WritesAttributes({ @WritesAttribute(attribute = "tika_json", description = "If content destination is attribute"),
+		@WritesAttribute(attribute = "tika.truncated", description = "Whether the extracted content was cut off at the configured 'Max extracted characters'"),
+		@WritesAttribute(attribute = "tika.meta.*", description = "The values of the metadata keys selected by 'Metadata attributes'"),
+		@WritesAttribute(attribute = "tika.ocr", description = "'true' if the content has been extracted by OCR, as the document had no text of its own") })
 public class ExtractTikaContent extends AbstractProcessor {
 
 	static final String FLOW_FILE_CONTENT = "flowFileContent";
@@ -63,14 +103,50 @@ public class ExtractTikaContent extends AbstractProcessor {
 	static final String STRATEGY_META = "metadataOnly";
 	static final String STRATEGY_ALL = "extractAll";
 
+	static final String OUTPUT_BUFFERED = "buffered";
+	static final String OUTPUT_STREAMING = "streaming";
+	static final String OUTPUT_CHUNKED = "chunked";
+
+	static final String CONTENT_TEXT = "text";
+	static final String CONTENT_XHTML = "xhtml";
+	static final String CONTENT_MARKDOWN = "markdown";
+
+	static final String CHUNK_BY_SIZE = "characters";
+	static final String CHUNK_BY_PAGE = "pages";
+
+	static final String EMBEDDED_INLINE = "inline";
+	static final String EMBEDDED_CHILDREN = "childFlowFiles";
+
+	static final String ISOLATION_NONE = "inProcess";
+	static final String ISOLATION_FORK = "forkedJvm";
+
+	static final String OCR_DISABLED = "disabled";
+	static final String OCR_FALLBACK = "fallback";
+
 	static final String FORMAT_UPPER = "uppercase";
 	static final String FORMAT_LOWER = "lowercase";
 	static final String FIELDNAME_CONTENT = "content";
 	static final String FIELDNAME_LANG = "content_language";
+	static final String FIELDNAME_TRUNCATED = "tika_truncated";
+	static final String ATTRIBUTE_TRUNCATED = "tika.truncated";
+	static final String ATTRIBUTE_EMBEDDED_PATH = "tika.embedded.path";
+	static final String ATTRIBUTE_EMBEDDED_DEPTH = "tika.embedded.depth";
+	static final String ATTRIBUTE_EMBEDDED_INDEX = "tika.embedded.index";
+	static final String ATTRIBUTE_EMBEDDED_COUNT = "tika.embedded.count";
+	static final String ATTRIBUTE_CHUNK_FIRST_PAGE = "tika.chunk.page.start";
+	static final String ATTRIBUTE_CHUNK_LAST_PAGE = "tika.chunk.page.end";
+	static final String ATTRIBUTE_METADATA_PREFIX = "tika.meta.";
+	static final String ATTRIBUTE_OCR = "tika.ocr";
 
 	static final Relationship REL_ORIGINAL = new Relationship.Builder().name("original").description("").build();
 	static final Relationship REL_SUCCESS = new Relationship.Builder().name("success").description("").build();
 	static final Relationship REL_FAILURE = new Relationship.Builder().name("failure").description("").build();
+	static final Relationship REL_TIMEOUT = new Relationship.Builder().name("timeout")
+			.description("FlowFiles whose parsing did not finish within the configured 'Parse timeout'").build();
+	static final Relationship REL_CHUNKS = new Relationship.Builder().name("chunks")
+			.description("The chunks of the extracted text if the output mode is '" + OUTPUT_CHUNKED + "', one FlowFile with a JSON document per chunk").build();
+	static final Relationship REL_EMBEDDED = new Relationship.Builder().name("embedded")
+			.description("One FlowFile per embedded document if 'Embedded documents' is '" + EMBEDDED_CHILDREN + "', holding its own JSON document").build();
 
 	static final PropertyDescriptor EXTRACT_STRATEGY = new PropertyDescriptor.Builder()
 			.name("Extract strategy").description("Weather to extract content only, metadata only or even both.")
@@ -82,6 +158,17 @@ public class ExtractTikaContent extends AbstractProcessor {
 			.required(true).allowableValues("true","false")
 			.defaultValue("false").build();
 
+	static final PropertyDescriptor LANG_DETECT_LANGUAGES = new PropertyDescriptor.Builder()
+			.name("Language detection languages").description("Comma separated list of ISO 639-1 language codes (e.g. 'en,de,fr') the language detection "
+					+ "is limited to. Only the profiles of these languages are loaded. If not set all known languages are considered.")
+			.required(false).addValidator(StandardValidators.NON_BLANK_VALIDATOR)
+			.build();
+
+	static final PropertyDescriptor LANG_DETECT_LENGTH = new PropertyDescriptor.Builder()
+			.name("Language detection length").description("The number of leading characters of the extracted content the language detection runs on.")
+			.required(true).addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+			.defaultValue("10000").build();
+
 	static final PropertyDescriptor CONTENT_LOCATION = new PropertyDescriptor.Builder().name("Content location")
 			.description("Where the binary content is located. This could be the content of the incoming FlowFile, "
 					+ "or in an attribute of the incoming FlowFile. If it's an attribute, we assume the content string is base64 encoded!")
@@ -92,6 +179,30 @@ public class ExtractTikaContent extends AbstractProcessor {
 			.description("The name of the attribute where to find the base64 encoded content.").required(false).addValidator(StandardValidators.ATTRIBUTE_KEY_PROPERTY_NAME_VALIDATOR)
 			.build();
 
+	static final PropertyDescriptor REMOVE_SOURCE_ATTRIBUTE = new PropertyDescriptor.Builder().name("Remove source attribute")
+			.description("Whether to remove the attribute holding the base64 encoded content from successfully extracted FlowFiles, "
+					+ "so the large string is not carried through the FlowFile repository. Only used if the content location is '" + FLOW_FILE_ATTRIBUTE + "'.")
+			.required(true).allowableValues("true","false")
+			.defaultValue("false").build();
+
+	static final PropertyDescriptor TRUST_MIME_TYPE = new PropertyDescriptor.Builder().name("Trust mime.type attribute")
+			.description("Whether to take the MIME type from the 'mime.type' attribute instead of detecting it. The document then goes straight to the "
+					+ "parser registered for that type, which saves the detection on every document. FlowFiles without the attribute are still detected.")
+			.required(true).allowableValues("true","false")
+			.defaultValue("false").build();
+
+	static final PropertyDescriptor ALLOWED_MIME_TYPES = new PropertyDescriptor.Builder().name("Allowed MIME types")
+			.description("Comma separated list of MIME types to extract, e.g. 'application/pdf,text/*'. Documents of any other type are routed to '"
+					+ "original' without being parsed. If not set all types are extracted.")
+			.required(false).addValidator(StandardValidators.NON_BLANK_VALIDATOR)
+			.build();
+
+	static final PropertyDescriptor DENIED_MIME_TYPES = new PropertyDescriptor.Builder().name("Denied MIME types")
+			.description("Comma separated list of MIME types not to extract, e.g. 'image/*,video/*'. Documents of these types are routed to '"
+					+ "original' without being parsed. Takes precedence over 'Allowed MIME types'.")
+			.required(false).addValidator(StandardValidators.NON_BLANK_VALIDATOR)
+			.build();
+
 	static final PropertyDescriptor CONTENT_DEST = new PropertyDescriptor.Builder().name("Content destination")
 			.description("The place where we should write the extracted content, either the FlowFile content or its attribute. "
 					+ "If attribute is choosen, the attribute key is 'tika_json'")
@@ -108,16 +219,262 @@ public class ExtractTikaContent extends AbstractProcessor {
 			.required(false).addValidator(StandardValidators.NON_BLANK_VALIDATOR).defaultValue(FIELDNAME_CONTENT)
 			.build();
 
+	static final PropertyDescriptor CONTENT_FORMAT = new PropertyDescriptor.Builder().name("Content format")
+			.description("The format of the extracted content. '" + CONTENT_TEXT + "' is plain text. '" + CONTENT_XHTML + "' is the body of the XHTML "
+					+ "document Tika produces, e.g. '<h1>Title</h1><p>Text</p>'. '" + CONTENT_MARKDOWN + "' keeps headings, paragraphs, lists and "
+					+ "tables as Markdown. Both keep the structure of the document for downstream splitting and are written while the document "
+					+ "is parsed. They are not supported with output mode '" + OUTPUT_CHUNKED + "' and embedded documents '" + EMBEDDED_CHILDREN + "'.")
+			.required(true).allowableValues(CONTENT_TEXT, CONTENT_XHTML, CONTENT_MARKDOWN).defaultValue(CONTENT_TEXT)
+			.build();
+
+	static final PropertyDescriptor METADATA_INCLUDE = new PropertyDescriptor.Builder().name("Metadata include")
+			.description("Comma separated list of the Tika metadata keys to put into the JSON document, e.g. 'dc:*,Content-Type'. '*' matches "
+					+ "any characters, case is ignored. If not set, all keys are included.")
+			.required(false).addValidator(StandardValidators.NON_BLANK_VALIDATOR)
+			.build();
+
+	static final PropertyDescriptor METADATA_EXCLUDE = new PropertyDescriptor.Builder().name("Metadata exclude")
+			.description("Comma separated list of the Tika metadata keys not to put into the JSON document, e.g. 'pdf:*,access_permission:*'. "
+					+ "Takes precedence over 'Metadata include'.")
+			.required(false).addValidator(StandardValidators.NON_BLANK_VALIDATOR)
+			.build();
+
+	static final PropertyDescriptor METADATA_ATTRIBUTES = new PropertyDescriptor.Builder().name("Metadata attributes")
+			.description("Comma separated list of the Tika metadata keys to put into FlowFile attributes as well, e.g. 'Content-Type,xmpTPg:NPages', "
+					+ "for routing without reading the JSON document. The attribute name is '" + ATTRIBUTE_METADATA_PREFIX + "' followed by the "
+					+ "lower case field name, multiple values are separated by ', '. Independent of the extract strategy and 'Metadata include'.")
+			.required(false).addValidator(StandardValidators.NON_BLANK_VALIDATOR)
+			.build();
+
+	static final PropertyDescriptor MAX_EXTRACTED_CHARS = new PropertyDescriptor.Builder().name("Max extracted characters")
+			.description("The maximum number of characters extracted from a single document, -1 means no limit. Documents that hit the limit are "
+					+ "not routed to failure, the content is cut off and flagged with the attribute '" + ATTRIBUTE_TRUNCATED + "' and the field '" + FIELDNAME_TRUNCATED + "'.")
+			.required(true).addValidator(StandardValidators.createLongValidator(-1, Integer.MAX_VALUE, true)).defaultValue("-1")
+			.build();
+
+	static final PropertyDescriptor EMBEDDED_MODE = new PropertyDescriptor.Builder().name("Embedded documents")
+			.description("How documents embedded into the document, like archive entries, e-mail attachments or OLE objects, are extracted. '"
+					+ EMBEDDED_INLINE + "' adds their text to the content of the document. '" + EMBEDDED_CHILDREN + "' extracts every embedded "
+					+ "document on its own and routes it with its own content and metadata as child FlowFile to 'embedded'. The content of the "
+					+ "document itself does not include them then. Requires output mode '" + OUTPUT_BUFFERED + "' and isolation '" + ISOLATION_NONE
+					+ "', the result cache is not used.")
+			.required(true).allowableValues(EMBEDDED_INLINE, EMBEDDED_CHILDREN).defaultValue(EMBEDDED_INLINE)
+			.build();
+
+	static final PropertyDescriptor MAX_EMBEDDED_DEPTH = new PropertyDescriptor.Builder().name("Max embedded depth")
+			.description("The maximum nesting depth of embedded documents extracted as child FlowFiles. 1 means only the documents embedded "
+					+ "directly into the document. Deeper documents are not even parsed.")
+			.required(true).addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR).defaultValue("5")
+			.build();
+
+	static final PropertyDescriptor MAX_EMBEDDED_COUNT = new PropertyDescriptor.Builder().name("Max embedded documents")
+			.description("The maximum number of embedded documents parsed within one document, -1 means no limit. Protects against archives "
+					+ "with a huge number of entries.")
+			.required(true).addValidator(StandardValidators.createLongValidator(-1, Integer.MAX_VALUE, true)).defaultValue("1000")
+			.build();
+
+	static final PropertyDescriptor MAX_EMBEDDED_CHARS = new PropertyDescriptor.Builder().name("Max embedded characters")
+			.description("The maximum number of characters extracted from a document and its embedded documents together, if they are extracted as "
+					+ "child FlowFiles, -1 means no limit. All of them are held in memory until the document is parsed. Parsing stops at the limit "
+					+ "and the document is routed to failure, use 'Max extracted characters' to cut off the single documents instead.")
+			.required(true).addValidator(StandardValidators.createLongValidator(-1, Long.MAX_VALUE, true)).defaultValue("50000000")
+			.build();
+
+	static final PropertyDescriptor OUTPUT_MODE = new PropertyDescriptor.Builder().name("Output mode")
+			.description("How the JSON document is produced. '" + OUTPUT_BUFFERED + "' builds the whole document in memory before writing it. '"
+					+ OUTPUT_STREAMING + "' writes the extracted text straight into the FlowFile content while the document is parsed, "
+					+ "so memory usage does not depend on the document size. Streaming requires the content destination '" + FLOW_FILE_CONTENT + "' "
+					+ "and no 'Parse timeout', as a cancelled parse could not be kept from writing into the content. '"
+					+ OUTPUT_CHUNKED + "' cuts the extracted text into chunks while the document is parsed and routes every chunk as JSON document "
+					+ "to 'chunks', with the fragment attributes set. The JSON document of the FlowFile itself then holds everything but the content.")
+			.required(true).allowableValues(OUTPUT_BUFFERED, OUTPUT_STREAMING, OUTPUT_CHUNKED).defaultValue(OUTPUT_BUFFERED)
+			.build();
+
+	static final PropertyDescriptor CHUNK_SIZE = new PropertyDescriptor.Builder().name("Chunk size")
+			.description("The maximum number of characters of a chunk in output mode '" + OUTPUT_CHUNKED + "'. Chunks are cut at a whitespace "
+					+ "where possible, so they may be a little shorter.")
+			.required(true).addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR).defaultValue("100000")
+			.build();
+
+	static final PropertyDescriptor CHUNK_BOUNDARY = new PropertyDescriptor.Builder().name("Chunk boundary")
+			.description("Where chunks end in output mode '" + OUTPUT_CHUNKED + "'. '" + CHUNK_BY_SIZE + "' only ends them at the chunk size. '"
+					+ CHUNK_BY_PAGE + "' also ends them at every page of documents that have pages, like PDFs, so a chunk never spans pages. "
+					+ "The pages of every chunk are written to '" + ATTRIBUTE_CHUNK_FIRST_PAGE + "' and '" + ATTRIBUTE_CHUNK_LAST_PAGE + "'.")
+			.required(true).allowableValues(CHUNK_BY_SIZE, CHUNK_BY_PAGE).defaultValue(CHUNK_BY_SIZE)
+			.build();
+
+	static final PropertyDescriptor BATCH_SIZE = new PropertyDescriptor.Builder().name("Batch size")
+			.description("The maximum number of FlowFiles pulled and extracted in one session. All of them are committed together, "
+					+ "which takes the per session overhead off bursts of small documents. Every FlowFile is still routed on its own.")
+			.required(true).addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR).defaultValue("1")
+			.build();
+
+	static final PropertyDescriptor BATCH_PARALLELISM = new PropertyDescriptor.Builder().name("Batch parallelism")
+			.description("The number of threads extracting the FlowFiles of one batch in parallel. With 1 they are extracted one after the other "
+					+ "on the task thread. Only used in output mode '" + OUTPUT_BUFFERED + "'.")
+			.required(true).addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR).defaultValue("1")
+			.build();
+
+	static final PropertyDescriptor RESULT_CACHE_SIZE = new PropertyDescriptor.Builder().name("Result cache size")
+			.description("The maximum size of the extracted JSON documents kept in memory, keyed by a SHA-256 digest of the document and this "
+					+ "configuration. Documents seen before are then not parsed again. The digest is computed while the document is parsed, "
+					+ "only documents of the same size as a cached one are read an additional time to look them up before parsing. "
+					+ "With '0 B' nothing is kept in memory. Only used in output mode '" + OUTPUT_BUFFERED + "'.")
+			.required(true).addValidator(StandardValidators.DATA_SIZE_VALIDATOR).defaultValue("0 B")
+			.build();
+
+	static final PropertyDescriptor RESULT_CACHE_DIRECTORY = new PropertyDescriptor.Builder().name("Result cache directory")
+			.description("Directory keeping the extracted JSON documents on disk, in addition to the memory of 'Result cache size'. "
+					+ "The directory is never cleaned up by the processor. If not set there is no disk cache.")
+			.required(false).addValidator(StandardValidators.NON_BLANK_VALIDATOR)
+			.build();
+
+	static final PropertyDescriptor PARSER_POOL_SIZE = new PropertyDescriptor.Builder().name("Parser pool size")
+			.description("The number of Tika parsers to keep in a pool. With 0 a single parser is shared by all concurrent tasks, "
+					+ "which is safe for the parsers shipped with Tika. A positive value gives each document its own parser out of a bounded pool, "
+					+ "for parsers that are not thread-safe. Concurrent tasks beyond the pool size wait for a free parser.")
+			.required(true).addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR).defaultValue("0")
+			.build();
+
+	static final PropertyDescriptor PARSE_TIMEOUT = new PropertyDescriptor.Builder().name("Parse timeout")
+			.description("The maximum time parsing a single document may take. Documents that take longer are cancelled and routed to 'timeout', "
+					+ "so they can't tie up a concurrent task. With '0 sec' parsing runs on the task thread without any timeout. Cancelled parses "
+					+ "that ignore the cancellation keep running for a while, if they take up all spare parse threads further documents go to 'failure'. "
+					+ "Not supported with output mode '" + OUTPUT_STREAMING + "'.")
+			.required(true).addValidator(StandardValidators.TIME_PERIOD_VALIDATOR).defaultValue("0 sec")
+			.build();
+
+	static final PropertyDescriptor PARSE_ISOLATION = new PropertyDescriptor.Builder().name("Parse isolation")
+			.description("Where documents are parsed. '" + ISOLATION_NONE + "' parses within the NiFi JVM. '" + ISOLATION_FORK + "' parses in "
+					+ "forked child JVMs using Tika's ForkParser, which protects the node from out of memory errors and endless loops in parsers "
+					+ "at the cost of inter-process communication. The number of child JVMs follows 'Parser pool size' (5 if 0).")
+			.required(true).allowableValues(ISOLATION_NONE, ISOLATION_FORK).defaultValue(ISOLATION_NONE)
+			.build();
+
+	static final PropertyDescriptor FORK_JAVA_COMMAND = new PropertyDescriptor.Builder().name("Fork java command")
+			.description("The command including JVM options used to start the child JVMs if 'Parse isolation' is '" + ISOLATION_FORK + "', "
+					+ "e.g. to limit their heap.")
+			.required(true).addValidator(StandardValidators.NON_BLANK_VALIDATOR).defaultValue("java -Xmx512m")
+			.build();
+
+	static final PropertyDescriptor OCR_MODE = new PropertyDescriptor.Builder().name("OCR")
+			.description("Whether to run OCR with a locally installed Tesseract on PDFs and images without text, like scanned documents. '"
+					+ OCR_FALLBACK + "' parses such documents a second time with OCR if the first pass extracted less than 'OCR text threshold' "
+					+ "characters, and flags them with the attribute '" + ATTRIBUTE_OCR + "'. They are spooled to a temporary file for that. "
+					+ "Requires output mode '" + OUTPUT_BUFFERED + "', embedded documents '" + EMBEDDED_INLINE + "' and isolation '" + ISOLATION_NONE + "'.")
+			.required(true).allowableValues(OCR_DISABLED, OCR_FALLBACK).defaultValue(OCR_DISABLED)
+			.build();
+
+	static final PropertyDescriptor OCR_MIN_CHARS = new PropertyDescriptor.Builder().name("OCR text threshold")
+			.description("The minimum number of non-whitespace characters the first pass has to extract from a PDF or an image, "
+					+ "so it is not parsed again with OCR.")
+			.required(true).addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR).defaultValue("10")
+			.build();
+
+	static final PropertyDescriptor OCR_CONCURRENCY = new PropertyDescriptor.Builder().name("OCR concurrency")
+			.description("The maximum number of documents OCR runs on at the same time, across all concurrent tasks. OCR takes by far more CPU "
+					+ "than the text extraction, so this keeps scanned documents from starving the others. Tasks beyond the limit wait.")
+			.required(true).addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR).defaultValue("1")
+			.build();
+
+	static final PropertyDescriptor OCR_LANGUAGE = new PropertyDescriptor.Builder().name("OCR language")
+			.description("The Tesseract languages to recognize, e.g. 'eng' or 'eng+deu'. Their trained data must be installed.")
+			.required(true).addValidator(StandardValidators.createRegexMatchingValidator(Pattern.compile("[A-Za-z_]+(\\+[A-Za-z_]+)*")))
+			.defaultValue("eng").build();
+
+	static final PropertyDescriptor TESSERACT_PATH = new PropertyDescriptor.Builder().name("Tesseract path")
+			.description("The directory holding the 'tesseract' executable. If not set it is looked up on the PATH.")
+			.required(false).addValidator(StandardValidators.NON_BLANK_VALIDATOR)
+			.build();
+
+	static final PropertyDescriptor METRICS = new PropertyDescriptor.Builder().name("Extraction metrics")
+			.description("Whether to measure the extraction per MIME type. The number of documents, the bytes read by the parser, the extracted "
+					+ "characters and the time taken by parsing and detection go into processor counters, e.g. 'Parse time ms (application/pdf)'. "
+					+ "The percentiles of the parse time are logged on level INFO every 'Metrics summary interval'.")
+			.required(true).allowableValues("true", "false").defaultValue("false")
+			.build();
+
+	static final PropertyDescriptor METRICS_INTERVAL = new PropertyDescriptor.Builder().name("Metrics summary interval")
+			.description("How often the percentiles of the parse time per MIME type are logged, covering the documents parsed since the last summary.")
+			.required(true).addValidator(StandardValidators.TIME_PERIOD_VALIDATOR).defaultValue("5 min")
+			.build();
+
+	// Properties that change how documents are extracted, but not the extracted JSON document
+	private static final Set<PropertyDescriptor> EXECUTION_PROPERTIES = new HashSet<>(Arrays.asList(CONTENT_DEST, OUTPUT_MODE, BATCH_SIZE,
+			BATCH_PARALLELISM, RESULT_CACHE_SIZE, RESULT_CACHE_DIRECTORY, PARSER_POOL_SIZE, PARSE_TIMEOUT, PARSE_ISOLATION, FORK_JAVA_COMMAND,
+			OCR_CONCURRENCY, TESSERACT_PATH, METRICS, METRICS_INTERVAL));
+
+	private static final int MAX_CACHED_FIELD_NAMES = 4096;
+	// Parse threads per parsing thread, the others are left to cancelled parses that don't react to the interrupt
+	private static final int PARSE_THREADS_PER_TASK = 2;
+	// Contents of a parallel batch up to this size are copied into memory, larger ones into temporary files
+	private static final long BATCH_SPOOL_THRESHOLD = 1024 * 1024;
+
+	// Mapper and writer are thread-safe once configured, so all FlowFiles share them
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+	private static final ObjectWriter JSON_WRITER = MAPPER.writer().without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+	// The extraction pipeline of the current schedule
+	private volatile TikaExtractor extractor;
+	private volatile long parseTimeoutMillis;
+	private volatile ExecutorService batchExecutor;
+	private volatile ExtractionCache resultCache;
+	// Normalized field names by raw name, for the field name format of the current schedule
+	private final ConcurrentMap<String, String> fieldNames = new ConcurrentHashMap<>();
+	private volatile boolean upperCaseFieldNames;
+	private volatile String contentFieldName;
+	// Null if all metadata is put into the JSON document
+	private volatile MetadataKeySelector metadataFields;
+	// Null if the extraction metrics are disabled
+	private volatile ExtractionMetrics metrics;
+	// Digest of the configuration, so cached documents are never mixed up between differently configured processors
+	private volatile byte[] configDigest;
+	// The properties of getSupportedPropertyDescriptors(), which never change, computed on first use
+	private volatile Set<PropertyDescriptor> supportedProperties;
+
 	@Override
 	protected List<PropertyDescriptor> getSupportedPropertyDescriptors() {
 		final List<PropertyDescriptor> properties = new ArrayList<>();
 		properties.add(CONTENT_LOCATION);
 		properties.add(ATTRIBUTE_NAME);
+		properties.add(REMOVE_SOURCE_ATTRIBUTE);
 		properties.add(EXTRACT_STRATEGY);
 		properties.add(EXTRACT_LANG);
+		properties.add(LANG_DETECT_LANGUAGES);
+		properties.add(LANG_DETECT_LENGTH);
+		properties.add(TRUST_MIME_TYPE);
+		properties.add(ALLOWED_MIME_TYPES);
+		properties.add(DENIED_MIME_TYPES);
 		properties.add(CONTENT_DEST);
 		properties.add(FIELDNAME_FORMAT);
 		properties.add(CONTENT_FIELDNAME);
+		properties.add(CONTENT_FORMAT);
+		properties.add(METADATA_INCLUDE);
+		properties.add(METADATA_EXCLUDE);
+		properties.add(METADATA_ATTRIBUTES);
+		properties.add(MAX_EXTRACTED_CHARS);
+		properties.add(EMBEDDED_MODE);
+		properties.add(MAX_EMBEDDED_DEPTH);
+		properties.add(MAX_EMBEDDED_COUNT);
+		properties.add(MAX_EMBEDDED_CHARS);
+		properties.add(OUTPUT_MODE);
+		properties.add(CHUNK_SIZE);
+		properties.add(CHUNK_BOUNDARY);
+		properties.add(BATCH_SIZE);
+		properties.add(BATCH_PARALLELISM);
+		properties.add(RESULT_CACHE_SIZE);
+		properties.add(RESULT_CACHE_DIRECTORY);
+		properties.add(PARSER_POOL_SIZE);
+		properties.add(PARSE_TIMEOUT);
+		properties.add(PARSE_ISOLATION);
+		properties.add(FORK_JAVA_COMMAND);
+		properties.add(OCR_MODE);
+		properties.add(OCR_MIN_CHARS);
+		properties.add(OCR_CONCURRENCY);
+		properties.add(OCR_LANGUAGE);
+		properties.add(TESSERACT_PATH);
+		properties.add(METRICS);
+		properties.add(METRICS_INTERVAL);
 		return properties;
 	}
 
@@ -127,32 +484,349 @@ public class ExtractTikaContent extends AbstractProcessor {
 		rels.add(REL_ORIGINAL);
 		rels.add(REL_SUCCESS);
 		rels.add(REL_FAILURE);
+		rels.add(REL_TIMEOUT);
+		rels.add(REL_CHUNKS);
+		rels.add(REL_EMBEDDED);
 		return rels;
 	}
 
+	@Override
+	protected Collection<ValidationResult> customValidate(final ValidationContext validationContext) {
+		final List<ValidationResult> results = new ArrayList<>();
+
+		if (OUTPUT_STREAMING.equals(validationContext.getProperty(OUTPUT_MODE).getValue())
+				&& !FLOW_FILE_CONTENT.equals(validationContext.getProperty(CONTENT_DEST).getValue())) {
+			results.add(new ValidationResult.Builder().subject(OUTPUT_MODE.getName()).input(OUTPUT_STREAMING)
+					.valid(false)
+					.explanation(OUTPUT_MODE.getName() + " '" + OUTPUT_STREAMING + "' requires " + CONTENT_DEST.getName() + " to be '" + FLOW_FILE_CONTENT + "'")
+					.build());
+		}
+
+		// With a timeout the parse runs on a pool thread, which would write into the session's stream and may go on after it is cancelled
+		if (OUTPUT_STREAMING.equals(validationContext.getProperty(OUTPUT_MODE).getValue()) && hasParseTimeout(validationContext)) {
+			results.add(new ValidationResult.Builder().subject(OUTPUT_MODE.getName()).input(OUTPUT_STREAMING)
+					.valid(false)
+					.explanation(OUTPUT_MODE.getName() + " '" + OUTPUT_STREAMING + "' requires " + PARSE_TIMEOUT.getName() + " to be '0 sec'")
+					.build());
+		}
+
+		if (EMBEDDED_CHILDREN.equals(validationContext.getProperty(EMBEDDED_MODE).getValue())
+				&& (!OUTPUT_BUFFERED.equals(validationContext.getProperty(OUTPUT_MODE).getValue())
+						|| ISOLATION_FORK.equals(validationContext.getProperty(PARSE_ISOLATION).getValue()))) {
+			results.add(new ValidationResult.Builder().subject(EMBEDDED_MODE.getName()).input(EMBEDDED_CHILDREN)
+					.valid(false)
+					.explanation(EMBEDDED_MODE.getName() + " '" + EMBEDDED_CHILDREN + "' requires " + OUTPUT_MODE.getName() + " '" + OUTPUT_BUFFERED
+							+ "' and " + PARSE_ISOLATION.getName() + " '" + ISOLATION_NONE + "'")
+					.build());
+		}
+
+		if (!CONTENT_TEXT.equals(validationContext.getProperty(CONTENT_FORMAT).getValue())
+				&& (OUTPUT_CHUNKED.equals(validationContext.getProperty(OUTPUT_MODE).getValue())
+						|| EMBEDDED_CHILDREN.equals(validationContext.getProperty(EMBEDDED_MODE).getValue()))) {
+			results.add(new ValidationResult.Builder().subject(CONTENT_FORMAT.getName()).input(validationContext.getProperty(CONTENT_FORMAT).getValue())
+					.valid(false)
+					.explanation(CONTENT_FORMAT.getName() + " '" + CONTENT_TEXT + "' is required by " + OUTPUT_MODE.getName() + " '" + OUTPUT_CHUNKED
+							+ "' and " + EMBEDDED_MODE.getName() + " '" + EMBEDDED_CHILDREN + "'")
+					.build());
+		}
+
+		if (OCR_FALLBACK.equals(validationContext.getProperty(OCR_MODE).getValue())
+				&& (!OUTPUT_BUFFERED.equals(validationContext.getProperty(OUTPUT_MODE).getValue())
+						|| EMBEDDED_CHILDREN.equals(validationContext.getProperty(EMBEDDED_MODE).getValue())
+						|| ISOLATION_FORK.equals(validationContext.getProperty(PARSE_ISOLATION).getValue()))) {
+			results.add(new ValidationResult.Builder().subject(OCR_MODE.getName()).input(OCR_FALLBACK)
+					.valid(false)
+					.explanation(OCR_MODE.getName() + " '" + OCR_FALLBACK + "' requires " + OUTPUT_MODE.getName() + " '" + OUTPUT_BUFFERED + "', "
+							+ EMBEDDED_MODE.getName() + " '" + EMBEDDED_INLINE + "' and " + PARSE_ISOLATION.getName() + " '" + ISOLATION_NONE + "'")
+					.build());
+		}
+
+		return results;
+	}
+
+	/**
+	 * @param validationContext The context to validate
+	 * @return Whether a positive {@code PARSE_TIMEOUT} is configured, false if it is not a valid time period
+	 */
+	private static boolean hasParseTimeout(ValidationContext validationContext) {
+		try {
+			return validationContext.getProperty(PARSE_TIMEOUT).asTimePeriod(TimeUnit.MILLISECONDS) > 0;
+		} catch (IllegalArgumentException e) {
+			// Reported by the validator of the property
+			return false;
+		}
+	}
+
+	/**
+	 * Loading the parser registry and detector chain is far more expensive than parsing a small document,
+	 * so it is done once per schedule and shared by all concurrent tasks.
+	 * @param context The Nifi ProcessContext
+	 */
+	@OnScheduled
+	public void onScheduled(final ProcessContext context) throws TikaException, IOException {
+		this.parseTimeoutMillis = context.getProperty(PARSE_TIMEOUT).asTimePeriod(TimeUnit.MILLISECONDS);
+		final int poolSize = context.getProperty(PARSER_POOL_SIZE).asInteger();
+		final TikaParserPool parserPool;
+		if (context.getProperty(PARSE_ISOLATION).getValue().equals(ISOLATION_FORK)) {
+			final ForkParser forkParser = new ForkParser(ExtractTikaContent.class.getClassLoader(), new AutoDetectParser());
+			if (poolSize > 0) {
+				forkParser.setPoolSize(poolSize);
+			}
+			forkParser.setJavaCommand(Arrays.asList(context.getProperty(FORK_JAVA_COMMAND).getValue().trim().split("\\s+")));
+			if (this.parseTimeoutMillis > 0) {
+				// Let the child kill itself as well, an interrupt can't stop it
+				forkParser.setServerParseTimeoutMillis(this.parseTimeoutMillis);
+			}
+			parserPool = new TikaParserPool(forkParser, getLogger());
+		} else {
+			parserPool = new TikaParserPool(poolSize, getLogger());
+		}
+		final int batchParallelism = this.isSupported(BATCH_PARALLELISM) ? context.getProperty(BATCH_PARALLELISM).asInteger() : 1;
+		if (batchParallelism > 1) {
+			this.batchExecutor = Executors.newFixedThreadPool(batchParallelism, newThreadFactory("batch"));
+		}
+		ExecutorService parseExecutor = null;
+		if (this.parseTimeoutMillis > 0) {
+			// Parses that don't react to the cancellation keep their thread for a while. The pool grows for them up to a bound,
+			// beyond that documents fail fast instead of piling up threads.
+			parseExecutor = new ThreadPoolExecutor(0, PARSE_THREADS_PER_TASK * context.getMaxConcurrentTasks() * batchParallelism,
+					60, TimeUnit.SECONDS, new SynchronousQueue<>(), newThreadFactory("parse"), new ThreadPoolExecutor.AbortPolicy());
+		}
+		this.metrics = this.isSupported(METRICS) && context.getProperty(METRICS).asBoolean()
+				? new ExtractionMetrics(context.getProperty(METRICS_INTERVAL).asTimePeriod(TimeUnit.NANOSECONDS)) : null;
+
+		this.extractor = new TikaExtractor(TikaConfig.getDefaultConfig().getDetector(), parserPool, parseExecutor, this.parseTimeoutMillis, this.metrics);
+		this.configureExtractor(context, this.extractor);
+
+		this.fieldNames.clear();
+		this.upperCaseFieldNames = context.getProperty(FIELDNAME_FORMAT).getValue().equals(FORMAT_UPPER);
+		this.contentFieldName = this.toValidFieldName(this.isSupported(CONTENT_FIELDNAME) ? context.getProperty(CONTENT_FIELDNAME).getValue() : FIELDNAME_CONTENT);
+		this.metadataFields = context.getProperty(METADATA_INCLUDE).isSet() || context.getProperty(METADATA_EXCLUDE).isSet()
+				? new MetadataKeySelector(context.getProperty(METADATA_INCLUDE).getValue(), context.getProperty(METADATA_EXCLUDE).getValue()) : null;
+
+		this.resultCache = null;
+		final long cacheSize = this.isSupported(RESULT_CACHE_SIZE) ? context.getProperty(RESULT_CACHE_SIZE).asDataSize(DataUnit.B).longValue() : 0;
+		if (cacheSize > 0 || context.getProperty(RESULT_CACHE_DIRECTORY).isSet()) {
+			this.resultCache = new ExtractionCache(cacheSize, context.getProperty(RESULT_CACHE_DIRECTORY).isSet()
+					? Paths.get(context.getProperty(RESULT_CACHE_DIRECTORY).getValue()) : null);
+			final MessageDigest digest = newDigest();
+			context.getProperties().entrySet().stream().filter(e -> !EXECUTION_PROPERTIES.contains(e.getKey()))
+					.sorted(Comparator.comparing(e -> e.getKey().getName()))
+					.forEach(e -> digest.update((e.getKey().getName() + "=" + e.getValue() + "\n").getBytes(StandardCharsets.UTF_8)));
+			this.configDigest = digest.digest();
+		}
+	}
+
+	/**
+	 * Configures the extraction pipeline of the schedule by the properties this processor supports.
+	 * @param context The Nifi ProcessContext
+	 * @param extractor The extractor to configure
+	 */
+	private void configureExtractor(ProcessContext context, TikaExtractor extractor) throws TikaException, IOException {
+		if (context.getProperty(EXTRACT_LANG).asBoolean()) {
+			final Set<String> languages = context.getProperty(LANG_DETECT_LANGUAGES).isSet()
+					? Arrays.stream(context.getProperty(LANG_DETECT_LANGUAGES).getValue().split(","))
+							.map(String::trim).filter(StringUtils::isNotEmpty).collect(Collectors.toSet())
+					: Collections.emptySet();
+			extractor.setLanguageDetection(languages, context.getProperty(LANG_DETECT_LENGTH).asInteger());
+		}
+		extractor.setContentFormat(this.isSupported(CONTENT_FORMAT) ? context.getProperty(CONTENT_FORMAT).getValue() : CONTENT_TEXT);
+		extractor.setMetadataAttributes(context.getProperty(METADATA_ATTRIBUTES).isSet()
+				? new MetadataKeySelector(context.getProperty(METADATA_ATTRIBUTES).getValue(), null) : null);
+		extractor.setMaxExtractedChars(context.getProperty(MAX_EXTRACTED_CHARS).asInteger());
+		if (this.isSupported(EMBEDDED_MODE) && context.getProperty(EMBEDDED_MODE).getValue().equals(EMBEDDED_CHILDREN)) {
+			extractor.setEmbeddedExtraction(context.getProperty(MAX_EMBEDDED_DEPTH).asInteger(), context.getProperty(MAX_EMBEDDED_COUNT).asInteger(),
+					context.getProperty(MAX_EMBEDDED_CHARS).asLong());
+		}
+		extractor.setMimeTypeFilter(parseMimeTypes(context.getProperty(ALLOWED_MIME_TYPES).getValue()),
+				parseMimeTypes(context.getProperty(DENIED_MIME_TYPES).getValue()));
+
+		if (this.isSupported(OCR_MODE) && context.getProperty(OCR_MODE).getValue().equals(OCR_FALLBACK)) {
+			final TesseractOCRConfig ocrConfig = new TesseractOCRConfig();
+			ocrConfig.setLanguage(context.getProperty(OCR_LANGUAGE).getValue());
+			if (context.getProperty(TESSERACT_PATH).isSet()) {
+				ocrConfig.setTesseractPath(context.getProperty(TESSERACT_PATH).getValue());
+			}
+			if (this.parseTimeoutMillis > 0) {
+				// Tesseract runs as external process, which would outlive the cancelled parse otherwise
+				ocrConfig.setTimeout((int) Math.max(1, TimeUnit.MILLISECONDS.toSeconds(this.parseTimeoutMillis)));
+			}
+			// Check once up front, so a missing Tesseract fails the scheduling and not the first scanned document
+			if (!new TesseractOCRParser().hasTesseract(ocrConfig)) {
+				throw new TikaException("Tesseract not found " + (context.getProperty(TESSERACT_PATH).isSet()
+						? "in " + context.getProperty(TESSERACT_PATH).getValue() : "on the PATH"));
+			}
+			extractor.setOcrFallback(ocrConfig, context.getProperty(OCR_MIN_CHARS).asInteger(), context.getProperty(OCR_CONCURRENCY).asInteger());
+		}
+	}
+
+	/**
+	 * Variants of this processor, like {@code ExtractTikaRecords}, only support a part of its properties.
+	 * The features behind the other properties stay disabled then.
+	 * @param descriptor The property
+	 * @return Whether this processor supports the property
+	 */
+	private boolean isSupported(PropertyDescriptor descriptor) {
+		Set<PropertyDescriptor> supported = this.supportedProperties;
+		if (supported == null) {
+			// Computing it twice in a race does no harm
+			supported = new HashSet<>(this.getSupportedPropertyDescriptors());
+			this.supportedProperties = supported;
+		}
+		return supported.contains(descriptor);
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @param value Comma separated list of MIME types, 'type/*' matches all subtypes
+	 * @return The lower case MIME types, empty if the value is not set
+	 */
+	private static List<String> parseMimeTypes(String value) {
+		if (value == null) {
+			return Collections.emptyList();
+		}
+		return Arrays.stream(value.split(",")).map(t -> t.trim().toLowerCase(Locale.ROOT))
+				.filter(StringUtils::isNotEmpty).collect(Collectors.toList());
+	}
+
+	/**
+	 * @param name The purpose of the threads, part of their names
+	 * @return Thread factory for daemon threads of this processor
+	 */
+	private static ThreadFactory newThreadFactory(String name) {
+		final AtomicInteger threadCount = new AtomicInteger();
+		return r -> {
+			final Thread thread = new Thread(r, "ExtractTikaContent-" + name + "-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	@OnStopped
+	public void onStopped() {
+		if (this.batchExecutor != null) {
+			this.batchExecutor.shutdownNow();
+			this.batchExecutor = null;
+		}
+		if (this.extractor != null) {
+			this.extractor.close();
+			this.extractor = null;
+		}
+		if (this.metrics != null) {
+			// The parse times since the last summary
+			final String summary = this.metrics.summarize();
+			if (summary != null) {
+				getLogger().info(summary);
+			}
+		}
+	}
+
 	@Override
 	public void onTrigger(ProcessContext context, ProcessSession session) throws ProcessException {
-		FlowFile flowFile = session.get();
+		final List<FlowFile> flowFiles = session.get(context.getProperty(BATCH_SIZE).asInteger());
 		// Nothing to do without a flowFile
-		if (flowFile == null) {
+		if (flowFiles.isEmpty()) {
 			return;
 		}
 
 		final String extractStrategy = context.getProperty(EXTRACT_STRATEGY).getValue();
 		final boolean extractLang = context.getProperty(EXTRACT_LANG).asBoolean();
+
+		if (context.getProperty(OUTPUT_MODE).getValue().equals(OUTPUT_STREAMING)) {
+			for (FlowFile flowFile : flowFiles) {
+				this.extractStreaming(context, session, flowFile, extractStrategy, extractLang);
+			}
+		} else if (context.getProperty(OUTPUT_MODE).getValue().equals(OUTPUT_CHUNKED)) {
+			for (FlowFile flowFile : flowFiles) {
+				this.extractChunked(context, session, flowFile, extractStrategy, extractLang);
+			}
+		} else if (this.batchExecutor != null && flowFiles.size() > 1) {
+			this.extractParallel(context, session, flowFiles, extractStrategy, extractLang);
+		} else {
+			for (FlowFile flowFile : flowFiles) {
+				this.extractBuffered(context, session, flowFile, extractStrategy, extractLang);
+			}
+		}
+		this.reportMetrics(session);
+		// All FlowFiles of the batch are committed together with the session
+	}
+
+	/**
+	 * Moves the extraction metrics into the processor counters and logs the summary of the parse times when due.
+	 * Does nothing unless {@code METRICS} is enabled.
+	 * @param session The Nifi ProcessSession
+	 */
+	protected void reportMetrics(ProcessSession session) {
+		final ExtractionMetrics metrics = this.metrics;
+		if (metrics == null) {
+			return;
+		}
+		metrics.adjustCounters(session);
+		final String summary = metrics.takeSummary();
+		if (summary != null) {
+			getLogger().info(summary);
+		}
+	}
+
+	/**
+	 * @return The extraction pipeline of the current schedule
+	 */
+	TikaExtractor getExtractor() {
+		return this.extractor;
+	}
+
+	/**
+	 * Extracts the FlowFile with Tika in buffered output mode on the task thread.
+	 * @param context The Nifi ProcessContext
+	 * @param session The Nifi ProcessSession
+	 * @param flowFile The FlowFile to extract
+	 * @param extractStrategy The extractStrategy based on {@code EXTRACT_STRATEGY}
+	 * @param extractLang Whether to detect the language
+	 */
+	private void extractBuffered(ProcessContext context, ProcessSession session, FlowFile flowFile, String extractStrategy, boolean extractLang) {
 		final String contentLocation = context.getProperty(CONTENT_LOCATION).getValue();
+		final String mimeType = this.getTrustedMimeType(context, flowFile);
+		String cacheKey = this.getCacheKey(context, session, flowFile, mimeType);
+		if (cacheKey != null && this.transferCached(context, session, flowFile, cacheKey)) {
+			return;
+		}
+		// Documents that can't be cached yet get their key while they are parsed, without a read of their own
+		final MessageDigest cacheDigest = cacheKey == null && contentLocation.equals(FLOW_FILE_CONTENT) && flowFile.getSize() > 0
+				? this.newCacheDigest(mimeType) : null;
+		if (cacheDigest != null) {
+			session.adjustCounter("Result cache misses", 1, false);
+		}
 
 		final AtomicReference<TikaResults> results = new AtomicReference<TikaResults>(null);
 		final AtomicReference<String> error = new AtomicReference<String>("none");
 		if (contentLocation.equals(FLOW_FILE_CONTENT)) {
-			session.read(flowFile, in -> {
+			this.readContent(session, flowFile, in -> {
 				try {
 					if(in.available() == 0) {
 						getLogger().warn("Could not get binary content from flowFile content. Routing to " + REL_ORIGINAL);
 						error.set("rel_original");
+					} else if (cacheDigest != null) {
+						final InputStream digestIn = new DigestInputStream(in, cacheDigest);
+						// The parse closes its stream, the rest of the content is still needed for the digest
+						results.set(this.ExtractWithTika(new BufferedInputStream(new CloseShieldInputStream(digestIn)), mimeType, extractStrategy, extractLang));
+						IOUtils.consume(digestIn);
 					} else {
-						results.set(this.ExtractWithTika(new BufferedInputStream(in), extractStrategy, extractLang));
+						results.set(this.ExtractWithTika(new BufferedInputStream(in), mimeType, extractStrategy, extractLang));
 					}
+				} catch (FilteredMimeTypeException e) {
+					getLogger().debug(e.getMessage() + ". Routing to " + REL_ORIGINAL);
+					error.set("rel_original");
+				} catch (ParseTimeoutException e) {
+					getLogger().warn("Tika extraction timed out for content binary: " + e.getMessage());
+					error.set("rel_timeout");
 				} catch (TikaException e) {
 					getLogger().error("Tika extraction failed for content binary: " + e.getMessage());
 					error.set("rel_failure");
@@ -161,10 +835,16 @@ public class ExtractTikaContent extends AbstractProcessor {
 			if(error.get().equals("rel_original")) {
 				session.transfer(flowFile, REL_ORIGINAL);
 				return;
+			} else if(error.get().equals("rel_timeout")) {
+				session.transfer(flowFile, REL_TIMEOUT);
+				return;
 			} else if(error.get().equals("rel_failure")) {
 				session.transfer(flowFile, REL_FAILURE);
 				return;
 			}
+			if (cacheDigest != null) {
+				cacheKey = ExtractionCache.key(flowFile.getSize(), cacheDigest.digest());
+			}
 		} else if (contentLocation.equals(FLOW_FILE_ATTRIBUTE)) {
 			final String attContent = flowFile.getAttribute(context.getProperty(ATTRIBUTE_NAME).getValue());
 			if(StringUtils.isBlank(attContent)) {
@@ -173,8 +853,16 @@ public class ExtractTikaContent extends AbstractProcessor {
 				return;
 			}
 			try {
-				results.set(this.ExtractWithTika(new ByteArrayInputStream(Base64.decodeBase64(attContent)),
-						extractStrategy, extractLang));
+				results.set(this.ExtractWithTika(new Base64DecodingInputStream(attContent),
+						mimeType, extractStrategy, extractLang));
+			} catch (FilteredMimeTypeException e) {
+				getLogger().debug(e.getMessage() + ". Routing to " + REL_ORIGINAL);
+				session.transfer(flowFile, REL_ORIGINAL);
+				return;
+			} catch (ParseTimeoutException e) {
+				getLogger().warn("Tika extraction timed out for attribute binary: " + e.getMessage());
+				session.transfer(flowFile, REL_TIMEOUT);
+				return;
 			} catch (TikaException | IOException e) {
 				getLogger().error("Tika extraction failed for attribute binary: " + e.getMessage());
 				session.transfer(flowFile, REL_FAILURE);
@@ -183,145 +871,637 @@ public class ExtractTikaContent extends AbstractProcessor {
 		}
 
 		// Write Tika results into destination:
-		final TikaResults res = results.get();
-		final ObjectMapper mapper = new ObjectMapper();
-		final ObjectNode jsonDoc = mapper.createObjectNode();
-		// Put possible content into jsonDoc:
-		if(StringUtils.isNotBlank(res.getContent())) {
-			jsonDoc.put(this.toValidFieldName(context.getProperty(CONTENT_FIELDNAME).getValue(), context), res.getContent());
+		this.writeResults(context, session, flowFile, results.get(), extractLang, cacheKey);
+	}
+
+	/**
+	 * Extracts the FlowFiles of a batch in parallel on the batch executor. The session is only used from the task thread:
+	 * it copies the contents up front, small ones into memory and the others into temporary files, and writes the results
+	 * in the original order once the parses are done.
+	 * @param context The Nifi ProcessContext
+	 * @param session The Nifi ProcessSession
+	 * @param flowFiles The FlowFiles to extract
+	 * @param extractStrategy The extractStrategy based on {@code EXTRACT_STRATEGY}
+	 * @param extractLang Whether to detect the language
+	 */
+	private void extractParallel(ProcessContext context, ProcessSession session, List<FlowFile> flowFiles, String extractStrategy, boolean extractLang) {
+		final boolean fromContent = context.getProperty(CONTENT_LOCATION).getValue().equals(FLOW_FILE_CONTENT);
+		final List<FlowFile> pending = new ArrayList<>();
+		final List<String> cacheKeys = new ArrayList<>();
+		final List<Future<TikaResults>> futures = new ArrayList<>();
+		final List<Path> spooled = new ArrayList<>();
+		try {
+			for (FlowFile flowFile : flowFiles) {
+				final String mimeType = this.getTrustedMimeType(context, flowFile);
+				String cacheKey = fromContent ? null : this.getCacheKey(context, session, flowFile, mimeType);
+				if (cacheKey != null && this.transferCached(context, session, flowFile, cacheKey)) {
+					continue;
+				}
+				Future<TikaResults> future = null;
+				if (fromContent) {
+					if (flowFile.getSize() > 0) {
+						final MessageDigest cacheDigest = this.newCacheDigest(mimeType);
+						final IOSupplier<InputStream> content = this.copyContent(session, flowFile, spooled, cacheDigest);
+						if (cacheDigest != null) {
+							// The copy computed the digest along the way
+							cacheKey = ExtractionCache.key(flowFile.getSize(), cacheDigest.digest());
+							if (this.transferCached(context, session, flowFile, cacheKey)) {
+								continue;
+							}
+						}
+						future = this.batchExecutor.submit(() -> this.ExtractWithTika(content.get(), mimeType, extractStrategy, extractLang));
+					}
+				} else {
+					final String attContent = flowFile.getAttribute(context.getProperty(ATTRIBUTE_NAME).getValue());
+					if (StringUtils.isNotBlank(attContent)) {
+						future = this.batchExecutor.submit(() -> this.ExtractWithTika(new Base64DecodingInputStream(attContent), mimeType, extractStrategy, extractLang));
+					}
+				}
+				pending.add(flowFile);
+				cacheKeys.add(cacheKey);
+				futures.add(future);
+			}
+
+			final String source = fromContent ? "content" : "attribute";
+			for (int i = 0; i < pending.size(); i++) {
+				final FlowFile flowFile = pending.get(i);
+				final Future<TikaResults> future = futures.get(i);
+				if (future == null) {
+					getLogger().warn("Could not get binary content from " + (fromContent ? "flowFile content" : "attributes") + ". Routing to " + REL_ORIGINAL);
+					session.transfer(flowFile, REL_ORIGINAL);
+					continue;
+				}
+				final TikaResults res;
+				try {
+					res = future.get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new ProcessException("Interrupted while waiting for the batch to be extracted", e);
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof FilteredMimeTypeException) {
+						getLogger().debug(e.getCause().getMessage() + ". Routing to " + REL_ORIGINAL);
+						session.transfer(flowFile, REL_ORIGINAL);
+					} else if (e.getCause() instanceof ParseTimeoutException) {
+						getLogger().warn("Tika extraction timed out for " + source + " binary: " + e.getCause().getMessage());
+						session.transfer(flowFile, REL_TIMEOUT);
+					} else {
+						getLogger().error("Tika extraction failed for " + source + " binary: " + e.getCause().getMessage());
+						session.transfer(flowFile, REL_FAILURE);
+					}
+					continue;
+				}
+				this.writeResults(context, session, flowFile, res, extractLang, cacheKeys.get(i));
+			}
+		} finally {
+			// Parses are only left over if the batch failed, e.g. because the task thread has been interrupted
+			futures.stream().filter(f -> f != null).forEach(f -> f.cancel(true));
+			this.deleteSpooled(spooled);
 		}
-		if(extractLang) {
-			jsonDoc.put(FIELDNAME_LANG, res.getLanguage());
+	}
+
+	/**
+	 * Reads the content of the FlowFile, like {@link ProcessSession#read(FlowFile, InputStreamCallback)}, for a parse.
+	 * With a {@code PARSE_TIMEOUT} the parse runs on the parse executor, and a cancelled parse may go on reading after the
+	 * FlowFile has been routed. So the callback gets a copy of the content then, see {@link #copyContent}, never the session's stream.
+	 * @param session The Nifi ProcessSession
+	 * @param flowFile The FlowFile to extract
+	 * @param callback The callback parsing the content
+	 * @throws ProcessException If the content can't be read or the callback fails
+	 */
+	protected void readContent(ProcessSession session, FlowFile flowFile, InputStreamCallback callback) {
+		if (this.parseTimeoutMillis <= 0) {
+			session.read(flowFile, callback);
+			return;
 		}
-		// Put possible metadata into jsonDoc:
-		for (String name : res.getMetadata().names()) {
-			String[] vals = res.getMetadata().getValues(name);
-			name = this.toValidFieldName(name, context);
-			if (vals.length > 1) {
-				ArrayNode jarray = jsonDoc.putArray(name);
-				Arrays.stream(vals).forEach(v -> jarray.add(v));
-			} else if (vals.length == 1) {
-				jsonDoc.put(name, vals[0]);
+		final List<Path> spooled = new ArrayList<>();
+		try (InputStream in = this.copyContent(session, flowFile, spooled, null).get()) {
+			callback.process(in);
+		} catch (IOException e) {
+			throw new ProcessException("Could not read the copied content of " + flowFile, e);
+		} finally {
+			this.deleteSpooled(spooled);
+		}
+	}
+
+	/**
+	 * Copies the content of the FlowFile, so it can be parsed on another thread than the session's.
+	 * @param session The Nifi ProcessSession
+	 * @param flowFile The FlowFile to extract
+	 * @param spooled Receives the temporary file the content has been copied to, if it is larger than {@code BATCH_SPOOL_THRESHOLD}
+	 * @param digest The digest to update with the content, or null
+	 * @return Opens a new stream on the copy
+	 */
+	private IOSupplier<InputStream> copyContent(ProcessSession session, FlowFile flowFile, List<Path> spooled, MessageDigest digest) {
+		final InputStreamCallback copy;
+		if (flowFile.getSize() <= BATCH_SPOOL_THRESHOLD) {
+			final byte[] content = new byte[(int) flowFile.getSize()];
+			copy = in -> IOUtils.readFully(in, content);
+			session.read(flowFile, digest != null ? in -> copy.process(new DigestInputStream(in, digest)) : copy);
+			return () -> new ByteArrayInputStream(content);
+		}
+		final Path file;
+		try {
+			file = Files.createTempFile("ExtractTikaContent-", ".tmp");
+		} catch (IOException e) {
+			throw new ProcessException("Could not create a temporary file for " + flowFile, e);
+		}
+		spooled.add(file);
+		copy = in -> Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+		session.read(flowFile, digest != null ? in -> copy.process(new DigestInputStream(in, digest)) : copy);
+		// The parser gets the file itself, which saves parsers like the PDF parser from spooling it once more
+		return () -> TikaInputStream.get(file);
+	}
+
+	/**
+	 * Deletes the temporary files content has been copied to. A parse still reading one keeps it open until it is done.
+	 * @param spooled The temporary files
+	 */
+	private void deleteSpooled(List<Path> spooled) {
+		for (Path file : spooled) {
+			try {
+				Files.deleteIfExists(file);
+			} catch (IOException e) {
+				getLogger().warn("Could not delete temporary file {}: {}", new Object[] { file, e.getMessage() });
 			}
 		}
+	}
 
-		// Write jsonDoc into flowFile destination:
+	/**
+	 * @param mimeType The trusted MIME type or null
+	 * @return The digest of the configuration and the MIME type, to be updated with the binary content, or null if there is no result cache
+	 */
+	private MessageDigest newCacheDigest(String mimeType) {
+		// Only the JSON document of the container would be cached, not its children
+		if (this.resultCache == null || this.extractor.isEmbeddedExtraction()) {
+			return null;
+		}
+		final MessageDigest digest = newDigest();
+		digest.update(this.configDigest);
+		digest.update(String.valueOf(mimeType).getBytes(StandardCharsets.UTF_8));
+		return digest;
+	}
+
+	/**
+	 * Computes the key of the FlowFile in the result cache before it is parsed, see {@link ExtractionCache#key(long, byte[])}.
+	 * FlowFile content takes a read of its own, which is only spent if the cache may hold a document of its size. Content in
+	 * an attribute is keyed by its encoded characters and length, so it is not decoded for the key. The configuration digest
+	 * keeps these keys apart from the keys of FlowFile content.
+	 * @param context The Nifi ProcessContext
+	 * @param session The Nifi ProcessSession
+	 * @param flowFile The FlowFile to extract
+	 * @param mimeType The trusted MIME type or null
+	 * @return The key or null if there is no result cache, no content or no cached document of the size of the FlowFile content
+	 */
+	private String getCacheKey(ProcessContext context, ProcessSession session, FlowFile flowFile, String mimeType) {
+		final MessageDigest digest = this.newCacheDigest(mimeType);
+		if (digest == null) {
+			return null;
+		}
+		if (context.getProperty(CONTENT_LOCATION).getValue().equals(FLOW_FILE_ATTRIBUTE)) {
+			final String attContent = flowFile.getAttribute(context.getProperty(ATTRIBUTE_NAME).getValue());
+			if (StringUtils.isEmpty(attContent)) {
+				return null;
+			}
+			// Needed to put the document into the cache after parsing, the lookup checks the size first
+			digest.update(attContent.getBytes(StandardCharsets.UTF_8));
+			return ExtractionCache.key(attContent.length(), digest.digest());
+		}
+		if (flowFile.getSize() == 0 || !this.resultCache.mayContain(flowFile.getSize())) {
+			return null;
+		}
+		final byte[] buffer = new byte[8192];
+		session.read(flowFile, in -> {
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				digest.update(buffer, 0, n);
+			}
+		});
+		return ExtractionCache.key(flowFile.getSize(), digest.digest());
+	}
+
+	/**
+	 * Transfers the FlowFile to success with the cached JSON document, if there is one.
+	 * @param context The Nifi ProcessContext
+	 * @param session The Nifi ProcessSession
+	 * @param flowFile The FlowFile to extract
+	 * @param cacheKey The key of the FlowFile in the result cache
+	 * @return Whether the cached document was found and the FlowFile has been transferred
+	 */
+	private boolean transferCached(ProcessContext context, ProcessSession session, FlowFile flowFile, String cacheKey) {
+		ExtractionCache.Entry entry;
 		try {
-			System.out.println(mapper.writeValueAsString(jsonDoc));
-			String destination = context.getProperty(CONTENT_DEST).getValue();
-			if (destination.equals(FLOW_FILE_CONTENT)) {
-				flowFile = session.write(flowFile, out -> {
-					out.write(mapper.writeValueAsString(jsonDoc).getBytes(StandardCharsets.UTF_8));
-				});
-			} else if (destination.equals(FLOW_FILE_ATTRIBUTE)) {
-				flowFile = session.putAttribute(flowFile, "tika_json", mapper.writeValueAsString(jsonDoc));
+			entry = this.resultCache.get(cacheKey);
+		} catch (IOException e) {
+			getLogger().warn("Could not read cached result of {}, extracting it again: {}", new Object[] { flowFile, e.getMessage() });
+			entry = null;
+		}
+		if (entry == null) {
+			session.adjustCounter("Result cache misses", 1, false);
+			return false;
+		}
+		session.adjustCounter("Result cache hits", 1, false);
+		final byte[] json = entry.json;
+		if (context.getProperty(CONTENT_DEST).getValue().equals(FLOW_FILE_CONTENT)) {
+			flowFile = session.write(flowFile, out -> out.write(json));
+		} else {
+			flowFile = session.putAttribute(flowFile, "tika_json", new String(json, StandardCharsets.UTF_8));
+		}
+		this.transferSuccess(context, session, flowFile, entry.truncated, entry.attributes);
+		return true;
+	}
+
+	/**
+	 * Writes the Tika results as JSON document into the configured destination and transfers the FlowFile,
+	 * along with child FlowFiles for the embedded documents, if any.
+	 * @param context The Nifi ProcessContext
+	 * @param session The Nifi ProcessSession
+	 * @param flowFile The extracted FlowFile
+	 * @param res The Tika results
+	 * @param extractLang Whether to detect the language
+	 * @param cacheKey The key to put the JSON document into the result cache with, or null
+	 */
+	private void writeResults(ProcessContext context, ProcessSession session, FlowFile flowFile, TikaResults res, boolean extractLang, String cacheKey) {
+		final List<FlowFile> children = new ArrayList<>();
+		try {
+			flowFile = this.writeJson(context, session, flowFile, res, extractLang, cacheKey);
+			final List<TikaResults> embedded = res.getEmbedded();
+			for (int i = 0; i < embedded.size(); i++) {
+				FlowFile child = session.create(flowFile);
+				children.add(child);
+				child = this.writeJson(context, session, child, embedded.get(i), extractLang, null);
+				final Map<String, String> attributes = new HashMap<>(embedded.get(i).getAttributes());
+				attributes.put(ATTRIBUTE_TRUNCATED, String.valueOf(embedded.get(i).isTruncated()));
+				attributes.put(ATTRIBUTE_EMBEDDED_INDEX, String.valueOf(i + 1));
+				attributes.put(ATTRIBUTE_EMBEDDED_COUNT, String.valueOf(embedded.size()));
+				child = session.putAllAttributes(child, attributes);
+				if (context.getProperty(CONTENT_LOCATION).getValue().equals(FLOW_FILE_ATTRIBUTE)) {
+					// The children don't need the binary content of their parent
+					child = session.removeAttribute(child, context.getProperty(ATTRIBUTE_NAME).getValue());
+				}
+				children.set(i, child);
 			}
-		} catch (JsonProcessingException e) {
+		} catch (JsonProcessingException | ProcessException e) {
 			getLogger().error("Error in write 'Json to String': " + e.getMessage());
+			session.remove(children);
 			session.transfer(flowFile, REL_FAILURE);
 			return;
 		}
+		session.transfer(children, REL_EMBEDDED);
 		// In case everything is ok, transfer to success
+		this.transferSuccess(context, session, flowFile, res.isTruncated(), res.getAttributes());
+	}
+
+	/**
+	 * Writes the Tika results as JSON document into the configured destination.
+	 * @param context The Nifi ProcessContext
+	 * @param session The Nifi ProcessSession
+	 * @param flowFile The FlowFile to write to
+	 * @param res The Tika results
+	 * @param extractLang Whether to detect the language
+	 * @param cacheKey The key to put the JSON document into the result cache with, or null
+	 * @return The updated FlowFile
+	 */
+	private FlowFile writeJson(ProcessContext context, ProcessSession session, FlowFile flowFile, TikaResults res, boolean extractLang, String cacheKey) throws JsonProcessingException {
+		final ObjectNode jsonDoc = MAPPER.createObjectNode();
+		// Put possible content into jsonDoc:
+		if(StringUtils.isNotBlank(res.getContent())) {
+			jsonDoc.put(this.contentFieldName, res.getContent());
+		}
+		this.putResultFields(jsonDoc, res, extractLang);
+
+		// Write jsonDoc into flowFile destination:
+		if (getLogger().isDebugEnabled()) {
+			getLogger().debug("Extracted JSON document for {}: {}", new Object[] { flowFile, JSON_WRITER.writeValueAsString(jsonDoc) });
+		}
+		String destination = context.getProperty(CONTENT_DEST).getValue();
+		if (cacheKey != null) {
+			final byte[] json = JSON_WRITER.writeValueAsBytes(jsonDoc);
+			if (destination.equals(FLOW_FILE_CONTENT)) {
+				flowFile = session.write(flowFile, out -> out.write(json));
+			} else if (destination.equals(FLOW_FILE_ATTRIBUTE)) {
+				flowFile = session.putAttribute(flowFile, "tika_json", new String(json, StandardCharsets.UTF_8));
+			}
+			this.cacheResult(flowFile, cacheKey, new ExtractionCache.Entry(json, res.isTruncated(), res.getAttributes()));
+		} else if (destination.equals(FLOW_FILE_CONTENT)) {
+			// Serialize straight into the content, without an intermediate String or byte[]
+			flowFile = session.write(flowFile, out -> JSON_WRITER.writeValue(out, jsonDoc));
+		} else if (destination.equals(FLOW_FILE_ATTRIBUTE)) {
+			flowFile = session.putAttribute(flowFile, "tika_json", JSON_WRITER.writeValueAsString(jsonDoc));
+		}
+		return flowFile;
+	}
+
+	private void cacheResult(FlowFile flowFile, String cacheKey, ExtractionCache.Entry entry) {
+		try {
+			this.resultCache.put(cacheKey, entry);
+		} catch (IOException e) {
+			getLogger().warn("Could not cache result of {}: {}", new Object[] { flowFile, e.getMessage() });
+		}
+	}
+
+	/**
+	 * Adds the result attributes, drops the source attribute if configured and transfers the FlowFile to success.
+	 * @param context The Nifi ProcessContext
+	 * @param session The Nifi ProcessSession
+	 * @param flowFile The extracted FlowFile
+	 * @param truncated Whether the extracted content has been truncated
+	 * @param attributes Additional attributes describing the document
+	 */
+	private void transferSuccess(ProcessContext context, ProcessSession session, FlowFile flowFile, boolean truncated, Map<String, String> attributes) {
+		final Map<String, String> resultAttributes = new HashMap<>(attributes);
+		resultAttributes.put(ATTRIBUTE_TRUNCATED, String.valueOf(truncated));
+		flowFile = session.putAllAttributes(flowFile, resultAttributes);
+		if (context.getProperty(CONTENT_LOCATION).getValue().equals(FLOW_FILE_ATTRIBUTE) && context.getProperty(REMOVE_SOURCE_ATTRIBUTE).asBoolean()) {
+			flowFile = session.removeAttribute(flowFile, context.getProperty(ATTRIBUTE_NAME).getValue());
+		}
 		session.transfer(flowFile, REL_SUCCESS);
 	}
 
 	/**
-	 * Extracts the given content with Tika.
-	 * @param content The content as an Inputstream
+	 * Extracts the FlowFile with Tika in streaming output mode, where the JSON document is written into the
+	 * FlowFile content while the document is parsed.
+	 * @param context The Nifi ProcessContext
+	 * @param session The Nifi ProcessSession
+	 * @param flowFile The FlowFile to extract
 	 * @param extractStrategy The extractStrategy based on {@code EXTRACT_STRATEGY}
-	 * @return The extract results (content and metadata) wrapped in a {@code TikaResults} object
+	 * @param extractLang Whether to detect the language
 	 */
-	protected TikaResults ExtractWithTika(InputStream content, String extractStrategy, boolean langDetect) throws TikaException, IOException {
-
-		Tika tika = new Tika();
-		Metadata metadata = new Metadata();
-		// If we want metadata only, we have to set the write limit to 0
-		int writeLimit = 0;
-		if (!extractStrategy.equals(STRATEGY_META)) {
-			// If we want content extraction as well we disable any write limitations at
-			// all --> '-1'!
-			writeLimit = -1;
-		}
-		// Handler for content
-		WriteOutContentHandler handler = new WriteOutContentHandler(writeLimit);
-		LanguageResult langResult = new LanguageResult("other", LanguageConfidence.NONE, 0);
-
-		Parser parser = new AutoDetectParser();
-		ParseContext context = new ParseContext();
-		context.set(Parser.class, parser);
-
-		String mimeType = tika.detect(content);
-		metadata.set(Metadata.CONTENT_TYPE, mimeType);
-		try {
-			parser.parse(content, new BodyContentHandler(handler), metadata, context);
-			// Do language detection based on config
-			if(langDetect && StringUtils.isNotBlank(handler.toString())) {
-				LanguageDetector detector = new OptimaizeLangDetector().loadModels();
-				langResult = detector.detect(handler.toString());
+	private void extractStreaming(ProcessContext context, ProcessSession session, FlowFile flowFile, String extractStrategy, boolean extractLang) {
+		final String attContent;
+		if (context.getProperty(CONTENT_LOCATION).getValue().equals(FLOW_FILE_ATTRIBUTE)) {
+			attContent = flowFile.getAttribute(context.getProperty(ATTRIBUTE_NAME).getValue());
+			if(StringUtils.isBlank(attContent)) {
+				getLogger().warn("Could not get binary content from attributes. Routing to " + REL_ORIGINAL);
+				session.transfer(flowFile, REL_ORIGINAL);
+				return;
 			}
-		} catch (SAXException e) {
-			if (!handler.isWriteLimitReached(e)) {
-				// This should never happen with BodyContentHandler...
-				throw new TikaException("Unexpected SAX processing failure", e);
+		} else {
+			attContent = null;
+			if(flowFile.getSize() == 0) {
+				getLogger().warn("Could not get binary content from flowFile content. Routing to " + REL_ORIGINAL);
+				session.transfer(flowFile, REL_ORIGINAL);
+				return;
 			}
-		} finally {
-			content.close();
 		}
-		if(extractStrategy.equals(STRATEGY_CONTENT)) {
-			return new TikaResults(handler.toString(), langResult.getLanguage(), new Metadata());
-		} else {
-			return new TikaResults(handler.toString(), langResult.getLanguage(), metadata);
+
+		final String mimeType = this.getTrustedMimeType(context, flowFile);
+		final AtomicReference<TikaResults> results = new AtomicReference<TikaResults>(null);
+		try {
+			flowFile = session.write(flowFile, (in, out) -> {
+				InputStream content = attContent == null ? new BufferedInputStream(in) : new Base64DecodingInputStream(attContent);
+				try {
+					results.set(this.extractIntoJson(content, mimeType, out, extractStrategy, extractLang));
+				} catch (TikaException e) {
+					throw new IOException(e);
+				}
+			});
+		} catch (ProcessException e) {
+			if (ExceptionUtils.indexOfThrowable(e, FilteredMimeTypeException.class) >= 0) {
+				// Nothing has been written, the session rolled the content back
+				getLogger().debug("MIME type of {} is filtered. Routing to {}", new Object[] { flowFile, REL_ORIGINAL });
+				session.transfer(flowFile, REL_ORIGINAL);
+				return;
+			}
+			if (ExceptionUtils.indexOfThrowable(e, ParseTimeoutException.class) >= 0) {
+				getLogger().warn("Tika extraction timed out for " + (attContent == null ? "content" : "attribute") + " binary: " + e.getMessage());
+				session.transfer(flowFile, REL_TIMEOUT);
+				return;
+			}
+			getLogger().error("Tika extraction failed for " + (attContent == null ? "content" : "attribute") + " binary: " + e.getMessage());
+			session.transfer(flowFile, REL_FAILURE);
+			return;
 		}
+		this.transferSuccess(context, session, flowFile, results.get().isTruncated(), results.get().getAttributes());
 	}
 
 	/**
-	 * Make sure to provide valid field names:<br>
-	 * 1. Any none character is substituted with '_'<br>
-	 * 2. Based on {@code FIELDNAME_FORMAT} transform to upper or lower case. 
-	 * @param fname Field name to process
+	 * Extracts the FlowFile with Tika in chunked output mode. The chunks are written into FlowFiles of their own while
+	 * the document is parsed, so only the current chunk is held in memory.
 	 * @param context The Nifi ProcessContext
-	 * @return The beautified field name
+	 * @param session The Nifi ProcessSession
+	 * @param flowFile The FlowFile to extract
+	 * @param extractStrategy The extractStrategy based on {@code EXTRACT_STRATEGY}
+	 * @param extractLang Whether to detect the language
 	 */
-	protected String toValidFieldName(String fname, ProcessContext context) {
-		StringBuilder sb = new StringBuilder();
-		for (int i = 0; i < fname.length(); i++) {
-			char ch = fname.charAt(i);
-			if (!Character.isLetterOrDigit(ch)) {
-				ch = '_';
-			} else if (context.getProperty(FIELDNAME_FORMAT).getValue().equals(FORMAT_LOWER)) {
-				ch = Character.toLowerCase(ch);
-			} else if (context.getProperty(FIELDNAME_FORMAT).getValue().equals(FORMAT_UPPER)) {
-				ch = Character.toUpperCase(ch);
+	private void extractChunked(ProcessContext context, ProcessSession session, FlowFile flowFile, String extractStrategy, boolean extractLang) {
+		final String attContent;
+		if (context.getProperty(CONTENT_LOCATION).getValue().equals(FLOW_FILE_ATTRIBUTE)) {
+			attContent = flowFile.getAttribute(context.getProperty(ATTRIBUTE_NAME).getValue());
+			if(StringUtils.isBlank(attContent)) {
+				getLogger().warn("Could not get binary content from attributes. Routing to " + REL_ORIGINAL);
+				session.transfer(flowFile, REL_ORIGINAL);
+				return;
+			}
+		} else {
+			attContent = null;
+			if(flowFile.getSize() == 0) {
+				getLogger().warn("Could not get binary content from flowFile content. Routing to " + REL_ORIGINAL);
+				session.transfer(flowFile, REL_ORIGINAL);
+				return;
 			}
-			sb.append(ch);
 		}
-		return sb.toString();
+
+		final FlowFile parent = flowFile;
+		final String fragmentId = parent.getAttribute(CoreAttributes.UUID.key());
+		final String fieldName = this.contentFieldName;
+		final boolean removeSource = attContent != null;
+		final List<FlowFile> chunks = new ArrayList<>();
+		// Only called on the task thread, chunks of a parse on the parse executor are handed over
+		final TextChunkHandler.ChunkListener listener = (text, firstPage, lastPage) -> {
+			final ObjectNode jsonDoc = MAPPER.createObjectNode();
+			jsonDoc.put(fieldName, text);
+			FlowFile chunk = session.create(parent);
+			chunk = session.write(chunk, out -> JSON_WRITER.writeValue(out, jsonDoc));
+			final Map<String, String> attributes = new HashMap<>();
+			attributes.put(FragmentAttributes.FRAGMENT_ID.key(), fragmentId);
+			attributes.put(FragmentAttributes.FRAGMENT_INDEX.key(), String.valueOf(chunks.size() + 1));
+			attributes.put(FragmentAttributes.SEGMENT_ORIGINAL_FILENAME.key(), parent.getAttribute(CoreAttributes.FILENAME.key()));
+			if (lastPage > 0) {
+				attributes.put(ATTRIBUTE_CHUNK_FIRST_PAGE, String.valueOf(firstPage));
+				attributes.put(ATTRIBUTE_CHUNK_LAST_PAGE, String.valueOf(lastPage));
+			}
+			chunk = session.putAllAttributes(chunk, attributes);
+			if (removeSource) {
+				chunk = session.removeAttribute(chunk, context.getProperty(ATTRIBUTE_NAME).getValue());
+			}
+			chunks.add(chunk);
+		};
+
+		final String source = attContent == null ? "content" : "attribute";
+		final String mimeType = this.getTrustedMimeType(context, flowFile);
+		final List<Path> spooled = new ArrayList<>();
+		final InputStream in;
+		if (attContent != null) {
+			in = new Base64DecodingInputStream(attContent);
+		} else if (this.parseTimeoutMillis > 0) {
+			// A cancelled parse on the parse executor may go on reading after the FlowFile is routed, see readContent
+			try {
+				in = this.copyContent(session, flowFile, spooled, null).get();
+			} catch (IOException e) {
+				this.deleteSpooled(spooled);
+				throw new ProcessException("Could not read the copied content of " + flowFile, e);
+			}
+		} else {
+			in = new BufferedInputStream(session.read(flowFile));
+		}
+		TikaResults res = null;
+		Relationship failure = null;
+		try {
+			res = this.extractor.extract(in, mimeType, listener, context.getProperty(CHUNK_SIZE).asInteger(),
+					context.getProperty(CHUNK_BOUNDARY).getValue().equals(CHUNK_BY_PAGE), extractStrategy, extractLang);
+		} catch (FilteredMimeTypeException e) {
+			getLogger().debug(e.getMessage() + ". Routing to " + REL_ORIGINAL);
+			failure = REL_ORIGINAL;
+		} catch (ParseTimeoutException e) {
+			getLogger().warn("Tika extraction timed out for " + source + " binary: " + e.getMessage());
+			failure = REL_TIMEOUT;
+		} catch (TikaException | IOException e) {
+			getLogger().error("Tika extraction failed for " + source + " binary: " + e.getMessage());
+			failure = REL_FAILURE;
+		} finally {
+			IOUtils.closeQuietly(in);
+			this.deleteSpooled(spooled);
+		}
+
+		if (failure != null) {
+			session.remove(chunks);
+			session.transfer(flowFile, failure);
+			return;
+		}
+		final List<FlowFile> counted = new ArrayList<>();
+		for (FlowFile chunk : chunks) {
+			counted.add(session.putAttribute(chunk, FragmentAttributes.FRAGMENT_COUNT.key(), String.valueOf(chunks.size())));
+		}
+		session.transfer(counted, REL_CHUNKS);
+		try {
+			flowFile = this.writeJson(context, session, flowFile, res, extractLang, null);
+		} catch (JsonProcessingException | ProcessException e) {
+			getLogger().error("Error in write 'Json to String': " + e.getMessage());
+			session.transfer(flowFile, REL_FAILURE);
+			return;
+		}
+		flowFile = FragmentAttributes.copyAttributesToOriginal(session, flowFile, fragmentId, chunks.size());
+		this.transferSuccess(context, session, flowFile, res.isTruncated(), res.getAttributes());
 	}
 
 	/**
-	 * Helper Class storing the Tika results in one object.
+	 * @param context The Nifi ProcessContext
+	 * @param flowFile The FlowFile to extract
+	 * @return The MIME type from the 'mime.type' attribute if {@code TRUST_MIME_TYPE} is enabled, otherwise null
 	 */
-	public class TikaResults {
-		private String content;
-		private String language;
-		private Metadata metadata;
+	protected String getTrustedMimeType(ProcessContext context, FlowFile flowFile) {
+		return context.getProperty(TRUST_MIME_TYPE).asBoolean() ? flowFile.getAttribute(CoreAttributes.MIME_TYPE.key()) : null;
+	}
 
-		public TikaResults(String content, String language, Metadata metadata) {
-			this.content = content;
-			this.language = language;
-			this.metadata = metadata;
+	/**
+	 * Extracts the given content with Tika.
+	 * @param content The content as an Inputstream
+	 * @param mimeType The trusted MIME type of the content, or null to detect it
+	 * @param extractStrategy The extractStrategy based on {@code EXTRACT_STRATEGY}
+	 * @return The extract results (content and metadata) wrapped in a {@code TikaResults} object
+	 */
+	protected TikaResults ExtractWithTika(InputStream content, String mimeType, String extractStrategy, boolean langDetect) throws TikaException, IOException {
+		return this.extractor.extract(content, mimeType, extractStrategy, langDetect);
+	}
+
+	/**
+	 * Extracts the given content with Tika and streams the JSON document straight into the given output.
+	 * The extracted text is never held in memory, it goes through the content handler into the JSON generator.
+	 * Language and metadata fields follow the content field, in the same order as in the buffered JSON document.
+	 * @param content The content as an Inputstream
+	 * @param mimeType The trusted MIME type of the content, or null to detect it
+	 * @param out The stream to write the JSON document to
+	 * @param extractStrategy The extractStrategy based on {@code EXTRACT_STRATEGY}
+	 * @return The extract results without content, as it has already been written
+	 */
+	private TikaResults extractIntoJson(InputStream content, String mimeType, OutputStream out, String extractStrategy, boolean langDetect) throws TikaException, IOException {
+
+		final JsonGenerator generator = MAPPER.getFactory().createGenerator(out);
+		generator.writeStartObject();
+		TikaResults res = this.extractor.extract(content, mimeType, generator, this.contentFieldName, extractStrategy, langDetect);
+		final ObjectNode jsonDoc = MAPPER.createObjectNode();
+		this.putResultFields(jsonDoc, res, langDetect);
+		Iterator<Map.Entry<String, JsonNode>> fields = jsonDoc.fields();
+		while (fields.hasNext()) {
+			Map.Entry<String, JsonNode> field = fields.next();
+			generator.writeFieldName(field.getKey());
+			generator.writeTree(field.getValue());
 		}
+		generator.writeEndObject();
+		// Only flush, closing the generator would close the FlowFile's output stream
+		generator.flush();
+		return res;
+	}
 
-		public String getContent() {
-			return content;
+	/**
+	 * Puts the detected language, the truncation flag and the metadata, if any, into the given JSON document.
+	 * @param jsonDoc The JSON document to fill
+	 * @param res The Tika results
+	 * @param extractLang Whether language detection is enabled
+	 */
+	private void putResultFields(ObjectNode jsonDoc, TikaResults res, boolean extractLang) {
+		if(extractLang) {
+			jsonDoc.put(FIELDNAME_LANG, res.getLanguage());
 		}
-		
-		public String getLanguage() {
-			return language;
+		if(res.isTruncated()) {
+			jsonDoc.put(FIELDNAME_TRUNCATED, true);
 		}
+		// Put possible metadata into jsonDoc, skipping unselected keys before their values are touched:
+		final MetadataKeySelector selector = this.metadataFields;
+		for (String name : res.getMetadata().names()) {
+			if (selector != null && !selector.isSelected(name)) {
+				continue;
+			}
+			String[] vals = res.getMetadata().getValues(name);
+			name = this.toValidFieldName(name);
+			if (vals.length > 1) {
+				ArrayNode jarray = jsonDoc.putArray(name);
+				Arrays.stream(vals).forEach(v -> jarray.add(v));
+			} else if (vals.length == 1) {
+				jsonDoc.put(name, vals[0]);
+			}
+		}
+	}
+
+	/**
+	 * @param name The Tika metadata key
+	 * @return Whether the key is selected by {@code METADATA_INCLUDE} and {@code METADATA_EXCLUDE}
+	 */
+	protected boolean isMetadataSelected(String name) {
+		final MetadataKeySelector selector = this.metadataFields;
+		return selector == null || selector.isSelected(name);
+	}
 
-		public Metadata getMetadata() {
-			return metadata;
+	/**
+	 * Make sure to provide valid field names:<br>
+	 * 1. Any none character is substituted with '_'<br>
+	 * 2. Based on {@code FIELDNAME_FORMAT} transform to upper or lower case.<br>
+	 * Tika only knows a limited set of metadata keys, so the names are computed once and then looked up.
+	 * @param fname Field name to process
+	 * @return The beautified field name
+	 */
+	protected String toValidFieldName(String fname) {
+		String name = this.fieldNames.get(fname);
+		if (name == null) {
+			name = normalizeFieldName(fname, this.upperCaseFieldNames);
+			// Keys that are unique per document, e.g. custom document properties, must not grow the cache without bound
+			if (this.fieldNames.size() < MAX_CACHED_FIELD_NAMES) {
+				this.fieldNames.putIfAbsent(fname, name);
+			}
+		}
+		return name;
+	}
+
+	static String normalizeFieldName(String fname, boolean upperCase) {
+		final char[] chars = fname.toCharArray();
+		for (int i = 0; i < chars.length; i++) {
+			final char ch = chars[i];
+			if (!Character.isLetterOrDigit(ch)) {
+				chars[i] = '_';
+			} else {
+				chars[i] = upperCase ? Character.toUpperCase(ch) : Character.toLowerCase(ch);
+			}
 		}
+		return new String(chars);
 	}
 }
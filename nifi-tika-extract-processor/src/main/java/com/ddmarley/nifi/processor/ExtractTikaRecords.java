@@ -0,0 +1,265 @@
+package com.ddmarley.nifi.processor;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.nifi.annotation.behavior.InputRequirement;
+import org.apache.nifi.annotation.behavior.InputRequirement.Requirement;
+import org.apache.nifi.annotation.behavior.ReadsAttribute;
+import org.apache.nifi.annotation.behavior.ReadsAttributes;
+import org.apache.nifi.annotation.behavior.WritesAttribute;
+import org.apache.nifi.annotation.behavior.WritesAttributes;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.SeeAlso;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.flowfile.attributes.CoreAttributes;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.processor.util.StandardValidators;
+import org.apache.nifi.schema.access.SchemaNotFoundException;
+import org.apache.nifi.serialization.RecordSetWriter;
+import org.apache.nifi.serialization.RecordSetWriterFactory;
+import org.apache.nifi.serialization.SimpleRecordSchema;
+import org.apache.nifi.serialization.WriteResult;
+import org.apache.nifi.serialization.record.MapRecord;
+import org.apache.nifi.serialization.record.Record;
+import org.apache.nifi.serialization.record.RecordField;
+import org.apache.nifi.serialization.record.RecordFieldType;
+import org.apache.nifi.serialization.record.RecordSchema;
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.metadata.Metadata;
+
+@Tags({ "Tika", "Extract", "Content", "Metadata", "PDF", "Word", "Rich", "Documents", "Record" })
+@CapabilityDescription("Run Apache Tika to extract content and metadata on rich documents, like ExtractTikaContent. Instead of one JSON document per "
+		+ "FlowFile, the documents of a batch are written as records with a fixed schema into a single FlowFile by the configured Record Writer.")
+@SeeAlso(ExtractTikaContent.class)
+@InputRequirement(Requirement.INPUT_REQUIRED)
+@ReadsAttributes({ @ReadsAttribute(attribute = "mime.type", description = "The MIME type of the content, used instead of detecting it if 'Trust mime.type attribute' is enabled") })
+@WritesAttributes({ @WritesAttribute(attribute = "record.count", description = "The number of records, i.e. extracted documents, in the FlowFile"),
+		@WritesAttribute(attribute = "mime.type", description = "The MIME type given by the Record Writer") })
+public class ExtractTikaRecords extends ExtractTikaContent {
+
+	static final String FIELD_FILENAME = "filename";
+	static final String FIELD_CONTENT = "content";
+	static final String FIELD_LANGUAGE = "language";
+	static final String FIELD_TRUNCATED = "truncated";
+	static final String FIELD_METADATA = "metadata";
+
+	/**
+	 * Schema of the records: the filename of the source FlowFile, the extracted content, its language, the truncation flag
+	 * and the metadata as map from field name to its values.
+	 */
+	static final RecordSchema SCHEMA = new SimpleRecordSchema(Arrays.asList(
+			new RecordField(FIELD_FILENAME, RecordFieldType.STRING.getDataType()),
+			new RecordField(FIELD_CONTENT, RecordFieldType.STRING.getDataType()),
+			new RecordField(FIELD_LANGUAGE, RecordFieldType.STRING.getDataType()),
+			new RecordField(FIELD_TRUNCATED, RecordFieldType.BOOLEAN.getDataType()),
+			new RecordField(FIELD_METADATA, RecordFieldType.MAP.getMapDataType(
+					RecordFieldType.ARRAY.getArrayDataType(RecordFieldType.STRING.getDataType())))));
+
+	static final PropertyDescriptor RECORD_WRITER = new PropertyDescriptor.Builder().name("Record Writer")
+			.description("The Record Writer to write the extracted documents with, e.g. Avro, Parquet or JSON.")
+			.required(true).identifiesControllerService(RecordSetWriterFactory.class)
+			.build();
+
+	static final PropertyDescriptor RECORD_BATCH_SIZE = new PropertyDescriptor.Builder().name("Batch size")
+			.description("The maximum number of FlowFiles extracted into one FlowFile of records.")
+			.required(true).addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR).defaultValue("100")
+			.build();
+
+	@Override
+	protected List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+		final List<PropertyDescriptor> properties = new ArrayList<>();
+		properties.add(RECORD_WRITER);
+		properties.add(EXTRACT_STRATEGY);
+		properties.add(EXTRACT_LANG);
+		properties.add(LANG_DETECT_LANGUAGES);
+		properties.add(LANG_DETECT_LENGTH);
+		properties.add(TRUST_MIME_TYPE);
+		properties.add(ALLOWED_MIME_TYPES);
+		properties.add(DENIED_MIME_TYPES);
+		properties.add(CONTENT_FORMAT);
+		properties.add(FIELDNAME_FORMAT);
+		properties.add(METADATA_INCLUDE);
+		properties.add(METADATA_EXCLUDE);
+		properties.add(MAX_EXTRACTED_CHARS);
+		properties.add(RECORD_BATCH_SIZE);
+		properties.add(PARSER_POOL_SIZE);
+		properties.add(PARSE_TIMEOUT);
+		properties.add(PARSE_ISOLATION);
+		properties.add(FORK_JAVA_COMMAND);
+		properties.add(METRICS);
+		properties.add(METRICS_INTERVAL);
+		return properties;
+	}
+
+	@Override
+	public Set<Relationship> getRelationships() {
+		final Set<Relationship> rels = new HashSet<>();
+		rels.add(REL_ORIGINAL);
+		rels.add(REL_SUCCESS);
+		rels.add(REL_FAILURE);
+		rels.add(REL_TIMEOUT);
+		return rels;
+	}
+
+	@Override
+	public void onTrigger(ProcessContext context, ProcessSession session) throws ProcessException {
+		final List<FlowFile> flowFiles = session.get(context.getProperty(RECORD_BATCH_SIZE).asInteger());
+		// Nothing to do without a flowFile
+		if (flowFiles.isEmpty()) {
+			return;
+		}
+
+		final String extractStrategy = context.getProperty(EXTRACT_STRATEGY).getValue();
+		final boolean extractLang = context.getProperty(EXTRACT_LANG).asBoolean();
+		final RecordSetWriterFactory writerFactory = context.getProperty(RECORD_WRITER).asControllerService(RecordSetWriterFactory.class);
+		final List<FlowFile> extracted = new ArrayList<>();
+		final Map<String, String> attributes = new HashMap<>();
+		FlowFile output = null;
+		OutputStream out = null;
+		RecordSetWriter writer = null;
+		int index = 0;
+		try {
+			for (; index < flowFiles.size(); index++) {
+				final FlowFile flowFile = flowFiles.get(index);
+				final TikaResults res = this.extract(context, session, flowFile, extractStrategy, extractLang);
+				if (res == null) {
+					continue;
+				}
+				if (writer == null) {
+					// One FlowFile for the whole batch, so the repositories see one write instead of one per document
+					output = session.create(flowFiles);
+					out = session.write(output);
+					writer = writerFactory.createWriter(getLogger(), writerFactory.getSchema(flowFile.getAttributes(), SCHEMA), out);
+					writer.beginRecordSet();
+				}
+				// Written right away, so only the document at hand is held in memory
+				writer.write(this.toRecord(flowFile, res, extractLang));
+				extracted.add(flowFile);
+			}
+			if (writer != null) {
+				final WriteResult result = writer.finishRecordSet();
+				attributes.putAll(result.getAttributes());
+				attributes.put("record.count", String.valueOf(result.getRecordCount()));
+				attributes.put(CoreAttributes.MIME_TYPE.key(), writer.getMimeType());
+				writer.close();
+				writer = null;
+				out.close();
+				out = null;
+			}
+		} catch (SchemaNotFoundException | IOException | ProcessException e) {
+			IOUtils.closeQuietly(writer);
+			IOUtils.closeQuietly(out);
+			// The documents not extracted yet can't be written either
+			extracted.addAll(flowFiles.subList(index, flowFiles.size()));
+			getLogger().error("Could not write the records of {} documents, routing them to {}: {}", new Object[] { extracted.size(), REL_FAILURE, e.getMessage() });
+			if (output != null) {
+				session.remove(output);
+			}
+			session.transfer(extracted, REL_FAILURE);
+			this.reportMetrics(session);
+			return;
+		}
+		this.reportMetrics(session);
+		if (output == null) {
+			return;
+		}
+		output = session.putAllAttributes(output, attributes);
+		session.adjustCounter("Records written", extracted.size(), false);
+		session.transfer(output, REL_SUCCESS);
+		session.transfer(extracted, REL_ORIGINAL);
+	}
+
+	/**
+	 * Extracts the FlowFile with Tika, or routes it if that is not possible.
+	 * @param context The Nifi ProcessContext
+	 * @param session The Nifi ProcessSession
+	 * @param flowFile The FlowFile to extract
+	 * @param extractStrategy The extractStrategy based on {@code EXTRACT_STRATEGY}
+	 * @param extractLang Whether to detect the language
+	 * @return The Tika results, or null if the FlowFile has been routed
+	 */
+	private TikaResults extract(ProcessContext context, ProcessSession session, FlowFile flowFile, String extractStrategy, boolean extractLang) {
+		if (flowFile.getSize() == 0) {
+			getLogger().warn("Could not get binary content from flowFile content. Routing to " + REL_ORIGINAL);
+			session.transfer(flowFile, REL_ORIGINAL);
+			return null;
+		}
+		final String mimeType = this.getTrustedMimeType(context, flowFile);
+		final AtomicReference<TikaResults> results = new AtomicReference<TikaResults>(null);
+		try {
+			this.readContent(session, flowFile, in -> {
+				try {
+					results.set(this.ExtractWithTika(new BufferedInputStream(in), mimeType, extractStrategy, extractLang));
+				} catch (TikaException e) {
+					throw new IOException(e);
+				}
+			});
+		} catch (ProcessException e) {
+			final Relationship failure = getFailureRelationship(e);
+			if (failure == REL_ORIGINAL) {
+				getLogger().debug("MIME type of {} is filtered. Routing to {}", new Object[] { flowFile, REL_ORIGINAL });
+			} else {
+				getLogger().error("Tika extraction failed for {}, routing to {}: {}", new Object[] { flowFile, failure, e.getMessage() });
+			}
+			session.transfer(flowFile, failure);
+			return null;
+		}
+		return results.get();
+	}
+
+	/**
+	 * @param e The exception thrown while extracting a FlowFile
+	 * @return The relationship to route the FlowFile to
+	 */
+	private static Relationship getFailureRelationship(ProcessException e) {
+		for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+			if (cause instanceof FilteredMimeTypeException) {
+				return REL_ORIGINAL;
+			}
+			if (cause instanceof ParseTimeoutException) {
+				return REL_TIMEOUT;
+			}
+		}
+		return REL_FAILURE;
+	}
+
+	/**
+	 * @param flowFile The extracted FlowFile
+	 * @param res The Tika results
+	 * @param extractLang Whether language detection is enabled
+	 * @return The record of the document
+	 */
+	private Record toRecord(FlowFile flowFile, TikaResults res, boolean extractLang) {
+		final Map<String, Object> metadata = new HashMap<>();
+		final Metadata tikaMetadata = res.getMetadata();
+		for (String name : tikaMetadata.names()) {
+			if (this.isMetadataSelected(name)) {
+				metadata.put(this.toValidFieldName(name), tikaMetadata.getValues(name));
+			}
+		}
+		final Map<String, Object> values = new HashMap<>();
+		values.put(FIELD_FILENAME, flowFile.getAttribute(CoreAttributes.FILENAME.key()));
+		values.put(FIELD_CONTENT, StringUtils.isNotBlank(res.getContent()) ? res.getContent() : null);
+		values.put(FIELD_LANGUAGE, extractLang ? res.getLanguage() : null);
+		values.put(FIELD_TRUNCATED, res.isTruncated());
+		values.put(FIELD_METADATA, metadata);
+		return new MapRecord(SCHEMA, values);
+	}
+}
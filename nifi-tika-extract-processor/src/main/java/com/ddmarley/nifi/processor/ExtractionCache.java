@@ -0,0 +1,222 @@
+package com.ddmarley.nifi.processor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.codec.binary.Hex;
+
+/**
+ * Cache of extracted JSON documents, keyed by a digest of the document and the processor configuration.<br>
+ * The memory tier is a least recently used map bounded by the total size of the cached documents. The optional disk
+ * tier keeps one file per document below the given directory, so results survive restarts and are shared by all
+ * processors pointing to the same directory. Disk hits are promoted to the memory tier.<br>
+	 * Keys start with the size of the document, so {@link #mayContain(long)} tells documents that can't be cached
+ * apart before their digest is computed, and lookups of such documents don't touch the disk.
+ */
+class ExtractionCache {
+
+	// Leading byte of the files of the disk tier, files of other layouts are treated as missing
+	private static final byte FILE_FORMAT = 3;
+	// Beyond that many sizes every size is assumed to be cached, the memory of the processor is worth more than a read
+	private static final int MAX_KNOWN_SIZES = 1 << 16;
+
+	private final long maxMemoryBytes;
+	private final Path directory;
+	// Access ordered, so iteration starts at the least recently used entry
+	private final LinkedHashMap<String, Entry> memory = new LinkedHashMap<>(16, 0.75f, true);
+	private long memoryBytes = 0;
+	// Sizes of the documents put since the cache has been created, evicted ones included
+	private final Set<Long> knownSizes = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * @param maxMemoryBytes The maximum total size of the documents in memory, 0 disables the memory tier
+	 * @param directory The directory of the disk tier, or null to disable it
+	 */
+	ExtractionCache(long maxMemoryBytes, Path directory) throws IOException {
+		this.maxMemoryBytes = maxMemoryBytes;
+		this.directory = directory;
+		if (directory != null) {
+			Files.createDirectories(directory);
+		}
+	}
+
+	/**
+	 * @param size The size of the document
+	 * @param digest The digest of the document and the configuration
+	 * @return The key of the document in the cache
+	 */
+	static String key(long size, byte[] digest) {
+		return size + "-" + Hex.encodeHexString(digest);
+	}
+
+	/**
+	 * Tells documents that are certainly not cached apart without their digest, which takes a read of the whole document.
+	 * @param size The size of the document
+	 * @return Whether a document of the size may be cached
+	 */
+	boolean mayContain(long size) {
+		if (knownSizes.contains(size) || knownSizes.size() >= MAX_KNOWN_SIZES) {
+			return true;
+		}
+		// Documents put by earlier runs or other processors
+		return directory != null && Files.isDirectory(getSizeDirectory(size));
+	}
+
+	/**
+	 * @param key The key of the document, see {@link #key(long, byte[])}
+	 * @return The cached document or null if there is none
+	 */
+	Entry get(String key) throws IOException {
+		synchronized (memory) {
+			final Entry entry = memory.get(key);
+			if (entry != null) {
+				return entry;
+			}
+		}
+		if (directory == null || !mayContain(getSize(key))) {
+			return null;
+		}
+		final byte[] bytes;
+		try {
+			bytes = Files.readAllBytes(getPath(key));
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+		final Entry entry = readEntry(bytes);
+		if (entry == null) {
+			return null;
+		}
+		putMemory(key, entry);
+		return entry;
+	}
+
+	/**
+	 * @param key The key of the document, see {@link #key(long, byte[])}
+	 * @param entry The document to cache
+	 */
+	void put(String key, Entry entry) throws IOException {
+		if (knownSizes.size() < MAX_KNOWN_SIZES) {
+			knownSizes.add(getSize(key));
+		}
+		putMemory(key, entry);
+		if (directory == null) {
+			return;
+		}
+		final Path path = getPath(key);
+		Files.createDirectories(path.getParent());
+		// Write aside and move, so concurrent readers never see a partial file
+		final Path tmp = Files.createTempFile(path.getParent(), key, ".tmp");
+		try {
+			Files.write(tmp, writeEntry(entry));
+			Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	private static byte[] writeEntry(Entry entry) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream(entry.json.length + 64);
+		final DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(FILE_FORMAT);
+		out.writeBoolean(entry.truncated);
+		out.writeInt(entry.attributes.size());
+		for (Map.Entry<String, String> attribute : entry.attributes.entrySet()) {
+			writeString(out, attribute.getKey());
+			writeString(out, attribute.getValue());
+		}
+		out.write(entry.json);
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * @return The entry or null if the file has another layout
+	 */
+	private static Entry readEntry(byte[] bytes) throws IOException {
+		if (bytes.length == 0 || bytes[0] != FILE_FORMAT) {
+			return null;
+		}
+		final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+		in.readByte();
+		final boolean truncated = in.readBoolean();
+		final int count = in.readInt();
+		final Map<String, String> attributes = new HashMap<>();
+		for (int i = 0; i < count; i++) {
+			attributes.put(readString(in), readString(in));
+		}
+		final byte[] json = new byte[in.available()];
+		in.readFully(json);
+		return new Entry(json, truncated, attributes);
+	}
+
+	// Unlike writeUTF not limited to 64 KB, metadata values like descriptions or keywords may be longer
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		final byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private void putMemory(String key, Entry entry) {
+		if (entry.json.length > maxMemoryBytes) {
+			return;
+		}
+		synchronized (memory) {
+			final Entry previous = memory.put(key, entry);
+			memoryBytes += entry.json.length - (previous == null ? 0 : previous.json.length);
+			final Iterator<Entry> eldest = memory.values().iterator();
+			while (memoryBytes > maxMemoryBytes) {
+				memoryBytes -= eldest.next().json.length;
+				eldest.remove();
+			}
+		}
+	}
+
+	private static long getSize(String key) {
+		return Long.parseLong(key.substring(0, key.indexOf('-')));
+	}
+
+	private Path getSizeDirectory(long size) {
+		// Spread the sizes over subdirectories, so no single directory grows too large
+		return directory.resolve(String.format("%02x", size & 0xff)).resolve(Long.toString(size));
+	}
+
+	private Path getPath(String key) {
+		return getSizeDirectory(getSize(key)).resolve(key.substring(key.indexOf('-') + 1) + ".json");
+	}
+
+	/**
+	 * A cached JSON document, along with the FlowFile attributes taken from its metadata.
+	 */
+	static class Entry {
+		final byte[] json;
+		final boolean truncated;
+		final Map<String, String> attributes;
+
+		Entry(byte[] json, boolean truncated, Map<String, String> attributes) {
+			this.json = json;
+			this.truncated = truncated;
+			this.attributes = Collections.unmodifiableMap(attributes);
+		}
+	}
+}
@@ -0,0 +1,143 @@
+package com.ddmarley.nifi.processor;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.nifi.processor.ProcessSession;
+
+/**
+ * Per MIME type statistics of the parsed documents, shared by all concurrent tasks. Documents record into it
+ * without locking, the tasks hand the sums over to the processor counters and log the parse time percentiles
+ * from time to time.
+ */
+class ExtractionMetrics {
+
+	// Types beyond are counted as OTHER_TYPE, as a trusted mime.type attribute could hold anything
+	private static final int MAX_TYPES = 256;
+	private static final String OTHER_TYPE = "other";
+	private static final long NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private static class TypeStats {
+		private final LongAdder documents = new LongAdder();
+		private final LongAdder bytes = new LongAdder();
+		private final LongAdder characters = new LongAdder();
+		private final LongAdder parseNanos = new LongAdder();
+		private final LongAdder detectNanos = new LongAdder();
+		private final LatencyHistogram parseTimes = new LatencyHistogram();
+	}
+
+	private final ConcurrentMap<String, TypeStats> types = new ConcurrentHashMap<>();
+	private final long summaryIntervalNanos;
+	private final AtomicLong nextSummary;
+
+	/**
+	 * @param summaryIntervalNanos The minimum time between two summaries
+	 */
+	ExtractionMetrics(long summaryIntervalNanos) {
+		this.summaryIntervalNanos = summaryIntervalNanos;
+		this.nextSummary = new AtomicLong(System.nanoTime() + summaryIntervalNanos);
+	}
+
+	/**
+	 * @param type The base MIME type of the document
+	 * @param bytes The number of bytes the parser read
+	 * @param characters The number of characters extracted
+	 * @param detectNanos The time taken by the type detection, 0 if the type was trusted
+	 * @param parseNanos The time taken by the parser
+	 */
+	void record(String type, long bytes, long characters, long detectNanos, long parseNanos) {
+		TypeStats stats = types.get(type);
+		if (stats == null) {
+			stats = types.size() < MAX_TYPES ? types.computeIfAbsent(type, t -> new TypeStats()) : types.computeIfAbsent(OTHER_TYPE, t -> new TypeStats());
+		}
+		stats.documents.increment();
+		stats.bytes.add(bytes);
+		stats.characters.add(characters);
+		stats.detectNanos.add(detectNanos);
+		stats.parseNanos.add(parseNanos);
+		stats.parseTimes.record(parseNanos);
+	}
+
+	/**
+	 * Moves the sums recorded since the last call into the counters of the processor.
+	 * @param session The session to adjust the counters with
+	 */
+	void adjustCounters(ProcessSession session) {
+		for (Map.Entry<String, TypeStats> entry : types.entrySet()) {
+			final String suffix = " (" + entry.getKey() + ")";
+			final TypeStats stats = entry.getValue();
+			// Adjusted immediately, the sums may stem from the documents of other sessions
+			adjust(session, "Documents" + suffix, stats.documents.sumThenReset());
+			adjust(session, "Input bytes" + suffix, stats.bytes.sumThenReset());
+			adjust(session, "Extracted characters" + suffix, stats.characters.sumThenReset());
+			adjust(session, "Parse time ms" + suffix, takeMillis(stats.parseNanos));
+			adjust(session, "Detection time ms" + suffix, takeMillis(stats.detectNanos));
+		}
+	}
+
+	private static void adjust(ProcessSession session, String name, long delta) {
+		if (delta != 0) {
+			session.adjustCounter(name, delta, true);
+		}
+	}
+
+	/**
+	 * Takes the whole milliseconds only, so short parses still add up over time.
+	 */
+	private static long takeMillis(LongAdder nanos) {
+		final long millis = nanos.sum() / NANOS_PER_MILLI;
+		nanos.add(-millis * NANOS_PER_MILLI);
+		return millis;
+	}
+
+	/**
+	 * Takes the parse times recorded since the last summary, if the summary interval has passed. Only one of the
+	 * concurrent callers gets the summary then.
+	 * @return The summary of the parse time percentiles by MIME type, or null if not due or nothing has been parsed
+	 */
+	String takeSummary() {
+		final long now = System.nanoTime();
+		final long next = nextSummary.get();
+		if (now - next < 0 || !nextSummary.compareAndSet(next, now + summaryIntervalNanos)) {
+			return null;
+		}
+		return this.summarize();
+	}
+
+	/**
+	 * @return The summary of the parse times recorded since the last summary, or null if nothing has been parsed
+	 */
+	String summarize() {
+		final Map<String, long[]> snapshots = new TreeMap<>();
+		for (Map.Entry<String, TypeStats> entry : types.entrySet()) {
+			final long[] snapshot = entry.getValue().parseTimes.drain();
+			if (LatencyHistogram.count(snapshot) > 0) {
+				snapshots.put(entry.getKey(), snapshot);
+			}
+		}
+		if (snapshots.isEmpty()) {
+			return null;
+		}
+		final StringBuilder summary = new StringBuilder("Parse times by MIME type:");
+		for (Map.Entry<String, long[]> entry : snapshots.entrySet()) {
+			final long[] snapshot = entry.getValue();
+			summary.append(' ').append(entry.getKey()).append(": ").append(LatencyHistogram.count(snapshot)).append(" documents")
+					.append(", p50 ").append(formatMillis(LatencyHistogram.percentile(snapshot, 50)))
+					.append(", p90 ").append(formatMillis(LatencyHistogram.percentile(snapshot, 90)))
+					.append(", p99 ").append(formatMillis(LatencyHistogram.percentile(snapshot, 99)))
+					.append(", max ").append(formatMillis(LatencyHistogram.percentile(snapshot, 100))).append(';');
+		}
+		summary.setLength(summary.length() - 1);
+		return summary.toString();
+	}
+
+	private static String formatMillis(long micros) {
+		return String.format(Locale.ROOT, "%.1f ms", micros / 1000.0);
+	}
+}
@@ -0,0 +1,15 @@
+package com.ddmarley.nifi.processor;
+
+import org.apache.tika.exception.TikaException;
+
+/**
+ * Thrown if a document is not parsed because its MIME type is denied or not allowed.
+ */
+public class FilteredMimeTypeException extends TikaException {
+
+	private static final long serialVersionUID = 1L;
+
+	public FilteredMimeTypeException(String msg) {
+		super(msg);
+	}
+}
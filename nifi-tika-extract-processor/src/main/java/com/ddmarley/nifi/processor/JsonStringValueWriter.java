@@ -0,0 +1,102 @@
+package com.ddmarley.nifi.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+/**
+ * Writer that streams everything written to it as the escaped string value of one JSON field into a {@code JsonGenerator}.<br>
+ * The field is only opened once the first non-whitespace character arrives, so a blank text produces no field at all.
+ * The first characters can be kept aside, e.g. for language detection, without buffering the whole text.
+ */
+class JsonStringValueWriter extends Writer {
+
+	private final JsonGenerator generator;
+	private final String fieldName;
+	private final int prefixLength;
+	private final StringBuilder prefix;
+	private final StringBuilder pending = new StringBuilder();
+	private final StringBuilder escaped = new StringBuilder();
+	private boolean open = false;
+
+	/**
+	 * @param generator The generator to write into, positioned where the field may be written
+	 * @param fieldName The name of the JSON field
+	 * @param prefixLength The number of leading characters to keep for {@link #getPrefix()}
+	 */
+	JsonStringValueWriter(JsonGenerator generator, String fieldName, int prefixLength) {
+		this.generator = generator;
+		this.fieldName = fieldName;
+		this.prefixLength = prefixLength;
+		this.prefix = new StringBuilder(Math.min(prefixLength, 1024));
+	}
+
+	@Override
+	public void write(char[] cbuf, int off, int len) throws IOException {
+		if (prefix.length() < prefixLength) {
+			prefix.append(cbuf, off, Math.min(len, prefixLength - prefix.length()));
+		}
+		pending.append(cbuf, off, len);
+		if (!open) {
+			// Hold back leading whitespace until we know there is any text at all
+			if (isBlank(cbuf, off, len)) {
+				return;
+			}
+			generator.writeFieldName(fieldName);
+			// Writes the separator and the opening quote, the value itself follows as raw escaped chunks
+			generator.writeRawValue("\"");
+			open = true;
+		}
+		// Never hand half of a surrogate pair to the generator, it can't encode it on its own
+		int end = pending.length();
+		if (Character.isHighSurrogate(pending.charAt(end - 1))) {
+			end--;
+		}
+		writeEscaped(end);
+	}
+
+	/**
+	 * Closes the JSON string value, if it was opened. The generator itself stays open.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (open) {
+			writeEscaped(pending.length());
+			generator.writeRaw('"');
+			open = false;
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		// Flushing is left to the owner of the generator
+	}
+
+	/**
+	 * @return The first characters written, at most the configured prefix length
+	 */
+	CharSequence getPrefix() {
+		return prefix;
+	}
+
+	private void writeEscaped(int end) throws IOException {
+		if (end == 0) {
+			return;
+		}
+		escaped.setLength(0);
+		JsonStringEncoder.getInstance().quoteAsString(end == pending.length() ? pending : pending.subSequence(0, end), escaped);
+		generator.writeRaw(escaped.toString());
+		pending.delete(0, end);
+	}
+
+	private static boolean isBlank(char[] cbuf, int off, int len) {
+		for (int i = off; i < off + len; i++) {
+			if (!Character.isWhitespace(cbuf[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,296 @@
+package com.ddmarley.nifi.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.apache.commons.lang3.StringUtils;
+import org.xml.sax.Attributes;
+
+/**
+ * Writes the body of the document as Markdown. Headings, paragraphs, line breaks, lists, tables, preformatted text and
+ * block quotes are kept, inline formatting is dropped. Whitespace in the text is collapsed as a browser would.<br>
+ * The first row of a table becomes its header row, nested tables are flattened into the cells of the outer table.
+ */
+class MarkdownContentHandler extends StructuredContentHandler {
+
+	// Counters of the open lists, -1 for unordered lists
+	private final Deque<int[]> lists = new ArrayDeque<>();
+	// Newlines to write before the next text, 2 for a new block
+	private int pendingNewlines = 0;
+	private boolean written = false;
+	private boolean lineStart = true;
+	private boolean pendingSpace = false;
+	// Heading or list item marker to write before the next text
+	private String pendingMarker = null;
+	private int quoteDepth = 0;
+	private int preDepth = 0;
+	private int tableDepth = 0;
+	private boolean inCell = false;
+	private boolean headerRow = false;
+	private int cells = 0;
+
+	/**
+	 * @param writer The writer to write the Markdown to, not closed
+	 * @param prefixLength The number of leading characters of plain text to keep for {@link #getPrefix()}
+	 */
+	MarkdownContentHandler(Writer writer, int prefixLength) {
+		super(writer, prefixLength);
+	}
+
+	@Override
+	protected void start(String name, Attributes atts) throws IOException {
+		if (tableDepth > 0 && (!isTableElement(name) || tableDepth > 1 && !"table".equals(name))) {
+			// Within tables everything flows into the line of the row
+			pendingSpace = !lineStart;
+			return;
+		}
+		switch (name) {
+		case "h1":
+		case "h2":
+		case "h3":
+		case "h4":
+		case "h5":
+		case "h6":
+			block();
+			pendingMarker = StringUtils.repeat('#', name.charAt(1) - '0') + " ";
+			break;
+		case "p":
+		case "div":
+			block();
+			break;
+		case "br":
+			line();
+			break;
+		case "ul":
+		case "ol":
+			if (lists.isEmpty()) {
+				block();
+			}
+			lists.push(new int[] { "ol".equals(name) ? 0 : -1 });
+			break;
+		case "li":
+			line();
+			final int[] list = lists.isEmpty() ? new int[] { -1 } : lists.peek();
+			final String indent = StringUtils.repeat("  ", Math.max(lists.size() - 1, 0));
+			pendingMarker = indent + (list[0] < 0 ? "- " : ++list[0] + ". ");
+			break;
+		case "pre":
+			block();
+			startLine();
+			write("```");
+			line();
+			preDepth++;
+			break;
+		case "blockquote":
+			block();
+			quoteDepth++;
+			break;
+		case "table":
+			tableDepth++;
+			if (tableDepth == 1) {
+				block();
+				headerRow = true;
+			}
+			break;
+		case "tr":
+			if (tableDepth == 1) {
+				line();
+				startLine();
+				write('|');
+				cells = 0;
+			}
+			break;
+		case "td":
+		case "th":
+			if (tableDepth == 1) {
+				write(' ');
+				inCell = true;
+				pendingSpace = false;
+			}
+			break;
+		default:
+		}
+	}
+
+	@Override
+	protected void end(String name) throws IOException {
+		if (tableDepth > 0 && (!isTableElement(name) || tableDepth > 1 && !"table".equals(name))) {
+			pendingSpace = !lineStart;
+			return;
+		}
+		switch (name) {
+		case "h1":
+		case "h2":
+		case "h3":
+		case "h4":
+		case "h5":
+		case "h6":
+		case "p":
+		case "div":
+			pendingMarker = null;
+			block();
+			break;
+		case "ul":
+		case "ol":
+			lists.poll();
+			if (lists.isEmpty()) {
+				block();
+			} else {
+				line();
+			}
+			break;
+		case "li":
+			pendingMarker = null;
+			line();
+			break;
+		case "pre":
+			preDepth--;
+			line();
+			startLine();
+			write("```");
+			block();
+			break;
+		case "blockquote":
+			quoteDepth--;
+			block();
+			break;
+		case "table":
+			tableDepth--;
+			if (tableDepth == 0) {
+				block();
+			}
+			break;
+		case "tr":
+			if (tableDepth == 1) {
+				if (headerRow) {
+					write('\n');
+					writeQuotePrefix();
+					write('|');
+					for (int i = 0; i < cells; i++) {
+						write(" --- |");
+					}
+					headerRow = false;
+				}
+				line();
+			}
+			break;
+		case "td":
+		case "th":
+			if (tableDepth == 1) {
+				write(" |");
+				inCell = false;
+				pendingSpace = false;
+				cells++;
+			}
+			break;
+		default:
+		}
+	}
+
+	@Override
+	protected void text(char[] ch, int start, int length) throws IOException {
+		if (preDepth > 0) {
+			preformatted(ch, start, length);
+			return;
+		}
+		int run = -1;
+		for (int i = start; i < start + length; i++) {
+			final char c = ch[i];
+			if (Character.isWhitespace(c) || (inCell && c == '|')) {
+				if (run >= 0) {
+					write(ch, run, i - run);
+					run = -1;
+				}
+				if (Character.isWhitespace(c)) {
+					pendingSpace = !lineStart;
+				} else {
+					writeSpace();
+					write("\\|");
+				}
+			} else if (run < 0) {
+				if (lineStart) {
+					startLine();
+				} else {
+					writeSpace();
+				}
+				run = i;
+			}
+		}
+		if (run >= 0) {
+			write(ch, run, start + length - run);
+		}
+	}
+
+	private void preformatted(char[] ch, int start, int length) throws IOException {
+		int run = start;
+		for (int i = start; i < start + length; i++) {
+			if (ch[i] == '\n') {
+				write(ch, run, i - run);
+				run = i + 1;
+				if (lineStart) {
+					// Keep empty lines
+					startLine();
+				}
+				line();
+			} else if (lineStart) {
+				startLine();
+				run = i;
+			}
+		}
+		write(ch, run, start + length - run);
+	}
+
+	private static boolean isTableElement(String name) {
+		return "table".equals(name) || "tr".equals(name) || "td".equals(name) || "th".equals(name);
+	}
+
+	/**
+	 * Starts a new block, e.g. a paragraph, after an empty line.
+	 */
+	private void block() {
+		lineStart = true;
+		pendingSpace = false;
+		pendingNewlines = 2;
+	}
+
+	/**
+	 * Starts a new line, unless the current one is still empty.
+	 */
+	private void line() {
+		lineStart = true;
+		pendingSpace = false;
+		pendingNewlines = Math.max(pendingNewlines, 1);
+	}
+
+	private void startLine() throws IOException {
+		if (written) {
+			for (int i = 0; i < pendingNewlines; i++) {
+				write('\n');
+			}
+		}
+		pendingNewlines = 0;
+		writeQuotePrefix();
+		if (pendingMarker != null) {
+			write(pendingMarker);
+			pendingMarker = null;
+		}
+		lineStart = false;
+		pendingSpace = false;
+		written = true;
+	}
+
+	private void writeQuotePrefix() throws IOException {
+		for (int i = 0; i < quoteDepth; i++) {
+			write("> ");
+		}
+	}
+
+	private void writeSpace() throws IOException {
+		if (pendingSpace) {
+			write(' ');
+			pendingSpace = false;
+		}
+	}
+}
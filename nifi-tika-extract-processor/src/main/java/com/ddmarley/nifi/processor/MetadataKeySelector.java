@@ -0,0 +1,79 @@
+package com.ddmarley.nifi.processor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * Selects Tika metadata keys by include and exclude lists of globs, like 'dc:*' or 'pdf:docinfo:*', ignoring case.
+ * A key is selected if it matches any include (or there are no includes) and no exclude. As Tika only knows a limited
+ * set of keys, the decisions are computed once per key and then looked up.
+ */
+class MetadataKeySelector {
+
+	private static final int MAX_CACHED_KEYS = 4096;
+
+	private final List<Pattern> includes;
+	private final List<Pattern> excludes;
+	private final ConcurrentMap<String, Boolean> decisions = new ConcurrentHashMap<>();
+
+	/**
+	 * @param includes Comma separated globs of the keys to select, null to select all
+	 * @param excludes Comma separated globs of the keys not to select, null to exclude none
+	 */
+	MetadataKeySelector(String includes, String excludes) {
+		this.includes = compile(includes);
+		this.excludes = compile(excludes);
+	}
+
+	/**
+	 * @param key The Tika metadata key
+	 * @return Whether the key is selected
+	 */
+	boolean isSelected(String key) {
+		Boolean selected = decisions.get(key);
+		if (selected == null) {
+			selected = (includes.isEmpty() || matchesAny(includes, key)) && !matchesAny(excludes, key);
+			if (decisions.size() < MAX_CACHED_KEYS) {
+				decisions.putIfAbsent(key, selected);
+			}
+		}
+		return selected;
+	}
+
+	private static boolean matchesAny(List<Pattern> patterns, String key) {
+		for (Pattern pattern : patterns) {
+			if (pattern.matcher(key).matches()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static List<Pattern> compile(String globs) {
+		if (globs == null) {
+			return Collections.emptyList();
+		}
+		final List<Pattern> patterns = new ArrayList<>();
+		for (String glob : globs.split(",")) {
+			glob = glob.trim();
+			if (glob.isEmpty()) {
+				continue;
+			}
+			final StringBuilder regex = new StringBuilder();
+			for (String literal : glob.split("\\*", -1)) {
+				if (regex.length() > 0) {
+					regex.append(".*");
+				}
+				if (!literal.isEmpty()) {
+					regex.append(Pattern.quote(literal));
+				}
+			}
+			patterns.add(Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE));
+		}
+		return patterns;
+	}
+}
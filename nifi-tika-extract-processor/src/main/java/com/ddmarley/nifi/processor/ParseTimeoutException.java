@@ -0,0 +1,15 @@
+package com.ddmarley.nifi.processor;
+
+import org.apache.tika.exception.TikaException;
+
+/**
+ * Thrown if parsing a document takes longer than the configured parse timeout.
+ */
+public class ParseTimeoutException extends TikaException {
+
+	private static final long serialVersionUID = 1L;
+
+	public ParseTimeoutException(String msg) {
+		super(msg);
+	}
+}
@@ -0,0 +1,122 @@
+package com.ddmarley.nifi.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Base of the content handlers writing the body of the XHTML document produced by Tika, in a format keeping its
+ * structure like headings, paragraphs, lists and tables. The output is written straight into the given writer while
+ * the document is parsed. Expects only the events of the body, e.g. behind a {@code BodyContentHandler}.<br>
+ * The first characters of the plain text can be kept aside, e.g. for language detection, as the output contains markup.
+ */
+abstract class StructuredContentHandler extends DefaultHandler {
+
+	private final Writer writer;
+	private final int prefixLength;
+	private final StringBuilder prefix;
+
+	/**
+	 * @param writer The writer to write the output to, not closed
+	 * @param prefixLength The number of leading characters of plain text to keep for {@link #getPrefix()}
+	 */
+	StructuredContentHandler(Writer writer, int prefixLength) {
+		this.writer = writer;
+		this.prefixLength = prefixLength;
+		this.prefix = new StringBuilder(Math.min(prefixLength, 1024));
+	}
+
+	/**
+	 * Called for every element.
+	 * @param name The local name of the element, e.g. 'p' or 'h1'
+	 * @param atts The attributes of the element
+	 */
+	protected abstract void start(String name, Attributes atts) throws IOException;
+
+	/**
+	 * Called for the end of every element.
+	 * @param name The local name of the element
+	 */
+	protected abstract void end(String name) throws IOException;
+
+	/**
+	 * Called for all text.
+	 */
+	protected abstract void text(char[] ch, int start, int length) throws IOException;
+
+	@Override
+	public final void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+		try {
+			start(localName.isEmpty() ? qName : localName, atts);
+		} catch (IOException e) {
+			throw new SAXException("Could not write the content", e);
+		}
+	}
+
+	@Override
+	public final void endElement(String uri, String localName, String qName) throws SAXException {
+		try {
+			end(localName.isEmpty() ? qName : localName);
+		} catch (IOException e) {
+			throw new SAXException("Could not write the content", e);
+		}
+	}
+
+	@Override
+	public final void characters(char[] ch, int start, int length) throws SAXException {
+		if (prefix.length() < prefixLength) {
+			prefix.append(ch, start, Math.min(length, prefixLength - prefix.length()));
+		}
+		try {
+			text(ch, start, length);
+		} catch (IOException e) {
+			throw new SAXException("Could not write the content", e);
+		}
+	}
+
+	@Override
+	public final void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+		characters(ch, start, length);
+	}
+
+	@Override
+	public void endDocument() throws SAXException {
+		try {
+			writer.flush();
+		} catch (IOException e) {
+			throw new SAXException("Could not write the content", e);
+		}
+	}
+
+	/**
+	 * @return The first characters of the plain text, at most the configured prefix length
+	 */
+	CharSequence getPrefix() {
+		return prefix;
+	}
+
+	protected void write(String s) throws IOException {
+		writer.write(s);
+	}
+
+	protected void write(char c) throws IOException {
+		writer.write(c);
+	}
+
+	protected void write(char[] ch, int start, int length) throws IOException {
+		if (length > 0) {
+			writer.write(ch, start, length);
+		}
+	}
+
+	/**
+	 * @return The output, if written into e.g. a {@code StringWriter}
+	 */
+	@Override
+	public String toString() {
+		return writer.toString();
+	}
+}
@@ -0,0 +1,131 @@
+package com.ddmarley.nifi.processor;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Content handler cutting the extracted text into chunks while the document is parsed, so at most about two chunks
+ * are held in memory. A chunk ends after the configured number of characters, preferably at a whitespace in its
+ * second half, so words are not cut. If page boundaries are used, every page (as reported by e.g. the PDF parser
+ * with {@code <div class="page">}) ends a chunk as well.<br>
+ * The first characters can be kept aside, e.g. for language detection.
+ */
+class TextChunkHandler extends DefaultHandler {
+
+	/**
+	 * Receives the chunks of a document in order.
+	 */
+	interface ChunkListener {
+		/**
+		 * @param text The text of the chunk, never blank
+		 * @param firstPage The page the chunk starts on, 0 if the document has no pages
+		 * @param lastPage The page the chunk ends on, 0 if the document has no pages
+		 */
+		void chunk(String text, int firstPage, int lastPage) throws SAXException;
+	}
+
+	private final ChunkListener listener;
+	private final int chunkSize;
+	private final boolean pageBoundaries;
+	private final int prefixLength;
+	private final StringBuilder prefix;
+	private final StringBuilder buffer = new StringBuilder();
+	// Whether each open div is a page
+	private final Deque<Boolean> divs = new ArrayDeque<>();
+	private int page = 0;
+	private int firstPage = 0;
+
+	/**
+	 * @param listener The listener to hand the chunks to
+	 * @param chunkSize The maximum number of characters of a chunk
+	 * @param pageBoundaries Whether every page ends a chunk
+	 * @param prefixLength The number of leading characters to keep for {@link #getPrefix()}
+	 */
+	TextChunkHandler(ChunkListener listener, int chunkSize, boolean pageBoundaries, int prefixLength) {
+		this.listener = listener;
+		this.chunkSize = chunkSize;
+		this.pageBoundaries = pageBoundaries;
+		this.prefixLength = prefixLength;
+		this.prefix = new StringBuilder(Math.min(prefixLength, 1024));
+	}
+
+	@Override
+	public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+		if ("div".equals(localName)) {
+			final boolean isPage = "page".equals(atts.getValue("class"));
+			divs.push(isPage);
+			if (isPage) {
+				page++;
+				if (buffer.length() == 0) {
+					firstPage = page;
+				}
+			}
+		}
+	}
+
+	@Override
+	public void endElement(String uri, String localName, String qName) throws SAXException {
+		if ("div".equals(localName) && !divs.isEmpty() && divs.pop() && pageBoundaries) {
+			emit(buffer.length());
+		}
+	}
+
+	@Override
+	public void characters(char[] ch, int start, int length) throws SAXException {
+		if (prefix.length() < prefixLength) {
+			prefix.append(ch, start, Math.min(length, prefixLength - prefix.length()));
+		}
+		if (buffer.length() == 0) {
+			firstPage = page;
+		}
+		buffer.append(ch, start, length);
+		while (buffer.length() >= chunkSize) {
+			emit(findCut());
+		}
+	}
+
+	@Override
+	public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+		characters(ch, start, length);
+	}
+
+	/**
+	 * Emits the remaining text as last chunk. Called once parsing is done, even if it was stopped at the write limit.
+	 */
+	void finish() throws SAXException {
+		emit(buffer.length());
+	}
+
+	/**
+	 * @return The first characters of the text, at most the configured prefix length
+	 */
+	CharSequence getPrefix() {
+		return prefix;
+	}
+
+	private int findCut() {
+		for (int i = chunkSize; i > chunkSize / 2; i--) {
+			if (Character.isWhitespace(buffer.charAt(i - 1))) {
+				return i;
+			}
+		}
+		// Never split a surrogate pair
+		return Character.isHighSurrogate(buffer.charAt(chunkSize - 1)) ? chunkSize - 1 : chunkSize;
+	}
+
+	private void emit(int end) throws SAXException {
+		if (end == 0) {
+			return;
+		}
+		final String text = buffer.substring(0, end);
+		buffer.delete(0, end);
+		if (!text.trim().isEmpty()) {
+			listener.chunk(text, firstPage, page);
+		}
+		firstPage = page;
+	}
+}
@@ -0,0 +1,48 @@
+package com.ddmarley.nifi.processor;
+
+import org.apache.tika.sax.ContentHandlerDecorator;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+
+/**
+ * Counts the characters of the text passed on to the decorated handler, independent of the format that handler writes.
+ * Non-whitespace characters are counted on their own, to tell documents without a text layer, like scanned PDFs,
+ * from documents with text.
+ */
+class TextLengthCounter extends ContentHandlerDecorator {
+
+	private long length = 0;
+	private long characters = 0;
+
+	/**
+	 * @param handler The handler to pass all events on to
+	 */
+	TextLengthCounter(ContentHandler handler) {
+		super(handler);
+	}
+
+	@Override
+	public void characters(char[] ch, int start, int length) throws SAXException {
+		for (int i = start; i < start + length; i++) {
+			if (!Character.isWhitespace(ch[i])) {
+				this.length++;
+			}
+		}
+		this.characters += length;
+		super.characters(ch, start, length);
+	}
+
+	/**
+	 * @return The number of non-whitespace characters seen so far
+	 */
+	long getLength() {
+		return length;
+	}
+
+	/**
+	 * @return The number of all characters seen so far, including whitespace
+	 */
+	long getCharacters() {
+		return characters;
+	}
+}
@@ -0,0 +1,759 @@
+package com.ddmarley.nifi.processor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.tika.detect.Detector;
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.fork.ForkParser;
+import org.apache.tika.io.TemporaryResources;
+import org.apache.tika.io.TikaInputStream;
+import org.apache.tika.langdetect.OptimaizeLangDetector;
+import org.apache.tika.language.detect.LanguageConfidence;
+import org.apache.tika.language.detect.LanguageDetector;
+import org.apache.tika.language.detect.LanguageResult;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.mime.MediaType;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.Parser;
+import org.apache.tika.parser.ParserDecorator;
+import org.apache.tika.parser.ocr.TesseractOCRConfig;
+import org.apache.tika.parser.pdf.PDFParserConfig;
+import org.apache.tika.sax.BasicContentHandlerFactory;
+import org.apache.tika.sax.BodyContentHandler;
+import org.apache.tika.sax.ContentHandlerFactory;
+import org.apache.tika.sax.RecursiveParserWrapperHandler;
+import org.apache.tika.sax.ToTextContentHandler;
+import org.apache.tika.sax.WriteOutContentHandler;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * The extraction pipeline shared by {@code ExtractTikaContent} and {@code ExtractTikaRecords}: detects and filters the
+ * type of a document, parses it with a pooled parser, on the parse executor if there is a parse timeout, and assembles
+ * its text, language, metadata and attributes into {@link TikaResults}. The processors read the content from the
+ * session and write the results.<br>
+ * An extractor is built and configured once per schedule, before it is handed to the concurrent tasks, and closed when
+ * the processor stops.
+ */
+class TikaExtractor implements Closeable {
+
+	// Chunks a parse on the parse executor may get ahead of the task thread writing them
+	private static final int CHUNK_HANDOFF_CAPACITY = 4;
+	// Handed over by a parse on the parse executor once it is done
+	private static final Runnable PARSE_DONE = () -> { };
+
+	private final Detector detector;
+	private final TikaParserPool parserPool;
+	private final ExecutorService parseExecutor;
+	private final long parseTimeoutMillis;
+	private final ExtractionMetrics metrics;
+	private int maxExtractedChars = -1;
+	private String contentFormat = ExtractTikaContent.CONTENT_TEXT;
+	private List<String> allowedMimeTypes = Collections.emptyList();
+	private List<String> deniedMimeTypes = Collections.emptyList();
+	private MetadataKeySelector metadataAttributes;
+	// Language detectors keep the text to analyze as state, so every detection borrows one. The pool only grows to the
+	// number of detections run at once, independent of the threads they run on.
+	private final Queue<LanguageDetector> langDetectors = new ConcurrentLinkedQueue<>();
+	private Set<String> langDetectLanguages;
+	private int langDetectLength;
+	private boolean extractEmbedded;
+	private int maxEmbeddedDepth;
+	private int maxEmbeddedCount;
+	private long maxEmbeddedChars;
+	private Semaphore ocrPermits;
+	private TesseractOCRConfig ocrConfig;
+	private int ocrMinChars;
+
+	/**
+	 * @param detector Detects the type of documents without a trusted MIME type
+	 * @param parserPool The parsers to parse with, closed with the extractor
+	 * @param parseExecutor The executor to run the parses on, shut down with the extractor, or null to parse on the calling thread
+	 * @param parseTimeoutMillis The maximum time in milliseconds a parse on the executor may take
+	 * @param metrics Records the size, text length and parse time of every document, or null
+	 */
+	TikaExtractor(Detector detector, TikaParserPool parserPool, ExecutorService parseExecutor, long parseTimeoutMillis, ExtractionMetrics metrics) {
+		this.detector = detector;
+		this.parserPool = parserPool;
+		this.parseExecutor = parseExecutor;
+		this.parseTimeoutMillis = parseExecutor != null ? parseTimeoutMillis : 0;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * @param maxExtractedChars The maximum number of characters extracted from a document, -1 for no limit
+	 */
+	void setMaxExtractedChars(int maxExtractedChars) {
+		this.maxExtractedChars = maxExtractedChars;
+	}
+
+	/**
+	 * @param contentFormat The format of the extracted text, one of the {@code CONTENT_FORMAT} values
+	 */
+	void setContentFormat(String contentFormat) {
+		this.contentFormat = contentFormat;
+	}
+
+	/**
+	 * @param allowed The lower case MIME types to extract, all if empty, 'type/*' matches all subtypes
+	 * @param denied The lower case MIME types never to extract
+	 */
+	void setMimeTypeFilter(List<String> allowed, List<String> denied) {
+		this.allowedMimeTypes = allowed;
+		this.deniedMimeTypes = denied;
+	}
+
+	/**
+	 * @param selector Selects the metadata keys to put into the attributes of the results, or null for none
+	 */
+	void setMetadataAttributes(MetadataKeySelector selector) {
+		this.metadataAttributes = selector;
+	}
+
+	/**
+	 * Enables language detection. One detector is loaded right away, so unknown languages fail here and not on the first document.
+	 * @param languages The ISO 639-1 codes of the languages to detect, or an empty set for all known languages
+	 * @param length The number of leading characters of the text to detect the language on
+	 */
+	void setLanguageDetection(Set<String> languages, int length) throws IOException {
+		this.langDetectLanguages = languages;
+		this.langDetectLength = length;
+		this.langDetectors.add(loadLanguageDetector(languages));
+	}
+
+	/**
+	 * Extracts every embedded document on its own, see {@link EmbeddedDocumentCollector}.
+	 * @param maxDepth The maximum nesting depth of embedded documents
+	 * @param maxCount The maximum number of embedded documents, -1 for no limit
+	 * @param maxCharacters The maximum number of characters of a document and its embedded documents, -1 for no limit
+	 */
+	void setEmbeddedExtraction(int maxDepth, int maxCount, long maxCharacters) {
+		this.extractEmbedded = true;
+		this.maxEmbeddedDepth = maxDepth;
+		this.maxEmbeddedCount = maxCount;
+		this.maxEmbeddedChars = maxCharacters;
+	}
+
+	/**
+	 * @return Whether every embedded document is extracted on its own
+	 */
+	boolean isEmbeddedExtraction() {
+		return this.extractEmbedded;
+	}
+
+	/**
+	 * Runs OCR on PDFs and images with too little text, see {@link #extractWithOcrFallback}.
+	 * @param config The Tesseract configuration
+	 * @param minChars The number of non-whitespace characters below which a document is extracted once more with OCR
+	 * @param concurrency The maximum number of OCR passes at a time
+	 */
+	void setOcrFallback(TesseractOCRConfig config, int minChars, int concurrency) {
+		this.ocrConfig = config;
+		this.ocrMinChars = minChars;
+		this.ocrPermits = new Semaphore(concurrency, true);
+	}
+
+	/**
+	 * @return The parser pool, purely for testing purposes
+	 */
+	TikaParserPool getParserPool() {
+		return this.parserPool;
+	}
+
+	@Override
+	public void close() {
+		if (this.parseExecutor != null) {
+			this.parseExecutor.shutdownNow();
+		}
+		this.parserPool.close();
+	}
+
+	/**
+	 * Loads the Optimaize language models, either all of them or only the given languages.
+	 * @param languages The ISO 639-1 codes to load, or an empty set for all known languages
+	 * @return The ready to use language detector
+	 */
+	private static LanguageDetector loadLanguageDetector(Set<String> languages) throws IOException {
+		if (languages.isEmpty()) {
+			return new OptimaizeLangDetector().loadModels();
+		}
+		return new OptimaizeLangDetector().loadModels(languages);
+	}
+
+	/**
+	 * Extracts the given content with Tika.
+	 * @param content The content as an Inputstream
+	 * @param mimeType The trusted MIME type of the content, or null to detect it
+	 * @param extractStrategy The extractStrategy based on {@code EXTRACT_STRATEGY}
+	 * @return The extract results (content and metadata) wrapped in a {@code TikaResults} object
+	 */
+	TikaResults extract(InputStream content, String mimeType, String extractStrategy, boolean langDetect) throws TikaException, IOException {
+		if (this.extractEmbedded) {
+			return this.extractRecursive(content, mimeType, extractStrategy, langDetect);
+		}
+		if (this.ocrPermits != null && !extractStrategy.equals(ExtractTikaContent.STRATEGY_META)) {
+			return this.extractWithOcrFallback(content, mimeType, extractStrategy, langDetect);
+		}
+		return this.extractText(content, mimeType, extractStrategy, langDetect, false, null);
+	}
+
+	/**
+	 * Extracts the given content with Tika into memory.
+	 * @param content The content as an Inputstream
+	 * @param mimeType The trusted MIME type of the content, or null to detect it
+	 * @param extractStrategy The extractStrategy based on {@code EXTRACT_STRATEGY}
+	 * @param ocr Whether to run OCR on the content
+	 * @param textLength Receives the number of non-whitespace characters of the extracted text, may be null
+	 * @return The extract results (content and metadata) wrapped in a {@code TikaResults} object
+	 */
+	private TikaResults extractText(InputStream content, String mimeType, String extractStrategy, boolean langDetect, boolean ocr,
+			AtomicLong textLength) throws TikaException, IOException {
+		Metadata metadata = new Metadata();
+		// Handler for content
+		ContentHandler contentHandler = this.newContentHandler(new StringWriter(), extractStrategy, langDetect ? this.langDetectLength : 0);
+		final TextLengthCounter counter = new TextLengthCounter(contentHandler);
+		WriteOutContentHandler handler = new WriteOutContentHandler(textLength != null ? counter : contentHandler, this.getWriteLimit(extractStrategy));
+		final boolean truncated = this.parse(content, mimeType, handler, metadata, null, ocr, null) && !extractStrategy.equals(ExtractTikaContent.STRATEGY_META);
+		if (textLength != null) {
+			textLength.set(counter.getLength());
+		}
+
+		// Do language detection based on config
+		LanguageResult langResult = this.detectLanguage(contentHandler instanceof StructuredContentHandler
+				? ((StructuredContentHandler) contentHandler).getPrefix() : handler.toString(), langDetect);
+		if(extractStrategy.equals(ExtractTikaContent.STRATEGY_CONTENT)) {
+			return new TikaResults(handler.toString(), langResult.getLanguage(), new Metadata(), truncated,
+					this.getMetadataAttributes(metadata), Collections.emptyList());
+		} else {
+			return new TikaResults(handler.toString(), langResult.getLanguage(), metadata, truncated,
+					this.getMetadataAttributes(metadata), Collections.emptyList());
+		}
+	}
+
+	/**
+	 * Extracts the given content, and once more with OCR if it is a PDF or an image with less than {@code OCR_MIN_CHARS} characters of text.
+	 * These documents are spooled to a temporary file, so they can be parsed twice. At most {@code OCR_CONCURRENCY} OCR passes run at a time.
+	 * @param content The content as an Inputstream, closed when done
+	 * @param mimeType The trusted MIME type of the content, or null to detect it
+	 * @param extractStrategy The extractStrategy based on {@code EXTRACT_STRATEGY}
+	 * @return The extract results of the first pass, or of the OCR pass flagged with {@code ATTRIBUTE_OCR}
+	 */
+	private TikaResults extractWithOcrFallback(InputStream content, String mimeType, String extractStrategy, boolean langDetect) throws TikaException, IOException {
+		final TemporaryResources tmp = new TemporaryResources();
+		try {
+			final TikaInputStream tis = TikaInputStream.get(content, tmp);
+			// Detected once here, both passes trust the type
+			final MediaType type = mimeType != null ? MediaType.parse(mimeType) : this.detector.detect(tis, new Metadata());
+			if (!isOcrCandidate(type) || !this.isAcceptedMimeType(type)) {
+				return this.extractText(tis, type.toString(), extractStrategy, langDetect, false, null);
+			}
+
+			final Path file = tis.getPath();
+			final AtomicLong textLength = new AtomicLong();
+			final TikaResults res = this.extractText(TikaInputStream.get(file), type.toString(), extractStrategy, langDetect, false, textLength);
+			if (textLength.get() >= this.ocrMinChars) {
+				return res;
+			}
+			try {
+				this.ocrPermits.acquire();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new TikaException("Interrupted while waiting for an OCR slot", e);
+			}
+			final TikaResults ocrRes;
+			try {
+				ocrRes = this.extractText(TikaInputStream.get(file), type.toString(), extractStrategy, langDetect, true, null);
+			} finally {
+				this.ocrPermits.release();
+			}
+			final Map<String, String> attributes = new HashMap<>(ocrRes.getAttributes());
+			attributes.put(ExtractTikaContent.ATTRIBUTE_OCR, "true");
+			return new TikaResults(ocrRes.getContent(), ocrRes.getLanguage(), ocrRes.getMetadata(), ocrRes.isTruncated(),
+					attributes, Collections.emptyList());
+		} finally {
+			tmp.dispose();
+			content.close();
+		}
+	}
+
+	/**
+	 * @param type The MIME type of a document
+	 * @return Whether OCR may find text in documents of the type, i.e. PDFs and images
+	 */
+	private static boolean isOcrCandidate(MediaType type) {
+		return type.getBaseType().equals(MediaType.application("pdf")) || type.getType().equals("image");
+	}
+
+	/**
+	 * Extracts the given content and every embedded document on its own, with a {@code RecursiveParserWrapper}.
+	 * @param content The content as an Inputstream
+	 * @param mimeType The trusted MIME type of the content, or null to detect it
+	 * @param extractStrategy The extractStrategy based on {@code EXTRACT_STRATEGY}
+	 * @return The extract results of the container, holding the results of the embedded documents
+	 */
+	private TikaResults extractRecursive(InputStream content, String mimeType, String extractStrategy, boolean langDetect) throws TikaException, IOException {
+		// A write limit of 0 would stop the container before any embedded document is found, so the text is ignored instead
+		final ContentHandlerFactory factory = extractStrategy.equals(ExtractTikaContent.STRATEGY_META)
+				? new BasicContentHandlerFactory(BasicContentHandlerFactory.HANDLER_TYPE.IGNORE, -1)
+				: new BasicContentHandlerFactory(BasicContentHandlerFactory.HANDLER_TYPE.BODY, this.maxExtractedChars);
+		// Without text there is nothing held to bound
+		final EmbeddedDocumentCollector collector = new EmbeddedDocumentCollector(factory, this.maxEmbeddedCount, this.maxEmbeddedDepth,
+				extractStrategy.equals(ExtractTikaContent.STRATEGY_META) ? -1 : this.maxEmbeddedChars);
+		this.parse(content, mimeType, null, new Metadata(), collector);
+		if (collector.isCharacterLimitExceeded()) {
+			throw new TikaException("The document and its embedded documents exceed " + this.maxEmbeddedChars + " characters");
+		}
+
+		final List<TikaResults> documents = new ArrayList<>();
+		for (Metadata metadata : collector.getMetadataList()) {
+			final boolean isContainer = documents.isEmpty();
+			final String text = StringUtils.defaultString(metadata.get(RecursiveParserWrapperHandler.TIKA_CONTENT));
+			final boolean truncated = Boolean.parseBoolean(metadata.get(RecursiveParserWrapperHandler.WRITE_LIMIT_REACHED)) && !extractStrategy.equals(ExtractTikaContent.STRATEGY_META);
+			// Content and truncation have fields of their own
+			metadata.remove(RecursiveParserWrapperHandler.TIKA_CONTENT.getName());
+			metadata.remove(RecursiveParserWrapperHandler.TIKA_CONTENT_HANDLER.getName());
+			metadata.remove(RecursiveParserWrapperHandler.WRITE_LIMIT_REACHED.getName());
+			final Map<String, String> attributes = new HashMap<>(this.getMetadataAttributes(metadata));
+			if (!isContainer) {
+				attributes.put(ExtractTikaContent.ATTRIBUTE_EMBEDDED_PATH, StringUtils.defaultString(metadata.get(RecursiveParserWrapperHandler.EMBEDDED_RESOURCE_PATH)));
+				attributes.put(ExtractTikaContent.ATTRIBUTE_EMBEDDED_DEPTH, StringUtils.defaultString(metadata.get(RecursiveParserWrapperHandler.EMBEDDED_DEPTH)));
+			}
+			documents.add(new TikaResults(text, this.detectLanguage(text, langDetect).getLanguage(),
+					extractStrategy.equals(ExtractTikaContent.STRATEGY_CONTENT) ? new Metadata() : metadata, truncated, attributes, Collections.emptyList()));
+		}
+		final TikaResults container = documents.get(0);
+		return new TikaResults(container.getContent(), container.getLanguage(), container.getMetadata(), container.isTruncated(),
+				container.getAttributes(), documents.subList(1, documents.size()));
+	}
+
+	/**
+	 * Extracts the given content with Tika and streams the text straight into the content field of the JSON document
+	 * being generated. The extracted text is never held in memory, it goes through the content handler into the generator.
+	 * @param content The content as an Inputstream
+	 * @param mimeType The trusted MIME type of the content, or null to detect it
+	 * @param generator The generator of the JSON document, the content field is written next
+	 * @param fieldName The name of the content field
+	 * @param extractStrategy The extractStrategy based on {@code EXTRACT_STRATEGY}
+	 * @return The extract results without content, as it has already been written
+	 */
+	TikaResults extract(InputStream content, String mimeType, JsonGenerator generator, String fieldName, String extractStrategy, boolean langDetect)
+			throws TikaException, IOException {
+		Metadata metadata = new Metadata();
+		// Handler for content, writing directly into the content field
+		JsonStringValueWriter writer = new JsonStringValueWriter(generator,
+				fieldName, langDetect ? this.langDetectLength : 0);
+		ContentHandler contentHandler = this.newContentHandler(writer, extractStrategy, langDetect ? this.langDetectLength : 0);
+		WriteOutContentHandler handler = new WriteOutContentHandler(contentHandler, this.getWriteLimit(extractStrategy));
+		final boolean truncated = this.parse(content, mimeType, handler, metadata, null) && !extractStrategy.equals(ExtractTikaContent.STRATEGY_META);
+		writer.close();
+
+		LanguageResult langResult = this.detectLanguage(contentHandler instanceof StructuredContentHandler
+				? ((StructuredContentHandler) contentHandler).getPrefix() : writer.getPrefix(), langDetect);
+		return new TikaResults(null, langResult.getLanguage(), extractStrategy.equals(ExtractTikaContent.STRATEGY_CONTENT) ? new Metadata() : metadata, truncated,
+				this.getMetadataAttributes(metadata), Collections.emptyList());
+	}
+
+	/**
+	 * Extracts the given content with Tika and hands the extracted text in chunks to the given listener, while the document is parsed.
+	 * The listener is always called on the calling thread, also if the parse runs on the parse executor.
+	 * @param content The content as an Inputstream
+	 * @param mimeType The trusted MIME type of the content, or null to detect it
+	 * @param listener The listener receiving the chunks
+	 * @param chunkSize The maximum number of characters of a chunk
+	 * @param pageBoundaries Whether every page ends a chunk
+	 * @param extractStrategy The extractStrategy based on {@code EXTRACT_STRATEGY}
+	 * @return The extract results without content, as it has been handed to the listener
+	 */
+	TikaResults extract(InputStream content, String mimeType, TextChunkHandler.ChunkListener listener, int chunkSize, boolean pageBoundaries,
+			String extractStrategy, boolean langDetect) throws TikaException, IOException {
+
+		Metadata metadata = new Metadata();
+		final BlockingQueue<Runnable> taskWork = this.parseTimeoutMillis > 0 ? new ArrayBlockingQueue<>(CHUNK_HANDOFF_CAPACITY) : null;
+		TextChunkHandler chunker = new TextChunkHandler(taskWork != null ? handOver(listener, taskWork, this.parseTimeoutMillis) : listener, chunkSize, pageBoundaries,
+				langDetect ? this.langDetectLength : 0);
+		WriteOutContentHandler handler = new WriteOutContentHandler(chunker, this.getWriteLimit(extractStrategy));
+		final boolean truncated = this.parse(content, mimeType, handler, metadata, null, false, taskWork) && !extractStrategy.equals(ExtractTikaContent.STRATEGY_META);
+		try {
+			chunker.finish();
+		} catch (SAXException e) {
+			throw new TikaException("Could not emit the last chunk", e);
+		}
+
+		LanguageResult langResult = this.detectLanguage(chunker.getPrefix(), langDetect);
+		return new TikaResults(null, langResult.getLanguage(), extractStrategy.equals(ExtractTikaContent.STRATEGY_CONTENT) ? new Metadata() : metadata, truncated,
+				this.getMetadataAttributes(metadata), Collections.emptyList());
+	}
+
+	/**
+	 * @param listener The listener to call on the current thread
+	 * @param taskWork The queue the current thread runs the work of the parse from, see {@link #runParser}
+	 * @param timeout The maximum time in milliseconds to wait for the current thread to take a chunk
+	 * @return A listener handing the chunks over to the current thread if it is called on another thread
+	 */
+	private static TextChunkHandler.ChunkListener handOver(TextChunkHandler.ChunkListener listener, BlockingQueue<Runnable> taskWork, long timeout) {
+		final Thread taskThread = Thread.currentThread();
+		return (text, firstPage, lastPage) -> {
+			if (Thread.currentThread() == taskThread) {
+				// The last chunk is emitted after the parse
+				listener.chunk(text, firstPage, lastPage);
+				return;
+			}
+			final Runnable work = () -> {
+				try {
+					listener.chunk(text, firstPage, lastPage);
+				} catch (SAXException e) {
+					throw new ProcessException(e);
+				}
+			};
+			try {
+				if (!taskWork.offer(work, timeout, TimeUnit.MILLISECONDS)) {
+					throw new SAXException("The chunk has not been taken in time, the parse has been given up on");
+				}
+			} catch (InterruptedException e) {
+				// The parse has been cancelled
+				Thread.currentThread().interrupt();
+				throw new SAXException("Interrupted while handing over a chunk", e);
+			}
+		};
+	}
+
+	/**
+	 * Detects the content type, unless it is trusted, and parses the content into the given handler.
+	 * @param content The content as an Inputstream, closed when done
+	 * @param mimeType The trusted MIME type of the content, or null to detect it
+	 * @param handler The handler receiving the extracted text, not used with a collector
+	 * @param metadata The metadata to fill
+	 * @param collector The collector to parse the document and its embedded documents into, or null to parse into the handler
+	 * @return Whether parsing stopped because the write limit of the handler was reached
+	 * @throws FilteredMimeTypeException If the content type is denied or not allowed, nothing has been parsed then
+	 */
+	private boolean parse(InputStream content, String mimeType, WriteOutContentHandler handler, Metadata metadata, EmbeddedDocumentCollector collector) throws TikaException, IOException {
+		return this.parse(content, mimeType, handler, metadata, collector, false, null);
+	}
+
+	/**
+	 * Detects the content type, unless it is trusted, and parses the content into the given handler.
+	 * @param content The content as an Inputstream, closed when done
+	 * @param mimeType The trusted MIME type of the content, or null to detect it
+	 * @param handler The handler receiving the extracted text, not used with a collector
+	 * @param metadata The metadata to fill
+	 * @param collector The collector to parse the document and its embedded documents into, or null to parse into the handler
+	 * @param ocr Whether to run OCR on images and on the rendered pages of PDFs, instead of extracting their text layer
+	 * @param taskWork The queue a parse on the parse executor hands work for the calling thread over with, or null
+	 * @return Whether parsing stopped because the write limit of the handler was reached
+	 * @throws FilteredMimeTypeException If the content type is denied or not allowed, nothing has been parsed then
+	 */
+	private boolean parse(InputStream content, String mimeType, WriteOutContentHandler handler, Metadata metadata, EmbeddedDocumentCollector collector,
+			boolean ocr, BlockingQueue<Runnable> taskWork) throws TikaException, IOException {
+		final MediaType trustedType = mimeType == null ? null : MediaType.parse(mimeType);
+		final TemporaryResources tmp = new TemporaryResources();
+		final ExtractionMetrics metrics = this.metrics;
+		Parser parser = null;
+		final AtomicBoolean cancelled = new AtomicBoolean(false);
+		MediaType type = null;
+		long detectNanos = 0;
+		long parseStart = 0;
+		boolean parsing = false;
+		ByteCountingInputStream counting = null;
+		TextLengthCounter characters = null;
+		try {
+			if (trustedType != null) {
+				type = trustedType;
+			} else {
+				final long detectStart = System.nanoTime();
+				type = this.detector.detect(content, metadata);
+				detectNanos = System.nanoTime() - detectStart;
+			}
+			if (!this.isAcceptedMimeType(type)) {
+				throw new FilteredMimeTypeException("MIME type " + type + " is filtered");
+			}
+			metadata.set(Metadata.CONTENT_TYPE, type.toString());
+
+			try {
+				parser = this.parserPool.borrow();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new TikaException("Interrupted while waiting for a pooled parser", e);
+			}
+			ParseContext context = new ParseContext();
+			// The ForkParser serializes the context to the child JVM, which uses its own parser for embedded documents
+			if (!(parser instanceof ForkParser)) {
+				context.set(Parser.class, parser);
+			}
+			if (ocr) {
+				context.set(TesseractOCRConfig.class, this.ocrConfig);
+				final PDFParserConfig pdfConfig = new PDFParserConfig();
+				// The rendered pages hold the text layer as well, if there is any
+				pdfConfig.setOcrStrategy(PDFParserConfig.OCR_STRATEGY.OCR_ONLY);
+				context.set(PDFParserConfig.class, pdfConfig);
+			}
+
+			Parser target = parser;
+			InputStream in = content;
+			// Spooled documents are left as they are, so the parser still gets the file
+			if (metrics != null && !(content instanceof TikaInputStream && ((TikaInputStream) content).hasFile())) {
+				in = counting = new ByteCountingInputStream(content);
+			}
+			// Routes are resolved without the OCR configuration, which changes the parser of images
+			final List<Parser> route = trustedType != null && !ocr ? this.parserPool.resolve(parser, trustedType) : Collections.emptyList();
+			if (!route.isEmpty()) {
+				// Skip the auto-detecting parser, but leave the same traces as its delegation would
+				for (Parser p : route) {
+					metadata.add("X-Parsed-By",
+							(p instanceof ParserDecorator ? ((ParserDecorator) p).getWrappedParser() : p).getClass().getName());
+				}
+				target = route.get(route.size() - 1);
+				in = TikaInputStream.get(in, tmp);
+			}
+			parseStart = System.nanoTime();
+			parsing = true;
+			if (collector != null) {
+				this.runParser(collector.wrap(target, parser), in, collector, metadata, context, taskWork, cancelled);
+			} else {
+				characters = metrics != null ? new TextLengthCounter(handler) : null;
+				this.runParser(target, in, new BodyContentHandler(characters != null ? characters : handler), metadata, context, taskWork, cancelled);
+			}
+			return false;
+		} catch (SAXException e) {
+			if (collector != null && collector.isCharacterLimitExceeded()) {
+				// Stopped by the collector, reported by the caller
+				return false;
+			}
+			if (handler == null || !handler.isWriteLimitReached(e)) {
+				// This should never happen with BodyContentHandler...
+				throw new TikaException("Unexpected SAX processing failure", e);
+			}
+			return true;
+		} finally {
+			if (cancelled.get()) {
+				// The parser may still be busy with the cancelled document
+				this.parserPool.discard(parser);
+			} else {
+				this.parserPool.release(parser);
+			}
+			if (metrics != null && parsing) {
+				// Failed and timed out documents took their time as well
+				metrics.record(type.getBaseType().toString(), counting != null ? counting.getByteCount() : ((TikaInputStream) content).getLength(),
+						characters != null ? characters.getCharacters() : getCharacters(collector), detectNanos, System.nanoTime() - parseStart);
+			}
+			tmp.dispose();
+			content.close();
+		}
+	}
+
+	/**
+	 * @param collector The collector a document has been parsed into, or null
+	 * @return The number of characters extracted from the document and its embedded documents
+	 */
+	private static long getCharacters(EmbeddedDocumentCollector collector) {
+		return collector == null ? 0 : collector.getCharacters();
+	}
+
+	/**
+	 * @param type The MIME type of a document
+	 * @return Whether the type passes {@code ALLOWED_MIME_TYPES} and {@code DENIED_MIME_TYPES}
+	 */
+	private boolean isAcceptedMimeType(MediaType type) {
+		final String baseType = type.getBaseType().toString();
+		return (this.allowedMimeTypes.isEmpty() || matchesMimeType(this.allowedMimeTypes, baseType))
+				&& !matchesMimeType(this.deniedMimeTypes, baseType);
+	}
+
+	private static boolean matchesMimeType(List<String> patterns, String baseType) {
+		for (String pattern : patterns) {
+			if (pattern.equals(baseType) || pattern.equals("*/*")
+					|| (pattern.endsWith("/*") && baseType.startsWith(pattern.substring(0, pattern.length() - 1)))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Runs the parser, on the parse executor if a {@code PARSE_TIMEOUT} is configured.
+	 * @param taskWork The queue the parse hands work for the calling thread over with, which runs it while waiting for the parse, or null
+	 * @param cancelled Set if the parse has been given up on while it may still be running, its parser must not be reused then
+	 * @throws ParseTimeoutException If the parser did not finish in time, it is interrupted then
+	 */
+	private void runParser(Parser parser, InputStream content, ContentHandler handler, Metadata metadata, ParseContext context,
+			BlockingQueue<Runnable> taskWork, AtomicBoolean cancelled) throws IOException, SAXException, TikaException {
+		final long timeout = this.parseTimeoutMillis;
+		if (timeout <= 0) {
+			parser.parse(content, handler, metadata, context);
+			return;
+		}
+		final Future<?> future;
+		try {
+			future = this.parseExecutor.submit(() -> {
+				try {
+					parser.parse(content, handler, metadata, context);
+				} finally {
+					if (taskWork != null) {
+						// Wakes up the waiting thread, which has given up on the parse if it does not take it in time
+						taskWork.offer(PARSE_DONE, timeout, TimeUnit.MILLISECONDS);
+					}
+				}
+				return null;
+			});
+		} catch (RejectedExecutionException e) {
+			throw new TikaException("No parse thread available, too many cancelled parses are still running", e);
+		}
+		try {
+			if (taskWork == null) {
+				future.get(timeout, TimeUnit.MILLISECONDS);
+			} else {
+				runTaskWork(taskWork, timeout);
+				future.get();
+			}
+		} catch (RuntimeException e) {
+			// The work handed over failed, the parse is given up on
+			cancelled.set(true);
+			future.cancel(true);
+			throw e;
+		} catch (TimeoutException e) {
+			cancelled.set(true);
+			future.cancel(true);
+			throw new ParseTimeoutException("Parsing did not finish within " + timeout + " ms");
+		} catch (InterruptedException e) {
+			cancelled.set(true);
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new TikaException("Interrupted while waiting for the parser", e);
+		} catch (ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof SAXException) {
+				throw (SAXException) cause;
+			} else if (cause instanceof TikaException) {
+				throw (TikaException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new TikaException("Parsing failed", cause);
+		}
+	}
+
+	/**
+	 * Runs the work handed over by a parse on the parse executor, until the parse is done.
+	 * @param taskWork The queue the parse hands the work over with
+	 * @param timeout The maximum time in milliseconds to wait for the parse
+	 * @throws TimeoutException If the parse was not done in time
+	 */
+	private static void runTaskWork(BlockingQueue<Runnable> taskWork, long timeout) throws InterruptedException, TimeoutException {
+		final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		while (true) {
+			final long remaining = deadline - System.nanoTime();
+			final Runnable work = remaining > 0 ? taskWork.poll(remaining, TimeUnit.NANOSECONDS) : null;
+			if (work == null) {
+				throw new TimeoutException();
+			} else if (work == PARSE_DONE) {
+				return;
+			}
+			work.run();
+		}
+	}
+
+	/**
+	 * @param writer The writer to write the content to
+	 * @param extractStrategy The extractStrategy based on {@code EXTRACT_STRATEGY}
+	 * @param prefixLength The number of leading characters of plain text to keep aside for language detection
+	 * @return The handler writing the content in the configured {@code CONTENT_FORMAT}, a {@code StructuredContentHandler} unless it is plain text
+	 */
+	private ContentHandler newContentHandler(Writer writer, String extractStrategy, int prefixLength) {
+		// The write limit only stops the text, markup would still be written without any content
+		final String format = extractStrategy.equals(ExtractTikaContent.STRATEGY_META) ? ExtractTikaContent.CONTENT_TEXT : this.contentFormat;
+		switch (format) {
+		case ExtractTikaContent.CONTENT_XHTML:
+			return new XhtmlContentHandler(writer, prefixLength);
+		case ExtractTikaContent.CONTENT_MARKDOWN:
+			return new MarkdownContentHandler(writer, prefixLength);
+		default:
+			return new ToTextContentHandler(writer);
+		}
+	}
+
+	/**
+	 * If we want metadata only, we have to set the write limit to 0. If we want content extraction as well
+	 * the limit is {@code MAX_EXTRACTED_CHARS}, where '-1' disables any write limitations at all.
+	 * @param extractStrategy The extractStrategy based on {@code EXTRACT_STRATEGY}
+	 * @return The write limit for the content handler
+	 */
+	private int getWriteLimit(String extractStrategy) {
+		return extractStrategy.equals(ExtractTikaContent.STRATEGY_META) ? 0 : this.maxExtractedChars;
+	}
+
+	/**
+	 * Detects the language on the leading part of the text, limited by {@code LANG_DETECT_LENGTH}.
+	 * @param text The extracted text
+	 * @param langDetect Whether language detection is enabled at all
+	 * @return The detected language or 'other' if not enabled or there is no text
+	 */
+	private LanguageResult detectLanguage(CharSequence text, boolean langDetect) {
+		if(!langDetect || StringUtils.isBlank(text)) {
+			return new LanguageResult("other", LanguageConfidence.NONE, 0);
+		}
+		final Queue<LanguageDetector> detectors = this.langDetectors;
+		LanguageDetector detector = detectors.poll();
+		if (detector == null) {
+			// All loaded detectors are busy with other documents
+			try {
+				detector = loadLanguageDetector(this.langDetectLanguages);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		try {
+			return detector.detect(text.length() > this.langDetectLength ? text.subSequence(0, this.langDetectLength) : text);
+		} finally {
+			detectors.offer(detector);
+		}
+	}
+
+	/**
+	 * @param metadata The metadata of a document
+	 * @return The values of the keys selected by {@code METADATA_ATTRIBUTES}, by attribute name
+	 */
+	private Map<String, String> getMetadataAttributes(Metadata metadata) {
+		final MetadataKeySelector selector = this.metadataAttributes;
+		if (selector == null) {
+			return Collections.emptyMap();
+		}
+		final Map<String, String> attributes = new HashMap<>();
+		for (String name : metadata.names()) {
+			if (selector.isSelected(name)) {
+				attributes.put(ExtractTikaContent.ATTRIBUTE_METADATA_PREFIX + ExtractTikaContent.normalizeFieldName(name, false), String.join(", ", metadata.getValues(name)));
+			}
+		}
+		return attributes;
+	}
+}
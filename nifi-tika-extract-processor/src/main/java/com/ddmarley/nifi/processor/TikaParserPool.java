@@ -0,0 +1,207 @@
+package com.ddmarley.nifi.processor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.nifi.logging.ComponentLog;
+import org.apache.tika.config.TikaConfig;
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.mime.MediaType;
+import org.apache.tika.mime.MediaTypeRegistry;
+import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.parser.CompositeParser;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.Parser;
+
+/**
+ * Hands out Tika parsers to the concurrent tasks of a processor.<br>
+ * With a size of 0 one {@code AutoDetectParser} built from the default {@code TikaConfig} is shared by all tasks,
+ * which is fine for the thread-safe parsers Tika ships with. With a positive size the pool holds that many
+ * independent parsers (each with its own {@code TikaConfig}) and every document borrows one exclusively.
+ * A parser that is thread-safe by itself, like the {@code ForkParser}, can be shared as well.<br>
+ * For documents whose MIME type is already known the pool resolves the concrete parser an auto-detecting parser would
+ * delegate to, and caches that route per parser and type.<br>
+ * Parsers stuck in a timed out parse are discarded and replaced by new ones. A replacement that can't be built is
+ * logged and built again by the next borrower instead.
+ */
+class TikaParserPool implements Closeable {
+
+	// MIME types come from FlowFile attributes, so don't let arbitrary values grow the route cache without bound
+	private static final int MAX_ROUTES_PER_PARSER = 1024;
+
+	private final ComponentLog logger;
+	private volatile Parser shared;
+	// Only parsers built by the pool itself are replaced, a given shared parser deals with its own failures
+	private final boolean replaceable;
+	private final BlockingQueue<Parser> pool;
+	// Discarded pooled parsers whose replacement could not be built yet
+	private final AtomicInteger missing = new AtomicInteger();
+	private final ConcurrentMap<Parser, ConcurrentMap<MediaType, List<Parser>>> routes = new ConcurrentHashMap<>();
+
+	TikaParserPool(int size, ComponentLog logger) throws TikaException, IOException {
+		this.logger = logger;
+		this.replaceable = true;
+		if (size <= 0) {
+			this.shared = new AutoDetectParser(TikaConfig.getDefaultConfig());
+			this.pool = null;
+		} else {
+			this.shared = null;
+			this.pool = new ArrayBlockingQueue<>(size);
+			for (int i = 0; i < size; i++) {
+				this.pool.add(newParser());
+			}
+		}
+	}
+
+	TikaParserPool(Parser shared, ComponentLog logger) {
+		this.logger = logger;
+		this.replaceable = false;
+		this.shared = shared;
+		this.pool = null;
+	}
+
+	private static Parser newParser() throws TikaException, IOException {
+		// A fresh config instantiates fresh parsers, so they never share state with the others
+		return new AutoDetectParser(new TikaConfig());
+	}
+
+	/**
+	 * Borrows a parser, blocking until one is available if the pool is bounded.
+	 * @return The parser to use for exactly one document
+	 * @throws TikaException If a parser had to be built, and that failed
+	 */
+	Parser borrow() throws InterruptedException, TikaException, IOException {
+		if (pool == null) {
+			return shared;
+		}
+		Parser parser = pool.poll();
+		while (parser == null) {
+			if (missing.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+				try {
+					return newParser();
+				} catch (TikaException | IOException | RuntimeException e) {
+					missing.incrementAndGet();
+					throw e;
+				}
+			}
+			// Wakes up now and then, as a missing parser does not arrive through the queue
+			parser = pool.poll(1, TimeUnit.SECONDS);
+		}
+		return parser;
+	}
+
+	/**
+	 * Gives a parser obtained by {@link #borrow()} back to the pool.
+	 * @param parser The borrowed parser
+	 */
+	void release(Parser parser) {
+		if (pool != null && parser != null) {
+			pool.offer(parser);
+		}
+	}
+
+	/**
+	 * Replaces a borrowed parser that must not be used again, e.g. because it is still stuck in a timed out parse.
+	 * Never fails, so it can't mask the failure of the parse.
+	 * @param parser The borrowed parser
+	 */
+	void discard(Parser parser) {
+		if (parser == null || !replaceable) {
+			return;
+		}
+		routes.remove(parser);
+		if (pool == null) {
+			synchronized (this) {
+				// Concurrent timeouts of the shared parser only replace it once
+				if (shared != parser) {
+					return;
+				}
+				try {
+					shared = newParser();
+				} catch (TikaException | IOException | RuntimeException e) {
+					logger.warn("Could not replace the shared parser after a timed out parse, keeping it: {}", new Object[] { e.getMessage() }, e);
+				}
+			}
+			return;
+		}
+		try {
+			pool.offer(newParser());
+		} catch (TikaException | IOException | RuntimeException e) {
+			missing.incrementAndGet();
+			logger.warn("Could not replace a pooled parser after a timed out parse, the next borrower builds it: {}", new Object[] { e.getMessage() }, e);
+		}
+	}
+
+	/**
+	 * Resolves the chain of parsers a composite parser, like the {@code AutoDetectParser}, would pass a document of the
+	 * given type through, without detecting anything. Like the composite parser itself it falls back to the supertypes
+	 * of the type, e.g. from 'application/vnd.ms-excel' to 'application/x-tika-msoffice'.
+	 * @param parser A borrowed parser
+	 * @param type The MIME type of the document
+	 * @return The nested parsers down to the concrete one, which is the last element, or an empty list if the type can't be resolved
+	 */
+	List<Parser> resolve(Parser parser, MediaType type) {
+		if (!(parser instanceof CompositeParser)) {
+			return Collections.emptyList();
+		}
+		final ConcurrentMap<MediaType, List<Parser>> parserRoutes = routes.computeIfAbsent(parser, p -> new ConcurrentHashMap<>());
+		final MediaType baseType = type.getBaseType();
+		List<Parser> route = parserRoutes.get(baseType);
+		if (route == null) {
+			route = lookup((CompositeParser) parser, baseType);
+			if (parserRoutes.size() < MAX_ROUTES_PER_PARSER) {
+				parserRoutes.putIfAbsent(baseType, route);
+			}
+		}
+		return route;
+	}
+
+	private static List<Parser> lookup(CompositeParser composite, MediaType type) {
+		final List<Parser> route = new ArrayList<>();
+		CompositeParser current = composite;
+		while (current != null) {
+			final Parser next = findParser(current, type);
+			if (next == null) {
+				return Collections.emptyList();
+			}
+			route.add(next);
+			current = next instanceof CompositeParser ? (CompositeParser) next : null;
+		}
+		return Collections.unmodifiableList(route);
+	}
+
+	private static Parser findParser(CompositeParser composite, MediaType type) {
+		final MediaTypeRegistry registry = composite.getMediaTypeRegistry();
+		final Map<MediaType, Parser> parsers = composite.getParsers(new ParseContext());
+		MediaType current = registry.normalize(type);
+		while (current != null) {
+			final Parser parser = parsers.get(current);
+			if (parser != null) {
+				return parser;
+			}
+			current = registry.getSupertype(current);
+		}
+		return null;
+	}
+
+	@Override
+	public void close() {
+		if (shared instanceof Closeable) {
+			try {
+				((Closeable) shared).close();
+			} catch (IOException e) {
+				// Nothing left to clean up
+			}
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package com.ddmarley.nifi.processor;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.tika.metadata.Metadata;
+
+/**
+ * Helper Class storing the Tika results in one object.
+ */
+public class TikaResults {
+	private String content;
+	private String language;
+	private Metadata metadata;
+	private boolean truncated;
+	private Map<String, String> attributes;
+	private List<TikaResults> embedded;
+
+	public TikaResults(String content, String language, Metadata metadata, boolean truncated) {
+		this(content, language, metadata, truncated, Collections.emptyMap(), Collections.emptyList());
+	}
+
+	public TikaResults(String content, String language, Metadata metadata, boolean truncated, Map<String, String> attributes, List<TikaResults> embedded) {
+		this.content = content;
+		this.language = language;
+		this.metadata = metadata;
+		this.truncated = truncated;
+		this.attributes = attributes;
+		this.embedded = embedded;
+	}
+
+	public String getContent() {
+		return content;
+	}
+	
+	public String getLanguage() {
+		return language;
+	}
+
+	public Metadata getMetadata() {
+		return metadata;
+	}
+
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+	/**
+	 * @return Additional FlowFile attributes describing the document
+	 */
+	public Map<String, String> getAttributes() {
+		return attributes;
+	}
+
+	/**
+	 * @return The results of the embedded documents, if extracted on their own
+	 */
+	public List<TikaResults> getEmbedded() {
+		return embedded;
+	}
+}
@@ -0,0 +1,101 @@
+package com.ddmarley.nifi.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import org.xml.sax.Attributes;
+
+/**
+ * Writes the body of the document as XHTML fragment, e.g. {@code <h1>Title</h1><p>Text</p>}, without namespaces.
+ */
+class XhtmlContentHandler extends StructuredContentHandler {
+
+	// The start tag is closed with the first child, so empty elements are written as '<br/>'
+	private boolean inStartTag = false;
+
+	/**
+	 * @param writer The writer to write the XHTML to, not closed
+	 * @param prefixLength The number of leading characters of plain text to keep for {@link #getPrefix()}
+	 */
+	XhtmlContentHandler(Writer writer, int prefixLength) {
+		super(writer, prefixLength);
+	}
+
+	@Override
+	protected void start(String name, Attributes atts) throws IOException {
+		closeStartTag();
+		write('<');
+		write(name);
+		for (int i = 0; i < atts.getLength(); i++) {
+			write(' ');
+			write(atts.getLocalName(i).isEmpty() ? atts.getQName(i) : atts.getLocalName(i));
+			write("=\"");
+			escape(atts.getValue(i), true);
+			write('"');
+		}
+		inStartTag = true;
+	}
+
+	@Override
+	protected void end(String name) throws IOException {
+		if (inStartTag) {
+			write("/>");
+			inStartTag = false;
+		} else {
+			write("</");
+			write(name);
+			write('>');
+		}
+	}
+
+	@Override
+	protected void text(char[] ch, int start, int length) throws IOException {
+		closeStartTag();
+		// Write the runs between characters to escape at once
+		int run = start;
+		for (int i = start; i < start + length; i++) {
+			if (ch[i] == '&' || ch[i] == '<' || ch[i] == '>') {
+				write(ch, run, i - run);
+				escape(ch[i], false);
+				run = i + 1;
+			}
+		}
+		write(ch, run, start + length - run);
+	}
+
+	private void closeStartTag() throws IOException {
+		if (inStartTag) {
+			write('>');
+			inStartTag = false;
+		}
+	}
+
+	private void escape(String s, boolean attribute) throws IOException {
+		for (int i = 0; i < s.length(); i++) {
+			escape(s.charAt(i), attribute);
+		}
+	}
+
+	private void escape(char c, boolean attribute) throws IOException {
+		switch (c) {
+		case '&':
+			write("&amp;");
+			break;
+		case '<':
+			write("&lt;");
+			break;
+		case '>':
+			write("&gt;");
+			break;
+		case '"':
+			if (attribute) {
+				write("&quot;");
+			} else {
+				write(c);
+			}
+			break;
+		default:
+			write(c);
+		}
+	}
+}
@@ -1,19 +1,54 @@
 package com.ddmarley.nifi.processor;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
 
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.util.MockFlowFile;
 import org.apache.nifi.util.TestRunner;
 import org.apache.nifi.util.TestRunners;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.tika.parser.Parser;
+import org.apache.tika.parser.ocr.TesseractOCRConfig;
+import org.apache.tika.parser.ocr.TesseractOCRParser;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 public class ExtractTikaContentTest {
 
 	private TestRunner runner;
@@ -176,6 +211,30 @@ public class ExtractTikaContentTest {
 				"{\"woop_woop\":\"\\nTest document… \\n\\n\\n\",\"date\":\"2018-09-06T13:51:27Z\",\"pdf_unmappedunicodecharsperpage\":\"0\",\"pdf_pdfversion\":\"1.5\",\"xmp_creatortool\":\"Microsoft® Word 2013\",\"pdf_hasxfa\":\"false\",\"access_permission_modify_annotations\":\"true\",\"access_permission_can_print_degraded\":\"true\",\"dc_creator\":\"Johannes Brucher\",\"language\":\"de-DE\",\"dcterms_created\":\"2018-09-06T13:51:27Z\",\"last_modified\":\"2018-09-06T13:51:27Z\",\"dcterms_modified\":\"2018-09-06T13:51:27Z\",\"dc_format\":\"application/pdf; version=1.5\",\"last_save_date\":\"2018-09-06T13:51:27Z\",\"pdf_docinfo_creator_tool\":\"Microsoft® Word 2013\",\"access_permission_fill_in_form\":\"true\",\"pdf_docinfo_modified\":\"2018-09-06T13:51:27Z\",\"meta_save_date\":\"2018-09-06T13:51:27Z\",\"pdf_encrypted\":\"false\",\"modified\":\"2018-09-06T13:51:27Z\",\"pdf_hasmarkedcontent\":\"true\",\"content_type\":\"application/pdf\",\"pdf_docinfo_creator\":\"Johannes Brucher\",\"x_parsed_by\":[\"org.apache.tika.parser.DefaultParser\",\"org.apache.tika.parser.pdf.PDFParser\"],\"creator\":\"Johannes Brucher\",\"dc_language\":\"de-DE\",\"meta_author\":\"Johannes Brucher\",\"meta_creation_date\":\"2018-09-06T13:51:27Z\",\"created\":\"2018-09-06T13:51:27Z\",\"access_permission_extract_for_accessibility\":\"true\",\"access_permission_assemble_document\":\"true\",\"xmptpg_npages\":\"1\",\"creation_date\":\"2018-09-06T13:51:27Z\",\"pdf_hasxmp\":\"false\",\"pdf_charsperpage\":\"15\",\"access_permission_extract_content\":\"true\",\"access_permission_can_print\":\"true\",\"author\":\"Johannes Brucher\",\"producer\":\"Microsoft® Word 2013\",\"access_permission_can_modify\":\"true\",\"pdf_docinfo_producer\":\"Microsoft® Word 2013\",\"pdf_docinfo_created\":\"2018-09-06T13:51:27Z\"}"));
 	}
 	
+	@Test
+	public void testChunkedContentInAtrributeRemoveSource() throws IOException {
+
+		this.runner.setProperty(ExtractTikaContent.EXTRACT_STRATEGY, ExtractTikaContent.STRATEGY_CONTENT);
+		this.runner.setProperty(ExtractTikaContent.CONTENT_LOCATION, ExtractTikaContent.FLOW_FILE_ATTRIBUTE);
+		this.runner.setProperty(ExtractTikaContent.ATTRIBUTE_NAME, "foobar");
+		this.runner.setProperty(ExtractTikaContent.REMOVE_SOURCE_ATTRIBUTE, "true");
+
+		byte[] pdf = IOUtils.toByteArray(this.getClass().getResourceAsStream("/test_document.pdf"));
+		Map<String,String> att = new HashMap<>();
+		att.put("foobar", new String(Base64.encodeBase64Chunked(pdf), StandardCharsets.US_ASCII));
+		this.runner.enqueue("", att);
+		att.put("foobar", Base64.encodeBase64URLSafeString(pdf));
+		this.runner.enqueue("", att);
+		this.runner.run(2);
+
+		this.runner.assertQueueEmpty();
+		this.runner.assertTransferCount(ExtractTikaContent.REL_SUCCESS, 2);
+		this.runner.getFlowFilesForRelationship(ExtractTikaContent.REL_SUCCESS).forEach(f -> {
+			f.assertContentEquals("{\"content\":\"\\nTest document… \\n\\n\\n\"}");
+			f.assertAttributeNotExists("foobar");
+		});
+	}
+
 	@Test
 	public void testNormalContentWithLanDetect() throws IOException {
 		
@@ -224,8 +283,700 @@ public class ExtractTikaContentTest {
 			+ "\\n\\nanstrengender körperlicher Betätigung, außer um Vorteile daraus zu ziehen? \\n\\n\\n\","
 			+ "\"content_language\":\"de\",\"date\":\"2018-11-28T14:13:51Z\",\"pdf_unmappedunicodecharsperpage\":\"0\",\"pdf_pdfversion\":\"1.5\",\"xmp_creatortool\":\"Microsoft® Word 2013\",\"pdf_hasxfa\":\"false\",\"access_permission_modify_annotations\":\"true\",\"access_permission_can_print_degraded\":\"true\",\"dc_creator\":\"Johannes Brucher\",\"language\":\"de-DE\",\"dcterms_created\":\"2018-11-28T14:13:51Z\",\"last_modified\":\"2018-11-28T14:13:51Z\",\"dcterms_modified\":\"2018-11-28T14:13:51Z\",\"dc_format\":\"application/pdf; version=1.5\",\"last_save_date\":\"2018-11-28T14:13:51Z\",\"pdf_docinfo_creator_tool\":\"Microsoft® Word 2013\",\"access_permission_fill_in_form\":\"true\",\"pdf_docinfo_modified\":\"2018-11-28T14:13:51Z\",\"meta_save_date\":\"2018-11-28T14:13:51Z\",\"pdf_encrypted\":\"false\",\"modified\":\"2018-11-28T14:13:51Z\",\"pdf_hasmarkedcontent\":\"true\",\"content_type\":\"application/pdf\",\"pdf_docinfo_creator\":\"Johannes Brucher\",\"x_parsed_by\":[\"org.apache.tika.parser.DefaultParser\",\"org.apache.tika.parser.pdf.PDFParser\"],\"creator\":\"Johannes Brucher\",\"dc_language\":\"de-DE\",\"meta_author\":\"Johannes Brucher\",\"meta_creation_date\":\"2018-11-28T14:13:51Z\",\"created\":\"2018-11-28T14:13:51Z\",\"access_permission_extract_for_accessibility\":\"true\",\"access_permission_assemble_document\":\"true\",\"xmptpg_npages\":\"1\",\"creation_date\":\"2018-11-28T14:13:51Z\",\"pdf_hasxmp\":\"false\",\"pdf_charsperpage\":\"944\",\"access_permission_extract_content\":\"true\",\"access_permission_can_print\":\"true\",\"author\":\"Johannes Brucher\",\"producer\":\"Microsoft® Word 2013\",\"access_permission_can_modify\":\"true\",\"pdf_docinfo_producer\":\"Microsoft® Word 2013\",\"pdf_docinfo_created\":\"2018-11-28T14:13:51Z\"}"));
 	}
-	
-	
+
+	@Test
+	public void testLanDetectRestrictedLanguages() {
+
+		this.runner.setProperty(ExtractTikaContent.EXTRACT_STRATEGY, ExtractTikaContent.STRATEGY_CONTENT);
+		this.runner.setProperty(ExtractTikaContent.EXTRACT_LANG, "true");
+		this.runner.setProperty(ExtractTikaContent.LANG_DETECT_LANGUAGES, "en, fr");
+		this.runner.setProperty(ExtractTikaContent.LANG_DETECT_LENGTH, "200");
+
+		this.runner.enqueue(this.getClass().getResourceAsStream("/test_document_en.pdf"));
+		this.runner.enqueue(this.getClass().getResourceAsStream("/test_document_de.pdf"));
+		this.runner.run(2);
+
+		this.runner.assertQueueEmpty();
+		this.runner.assertTransferCount(ExtractTikaContent.REL_SUCCESS, 2);
+
+		String en = new String(this.runner.getContentAsByteArray(this.runner.getFlowFilesForRelationship(ExtractTikaContent.REL_SUCCESS).get(0)), StandardCharsets.UTF_8);
+		String de = new String(this.runner.getContentAsByteArray(this.runner.getFlowFilesForRelationship(ExtractTikaContent.REL_SUCCESS).get(1)), StandardCharsets.UTF_8);
+		assertTrue(en.contains("\"content_language\":\"en\""));
+		// German is not among the loaded profiles, so it can't be detected
+		assertFalse(de.contains("\"content_language\":\"de\""));
+	}
+
+	@Test
+	public void testLanDetectParallelBatch() {
+
+		this.runner.setProperty(ExtractTikaContent.EXTRACT_STRATEGY, ExtractTikaContent.STRATEGY_CONTENT);
+		this.runner.setProperty(ExtractTikaContent.EXTRACT_LANG, "true");
+		this.runner.setProperty(ExtractTikaContent.BATCH_SIZE, "10");
+		this.runner.setProperty(ExtractTikaContent.BATCH_PARALLELISM, "3");
+
+		// Detected at the same time, each with a detector of its own
+		for (int i = 0; i < 3; i++) {
+			this.runner.enqueue(this.getClass().getResourceAsStream("/test_document_en.pdf"));
+			this.runner.enqueue(this.getClass().getResourceAsStream("/test_document_de.pdf"));
+		}
+		this.runner.run();
+
+		this.runner.assertTransferCount(ExtractTikaContent.REL_SUCCESS, 6);
+		for (int i = 0; i < 6; i++) {
+			final String json = new String(this.runner.getContentAsByteArray(this.runner.getFlowFilesForRelationship(ExtractTikaContent.REL_SUCCESS).get(i)), StandardCharsets.UTF_8);
+			assertTrue(json.contains(i % 2 == 0 ? "\"content_language\":\"en\"" : "\"content_language\":\"de\""));
+		}
+	}
+
+	@Test
+	public void testStreamingEqualsBuffered() throws IOException {
+
+		this.runner.setProperty(ExtractTikaContent.EXTRACT_STRATEGY, ExtractTikaContent.STRATEGY_ALL);
+		this.runner.setProperty(ExtractTikaContent.EXTRACT_LANG, "true");
+		this.runner.setProperty(ExtractTikaContent.CONTENT_FIELDNAME, "woop:woop");
+		this.runner.enqueue(this.getClass().getResourceAsStream("/test_document_de.pdf"));
+		this.runner.run();
+		this.runner.assertTransferCount(ExtractTikaContent.REL_SUCCESS, 1);
+		final byte[] buffered = this.runner.getContentAsByteArray(this.runner.getFlowFilesForRelationship(ExtractTikaContent.REL_SUCCESS).get(0));
+
+		this.runner.clearTransferState();
+		this.runner.setProperty(ExtractTikaContent.OUTPUT_MODE, ExtractTikaContent.OUTPUT_STREAMING);
+		this.runner.enqueue(this.getClass().getResourceAsStream("/test_document_de.pdf"));
+		this.runner.run();
+
+		this.runner.assertQueueEmpty();
+		this.runner.assertTransferCount(ExtractTikaContent.REL_SUCCESS, 1);
+		this.runner.getFlowFilesForRelationship(ExtractTikaContent.REL_SUCCESS).get(0).assertContentEquals(buffered);
+
+		this.runner.clearTransferState();
+		this.runner.setProperty(ExtractTikaContent.CONTENT_LOCATION, ExtractTikaContent.FLOW_FILE_ATTRIBUTE);
+		this.runner.setProperty(ExtractTikaContent.ATTRIBUTE_NAME, "foobar");
+		Map<String,String> att = new HashMap<>();
+		att.put("foobar", Base64.encodeBase64String(IOUtils.toByteArray(this.getClass().getResourceAsStream("/test_document_de.pdf"))));
+		this.runner.enqueue("", att);
+		this.runner.run();
+
+		this.runner.assertTransferCount(ExtractTikaContent.REL_SUCCESS, 1);
+		this.runner.getFlowFilesForRelationship(ExtractTikaContent.REL_SUCCESS).get(0).assertContentEquals(buffered);
+	}
+
+	@Test
+	public void testMaxExtractedChars() {
+
+		this.runner.setProperty(ExtractTikaContent.EXTRACT_STRATEGY, ExtractTikaContent.STRATEGY_CONTENT);
+		this.runner.setProperty(ExtractTikaContent.MAX_EXTRACTED_CHARS, "20");
+		this.runner.enqueue(this.getClass().getResourceAsStream("/test_document_en.pdf"));
+		this.runner.enqueue(this.getClass().getResourceAsStream("/test_document.pdf"));
+		this.runner.run(2);
+
+		this.runner.assertQueueEmpty();
+		this.runner.assertTransferCount(ExtractTikaContent.REL_SUCCESS, 2);
+		this.runner.getFlowFilesForRelationship(ExtractTikaContent.REL_SUCCESS).get(0).assertContentEquals("{\"content\":\"\\nBut I must explain \",\"tika_truncated\":true}");
+		this.runner.getFlowFilesForRelationship(ExtractTikaContent.REL_SUCCESS).get(0).assertAttributeEquals(ExtractTikaContent.ATTRIBUTE_TRUNCATED, "true");
+		this.runner.getFlowFilesForRelationship(ExtractTikaContent.REL_SUCCESS).get(1).assertContentEquals("{\"content\":\"\\nTest document… \\n\\n\\n\"}");
+		this.runner.getFlowFilesForRelationship(ExtractTikaContent.REL_SUCCESS).get(1).assertAttributeEquals(ExtractTikaContent.ATTRIBUTE_TRUNCATED, "false");
+
+		this.runner.clearTransferState();
+		this.runner.setProperty(ExtractTikaContent.OUTPUT_MODE, ExtractTikaContent.OUTPUT_STREAMING);
+		this.runner.enqueue(this.getClass().getResourceAsStream("/test_document_en.pdf"));
+		this.runner.run();
+
+		this.runner.assertTransferCount(ExtractTikaContent.REL_SUCCESS, 1);
+		this.runner.getFlowFilesForRelationship(ExtractTikaContent.REL_SUCCESS).get(0).assertContentEquals("{\"content\":\"\\nBut I must explain \",\"tika_truncated\":true}");
+		this.runner.getFlowFilesForRelationship(ExtractTikaContent.REL_SUCCESS).get(0).assertAttributeEquals(ExtractTikaContent.ATTRIBUTE_TRUNCATED, "true");
+	}
+
+	@Test
+	public void testParseTimeout() throws IOException {
+
+		this.runner.setProperty(ExtractTikaContent.PARSE_TIMEOUT, "1 millis");
+		this.runner.enqueue(this.getClass().getResourceAsStream("/test_document_de.pdf"));
+		this.runner.run();
+
+		this.runner.assertQueueEmpty();
+		this.runner.assertTransferCount(ExtractTikaContent.REL_TIMEOUT, 1);
+
+		// Every timed out parser of the pool is replaced, so the next document still gets one
+		this.runner.clearTransferState();
+		this.runner.setProperty(ExtractTikaContent.PARSER_POOL_SIZE, "1");
+		this.runner.enqueue(this.getClass().getResourceAsStream("/test_document_de.pdf"));
+		this.runner.enqueue(this.getClass().getResourceAsStream("/test_document_de.pdf"));
+		this.runner.run(2);
+
+		this.runner.assertQueueEmpty();
+		this.runner.assertTransferCount(ExtractTikaContent.REL_TIMEOUT, 2);
+
+		this.runner.clearTransferState();
+		this.runner.setProperty(ExtractTikaContent.PARSE_TIMEOUT, "1 min");
+		this.runner.enqueue(this.getClass().getResourceAsStream("/test_document.pdf"));
+		this.runner.run();
+
+		this.runner.assertQueueEmpty();
+		this.runner.assertTransferCount(ExtractTikaContent.REL_SUCCESS, 1);
+		this.runner.getFlowFilesForRelationship(ExtractTikaContent.REL_SUCCESS).get(0).assertContentEquals("{\"content\":\"\\nTest document… \\n\\n\\n\"}");
+
+		// The parse thread reads a temporary copy of larger content, which is gone once the FlowFile is routed
+		this.runner.clearTransferState();
+		final String text = StringUtils.repeat("Some words of a larger document. ", 40000);
+		this.runner.enqueue(text.getBytes(StandardCharsets.UTF_8));
+		this.runner.run();
+
+		this.runner.assertTransferCount(ExtractTikaContent.REL_SUCCESS, 1);
+		assertEquals(text.trim(), new ObjectMapper().readTree(this.runner.getContentAsByteArray(
+				this.runner.getFlowFilesForRelationship(ExtractTikaContent.REL_SUCCESS).get(0))).get("content").asText().trim());
+		try (Stream<Path> files = Files.list(Paths.get(System.getProperty("java.io.tmpdir")))) {
+			assertFalse(files.anyMatch(f -> f.getFileName().toString().startsWith("ExtractTikaContent-")));
+		}
+	}
+
+	@Test
+	public void testFailedHandOverDiscardsParser() throws Exception {
+		final ExtractTikaContent processor = new ExtractTikaContent();
+		this.runner = TestRunners.newTestRunner(processor);
+		this.runner.setProperty(ExtractTikaContent.PARSE_TIMEOUT, "1 min");
+		this.runner.setProperty(ExtractTikaContent.PARSER_POOL_SIZE, "1");
+		// Stays scheduled, so the chunks can be extracted directly
+		this.runner.run(1, false);
+		final Parser pooled = processor.getExtractor().getParserPool().borrow();
+		processor.getExtractor().getParserPool().release(pooled);
+
+		try {
+			processor.getExtractor().extract(this.getClass().getResourceAsStream("/test_document_en.pdf"), null, (text, firstPage, lastPage) -> {
+				throw new ProcessException("Could not write the chunk");
+			}, 100, false, ExtractTikaContent.STRATEGY_CONTENT, false);
+			fail("The failed chunk must fail the extraction");
+		} catch (ProcessException e) {
+			assertEquals("Could not write the chunk", e.getMessage());
+		}
+
+		// The cancelled parse may still be running, so its parser is replaced instead of handed out again
+		final Parser replaced = processor.getExtractor().getParserPool().borrow();
+		processor.getExtractor().getParserPool().release(replaced);
+		assertNotSame(pooled, replaced);
+
+		this.runner.enqueue(this.getClass().getResourceAsStream("/test_document.pdf"));
+		this.runner.run(1, true, false);
+		this.runner.assertTransferCount(ExtractTikaContent.REL_SUCCESS, 1);
+		this.runner.getFlowFilesForRelationship(ExtractTikaContent.REL_SUCCESS).get(0).assertContentEquals("{\"content\":\"\\nTest document… \\n\\n\\n\"}");
+	}
+
+	@Test
+	public void testForkedJvmIsolation() {
+
+		this.runner.setProperty(ExtractTikaContent.PARSE_ISOLATION, ExtractTikaContent.ISOLATION_FORK);
+		this.runner.setProperty(ExtractTikaContent.PARSER_POOL_SIZE, "1");
+		this.runner.setProperty(ExtractTikaContent.FORK_JAVA_COMMAND, System.getProperty("java.home") + "/bin/java -Xmx256m");
+		this.runner.enqueue(this.getClass().getResourceAsStream("/test_document.pdf"));
+		this.runner.run();
+
+		this.runner.assertQueueEmpty();
+		this.runner.assertTransferCount(ExtractTikaContent.REL_SUCCESS, 1);
+		this.runner.getFlowFilesForRelationship(ExtractTikaContent.REL_SUCCESS).get(0).assertContentEquals("{\"content\":\"\\nTest document… \\n\\n\\n\"}");
+	}
+
+	@Test
+	public void testStreamingRequiresContentDest() {
+		this.runner.setProperty(ExtractTikaContent.OUTPUT_MODE, ExtractTikaContent.OUTPUT_STREAMING);
+		this.runner.setProperty(ExtractTikaContent.CONTENT_DEST, ExtractTikaContent.FLOW_FILE_ATTRIBUTE);
+		this.runner.assertNotValid();
+	}
+
+	@Test
+	public void testStreamingRejectsParseTimeout() {
+		this.runner.setProperty(ExtractTikaContent.OUTPUT_MODE, ExtractTikaContent.OUTPUT_STREAMING);
+		this.runner.setProperty(ExtractTikaContent.PARSE_TIMEOUT, "1 min");
+		this.runner.assertNotValid();
+
+		this.runner.setProperty(ExtractTikaContent.PARSE_TIMEOUT, "0 sec");
+		this.runner.assertValid();
+	}
+
+	@Test
+	public void testExtractionMetrics() throws IOException {
+		final byte[] pdf = IOUtils.toByteArray(this.getClass().getResourceAsStream("/test_document_en.pdf"));
+		this.runner.setProperty(ExtractTikaContent.METRICS, "true");
+		this.runner.setProperty(ExtractTikaContent.METRICS_INTERVAL, "0 sec");
+		this.runner.setProperty(ExtractTikaContent.BATCH_SIZE, "3");
+		this.runner.enqueue(pdf);
+		this.runner.enqueue(pdf);
+		this.runner.enqueue("plain text");
+		this.runner.run();
+
+		this.runner.assertTransferCount(ExtractTikaContent.REL_SUCCESS, 3);
+		assertEquals(Long.valueOf(2), this.runner.getCounterValue("Documents (application/pdf)"));
+		assertEquals(Long.valueOf(1), this.runner.getCounterValue("Documents (text/plain)"));
+		assertEquals(Long.valueOf(2L * pdf.length), this.runner.getCounterValue("Input bytes (application/pdf)"));
+		assertEquals(Long.valueOf("plain text".length()), this.runner.getCounterValue("Extracted characters (text/plain)"));
+		// The summary is due on every trigger with an interval of 0
+		assertTrue(this.runner.getLogger().getInfoMessages().stream()
+				.anyMatch(m -> m.getMsg().contains("application/pdf: 2 documents, p50 ")));
+	}
+
+	@Test
+	public void testParallelBatch() {
+
+		this.runner.setProperty(ExtractTikaContent.EXTRACT_STRATEGY, ExtractTikaContent.STRATEGY_CONTENT);
+		this.runner.setProperty(ExtractTikaContent.BATCH_SIZE, "10");
+		this.runner.setProperty(ExtractTikaContent.BATCH_PARALLELISM, "3");
+
+		for (int i = 0; i < 3; i++) {
+			this.runner.enqueue(this.getClass().getResourceAsStream("/test_document.pdf"));
+			this.runner.enqueue(this.getClass().getResourceAsStream("/test_document_en.pdf"));
+		}
+		this.runner.enqueue("");
+		this.runner.enqueue("no document at all");
+		// Large enough to be spooled to a temporary file
+		final String large = StringUtils.repeat("word ", 300000);
+		this.runner.enqueue(large);
+		this.runner.run();
+
+		this.runner.assertQueueEmpty();
+		this.runner.assertTransferCount(ExtractTikaContent.REL_SUCCESS, 8);
+		this.runner.assertTransferCount(ExtractTikaContent.REL_ORIGINAL, 1);
+		for (int i = 0; i < 6; i += 2) {
+			this.runner.getFlowFilesForRelationship(ExtractTikaContent.REL_SUCCESS).get(i).assertContentEquals("{\"content\":\"\\nTest document… \\n\\n\\n\"}");
+			assertTrue(new String(this.runner.getContentAsByteArray(this.runner.getFlowFilesForRelationship(ExtractTikaContent.REL_SUCCESS).get(i + 1)), StandardCharsets.UTF_8)
+					.startsWith("{\"content\":\"\\nBut I must explain"));
+		}
+		this.runner.getFlowFilesForRelationship(ExtractTikaContent.REL_SUCCESS).get(6).assertContentEquals("{\"content\":\"no document at all\\n\"}");
+		this.runner.getFlowFilesForRelationship(ExtractTikaContent.REL_SUCCESS).get(7).assertContentEquals("{\"content\":\"" + large + "\\n\"}");
+	}
+
+	@Test
+	public void testPooledParsers() {
+
+		this.runner.setProperty(ExtractTikaContent.EXTRACT_STRATEGY, ExtractTikaContent.STRATEGY_CONTENT);
+		this.runner.setProperty(ExtractTikaContent.PARSER_POOL_SIZE, "2");
+		this.runner.setThreadCount(3);
+
+		for (int i = 0; i < 6; i++) {
+			this.runner.enqueue(this.getClass().getResourceAsStream("/test_document.pdf"));
+		}
+		this.runner.run(6);
+
+		this.runner.assertQueueEmpty();
+		this.runner.assertTransferCount(ExtractTikaContent.REL_SUCCESS, 6);
+		this.runner.getFlowFilesForRelationship(ExtractTikaContent.REL_SUCCESS)
+				.forEach(f -> f.assertContentEquals("{\"content\":\"\\nTest document… \\n\\n\\n\"}"));
+	}
+
+
+	@Test
+	public void testTrustMimeTypeEqualsDetected() throws IOException {
+
+		this.runner.setProperty(ExtractTikaContent.EXTRACT_STRATEGY, ExtractTikaContent.STRATEGY_ALL);
+		this.runner.enqueue(this.getClass().getResourceAsStream("/test_document.pdf"));
+		this.runner.run();
+		this.runner.assertTransferCount(ExtractTikaContent.REL_SUCCESS, 1);
+		final byte[] detected = this.runner.getContentAsByteArray(this.runner.getFlowFilesForRelationship(ExtractTikaContent.REL_SUCCESS).get(0));
+
+		this.runner.clearTransferState();
+		this.runner.setProperty(ExtractTikaContent.TRUST_MIME_TYPE, "true");
+		Map<String,String> att = new HashMap<>();
+		att.put("mime.type", "application/pdf");
+		this.runner.enqueue(this.getClass().getResourceAsStream("/test_document.pdf"), att);
+		// Without the attribute the type is still detected
+		this.runner.enqueue(this.getClass().getResourceAsStream("/test_document.pdf"));
+		this.runner.run(2);
+
+		this.runner.assertQueueEmpty();
+		this.runner.assertTransferCount(ExtractTikaContent.REL_SUCCESS, 2);
+		for (MockFlowFile flowFile : this.runner.getFlowFilesForRelationship(ExtractTikaContent.REL_SUCCESS)) {
+			flowFile.assertContentEquals(detected);
+		}
+	}
+
+	@Test
+	public void testMimeTypeFilter() throws IOException {
+
+		this.runner.setProperty(ExtractTikaContent.ALLOWED_MIME_TYPES, "application/*, text/plain");
+		this.runner.setProperty(ExtractTikaContent.DENIED_MIME_TYPES, "application/pdf");
+		this.runner.enqueue(this.getClass().getResourceAsStream("/test_document.pdf"));
+		this.runner.enqueue("no document at all");
+		this.runner.run(2);
+
+		this.runner.assertQueueEmpty();
+		this.runner.assertTransferCount(ExtractTikaContent.REL_ORIGINAL, 1);
+		this.runner.assertTransferCount(ExtractTikaContent.REL_SUCCESS, 1);
+		this.runner.getFlowFilesForRelationship(ExtractTikaContent.REL_SUCCESS).get(0).assertContentEquals("{\"content\":\"no document at all\\n\"}");
+
+		// A trusted type is filtered without looking at the content at all
+		this.runner.clearTransferState();
+		this.runner.setProperty(ExtractTikaContent.TRUST_MIME_TYPE, "true");
+		this.runner.setProperty(ExtractTikaContent.OUTPUT_MODE, ExtractTikaContent.OUTPUT_STREAMING);
+		this.runner.removeProperty(ExtractTikaContent.DENIED_MIME_TYPES);
+		Map<String,String> att = new HashMap<>();
+		att.put("mime.type", "image/png");
+		this.runner.enqueue(this.getClass().getResourceAsStream("/test_document.pdf"), att);
+		this.runner.run();
+
+		this.runner.assertQueueEmpty();
+		this.runner.assertTransferCount(ExtractTikaContent.REL_ORIGINAL, 1);
+		this.runner.getFlowFilesForRelationship(ExtractTikaContent.REL_ORIGINAL).get(0).assertContentEquals(this.getClass().getResourceAsStream("/test_document.pdf"));
+	}
+
+
+	@Test
+	public void testResultCache() throws IOException {
+
+		final Path cacheDir = Files.createTempDirectory("tika-cache");
+		this.runner.setProperty(ExtractTikaContent.EXTRACT_STRATEGY, ExtractTikaContent.STRATEGY_ALL);
+		this.runner.setProperty(ExtractTikaContent.RESULT_CACHE_SIZE, "1 MB");
+		this.runner.setProperty(ExtractTikaContent.RESULT_CACHE_DIRECTORY, cacheDir.toString());
+		this.runner.enqueue(this.getClass().getResourceAsStream("/test_document.pdf"));
+		this.runner.enqueue(this.getClass().getResourceAsStream("/test_document.pdf"));
+		this.runner.enqueue(this.getClass().getResourceAsStream("/test_document_en.pdf"));
+		this.runner.run(3);
+
+		this.runner.assertQueueEmpty();
+		this.runner.assertTransferCount(ExtractTikaContent.REL_SUCCESS, 3);
+		assertEquals(Long.valueOf(1), this.runner.getCounterValue("Result cache hits"));
+		assertEquals(Long.valueOf(2), this.runner.getCounterValue("Result cache misses"));
+		final byte[] extracted = this.runner.getContentAsByteArray(this.runner.getFlowFilesForRelationship(ExtractTikaContent.REL_SUCCESS).get(0));
+		this.runner.getFlowFilesForRelationship(ExtractTikaContent.REL_SUCCESS).get(1).assertContentEquals(extracted);
+
+		// A fresh processor finds the document on disk, but not with another configuration
+		this.runner = TestRunners.newTestRunner(new ExtractTikaContent());
+		this.runner.setProperty(ExtractTikaContent.EXTRACT_STRATEGY, ExtractTikaContent.STRATEGY_ALL);
+		this.runner.setProperty(ExtractTikaContent.RESULT_CACHE_DIRECTORY, cacheDir.toString());
+		this.runner.enqueue(this.getClass().getResourceAsStream("/test_document.pdf"));
+		this.runner.run();
+		this.runner.assertTransferCount(ExtractTikaContent.REL_SUCCESS, 1);
+		this.runner.getFlowFilesForRelationship(ExtractTikaContent.REL_SUCCESS).get(0).assertContentEquals(extracted);
+		assertEquals(Long.valueOf(1), this.runner.getCounterValue("Result cache hits"));
+
+		this.runner.clearTransferState();
+		this.runner.setProperty(ExtractTikaContent.EXTRACT_STRATEGY, ExtractTikaContent.STRATEGY_CONTENT);
+		this.runner.enqueue(this.getClass().getResourceAsStream("/test_document.pdf"));
+		this.runner.run();
+		this.runner.assertTransferCount(ExtractTikaContent.REL_SUCCESS, 1);
+		this.runner.getFlowFilesForRelationship(ExtractTikaContent.REL_SUCCESS).get(0).assertContentEquals("{\"content\":\"\\nTest document… \\n\\n\\n\"}");
+		assertEquals(Long.valueOf(1), this.runner.getCounterValue("Result cache misses"));
+
+		// A parallel batch takes the digest while copying the content
+		this.runner = TestRunners.newTestRunner(new ExtractTikaContent());
+		this.runner.setProperty(ExtractTikaContent.EXTRACT_STRATEGY, ExtractTikaContent.STRATEGY_ALL);
+		this.runner.setProperty(ExtractTikaContent.RESULT_CACHE_DIRECTORY, cacheDir.toString());
+		this.runner.setProperty(ExtractTikaContent.BATCH_SIZE, "2");
+		this.runner.setProperty(ExtractTikaContent.BATCH_PARALLELISM, "2");
+		this.runner.enqueue(this.getClass().getResourceAsStream("/test_document.pdf"));
+		this.runner.enqueue(this.getClass().getResourceAsStream("/test_document_en.pdf"));
+		this.runner.run();
+		this.runner.assertTransferCount(ExtractTikaContent.REL_SUCCESS, 2);
+		this.runner.getFlowFilesForRelationship(ExtractTikaContent.REL_SUCCESS).get(0).assertContentEquals(extracted);
+		assertEquals(Long.valueOf(2), this.runner.getCounterValue("Result cache hits"));
+
+		// Content in an attribute, with a metadata attribute beyond 64 KB kept on disk
+		final String description = StringUtils.repeat("description ", 6000).trim();
+		final byte[] html = ("<html><head><meta name=\"description\" content=\"" + description + "\"></head><body><p>Cached attribute</p></body></html>")
+				.getBytes(StandardCharsets.UTF_8);
+		for (int i = 0; i < 2; i++) {
+			this.runner = TestRunners.newTestRunner(new ExtractTikaContent());
+			this.runner.setProperty(ExtractTikaContent.CONTENT_LOCATION, ExtractTikaContent.FLOW_FILE_ATTRIBUTE);
+			this.runner.setProperty(ExtractTikaContent.ATTRIBUTE_NAME, "foobar");
+			this.runner.setProperty(ExtractTikaContent.METADATA_ATTRIBUTES, "description");
+			this.runner.setProperty(ExtractTikaContent.RESULT_CACHE_DIRECTORY, cacheDir.toString());
+			this.runner.enqueue(new byte[0], Collections.singletonMap("foobar", Base64.encodeBase64String(html)));
+			this.runner.run();
+			this.runner.assertAllFlowFilesTransferred(ExtractTikaContent.REL_SUCCESS, 1);
+			this.runner.getFlowFilesForRelationship(ExtractTikaContent.REL_SUCCESS).get(0)
+					.assertAttributeEquals(ExtractTikaContent.ATTRIBUTE_METADATA_PREFIX + "description", description);
+			assertEquals(i == 0 ? null : Long.valueOf(1), this.runner.getCounterValue("Result cache hits"));
+		}
+	}
+
+
+	@Test
+	public void testEmbeddedChildFlowFiles() throws IOException {
+
+		final Map<String, byte[]> inner = new LinkedHashMap<>();
+		inner.put("c.txt", "nested attachment".getBytes(StandardCharsets.UTF_8));
+		final Map<String, byte[]> entries = new LinkedHashMap<>();
+		entries.put("a.txt", "first attachment".getBytes(StandardCharsets.UTF_8));
+		entries.put("b.pdf", IOUtils.toByteArray(this.getClass().getResourceAsStream("/test_document.pdf")));
+		entries.put("inner.zip", zip(inner));
+		final byte[] container = zip(entries);
+
+		this.runner.setProperty(ExtractTikaContent.EMBEDDED_MODE, ExtractTikaContent.EMBEDDED_CHILDREN);
+		this.runner.setProperty(ExtractTikaContent.MAX_EMBEDDED_DEPTH, "1");
+		this.runner.enqueue(container);
+		this.runner.run();
+
+		this.runner.assertQueueEmpty();
+		this.runner.assertTransferCount(ExtractTikaContent.REL_SUCCESS, 1);
+		this.runner.assertTransferCount(ExtractTikaContent.REL_EMBEDDED, 3);
+		List<MockFlowFile> children = this.runner.getFlowFilesForRelationship(ExtractTikaContent.REL_EMBEDDED);
+		children.get(0).assertContentEquals("{\"content\":\"first attachment\\n\"}");
+		children.get(0).assertAttributeEquals(ExtractTikaContent.ATTRIBUTE_EMBEDDED_PATH, "/a.txt");
+		children.get(0).assertAttributeEquals(ExtractTikaContent.ATTRIBUTE_EMBEDDED_DEPTH, "1");
+		children.get(0).assertAttributeEquals(ExtractTikaContent.ATTRIBUTE_EMBEDDED_INDEX, "1");
+		children.get(0).assertAttributeEquals(ExtractTikaContent.ATTRIBUTE_EMBEDDED_COUNT, "3");
+		children.get(1).assertContentEquals("{\"content\":\"\\nTest document… \\n\\n\\n\"}");
+		children.get(2).assertAttributeEquals(ExtractTikaContent.ATTRIBUTE_EMBEDDED_PATH, "/inner.zip");
+
+		this.runner.clearTransferState();
+		this.runner.setProperty(ExtractTikaContent.MAX_EMBEDDED_DEPTH, "2");
+		this.runner.enqueue(container);
+		this.runner.run();
+
+		this.runner.assertTransferCount(ExtractTikaContent.REL_EMBEDDED, 4);
+		children = this.runner.getFlowFilesForRelationship(ExtractTikaContent.REL_EMBEDDED);
+		assertTrue(children.stream().anyMatch(f -> f.isAttributeEqual(ExtractTikaContent.ATTRIBUTE_EMBEDDED_PATH, "/inner.zip/c.txt")
+				&& f.isContentEqual("{\"content\":\"nested attachment\\n\"}")));
+
+		this.runner.clearTransferState();
+		this.runner.setProperty(ExtractTikaContent.MAX_EMBEDDED_COUNT, "2");
+		this.runner.enqueue(container);
+		this.runner.run();
+
+		this.runner.assertTransferCount(ExtractTikaContent.REL_SUCCESS, 1);
+		this.runner.assertTransferCount(ExtractTikaContent.REL_EMBEDDED, 2);
+
+		// The text of all documents together is bounded, as it is held until the container is parsed
+		this.runner.clearTransferState();
+		this.runner.setProperty(ExtractTikaContent.MAX_EMBEDDED_CHARS, "20");
+		this.runner.enqueue(container);
+		this.runner.run();
+
+		this.runner.assertTransferCount(ExtractTikaContent.REL_FAILURE, 1);
+		this.runner.assertTransferCount(ExtractTikaContent.REL_EMBEDDED, 0);
+
+		// Parsing stops at the limit, neither the rest of a large document nor the documents after it are extracted
+		entries.put("large.txt", StringUtils.repeat("large attachment ", 10000).getBytes(StandardCharsets.UTF_8));
+		entries.put("last.txt", "last attachment".getBytes(StandardCharsets.UTF_8));
+		this.runner.clearTransferState();
+		this.runner.removeProperty(ExtractTikaContent.MAX_EMBEDDED_COUNT);
+		this.runner.setProperty(ExtractTikaContent.MAX_EMBEDDED_CHARS, "1000");
+		this.runner.setProperty(ExtractTikaContent.METRICS, "true");
+		this.runner.enqueue(zip(entries));
+		this.runner.run();
+
+		this.runner.assertTransferCount(ExtractTikaContent.REL_FAILURE, 1);
+		assertTrue(this.runner.getCounterValue("Extracted characters (application/zip)") < 20000);
+	}
+
+	@Test
+	public void testEmbeddedRequiresBuffered() {
+		this.runner.setProperty(ExtractTikaContent.EMBEDDED_MODE, ExtractTikaContent.EMBEDDED_CHILDREN);
+		this.runner.setProperty(ExtractTikaContent.OUTPUT_MODE, ExtractTikaContent.OUTPUT_STREAMING);
+		this.runner.assertNotValid();
+	}
+
+	@Test
+	public void testOcrRequiresTesseract() {
+		this.runner.setProperty(ExtractTikaContent.OCR_MODE, ExtractTikaContent.OCR_FALLBACK);
+		this.runner.setProperty(ExtractTikaContent.OUTPUT_MODE, ExtractTikaContent.OUTPUT_STREAMING);
+		this.runner.assertNotValid();
+
+		this.runner.setProperty(ExtractTikaContent.OUTPUT_MODE, ExtractTikaContent.OUTPUT_BUFFERED);
+		this.runner.setProperty(ExtractTikaContent.TESSERACT_PATH, "/nonexistent/tesseract/");
+		this.runner.assertValid();
+		boolean scheduled = true;
+		try {
+			this.runner.run();
+		} catch (AssertionError e) {
+			// The mock framework turns the failed scheduling into an assertion error
+			scheduled = false;
+		}
+		assertFalse(scheduled);
+	}
+
+	@Test
+	public void testOcrFallback() throws IOException {
+		// Runs only where Tesseract is installed
+		assumeTrue(new TesseractOCRParser().hasTesseract(new TesseractOCRConfig()));
+		this.runner.setProperty(ExtractTikaContent.OCR_MODE, ExtractTikaContent.OCR_FALLBACK);
+		this.runner.enqueue(scannedPdf("SCANNED DOCUMENT"));
+		this.runner.enqueue(this.getClass().getResourceAsStream("/test_document_en.pdf"));
+		this.runner.run(2);
+
+		this.runner.assertTransferCount(ExtractTikaContent.REL_SUCCESS, 2);
+		final MockFlowFile scanned = this.runner.getFlowFilesForRelationship(ExtractTikaContent.REL_SUCCESS).get(0);
+		scanned.assertAttributeEquals(ExtractTikaContent.ATTRIBUTE_OCR, "true");
+		assertTrue(new ObjectMapper().readTree(scanned.toByteArray()).get("content").asText().contains("SCANNED"));
+		// Documents with a text layer are not parsed again
+		this.runner.getFlowFilesForRelationship(ExtractTikaContent.REL_SUCCESS).get(1).assertAttributeNotExists(ExtractTikaContent.ATTRIBUTE_OCR);
+	}
+
+	/**
+	 * @param text The text to draw
+	 * @return A PDF with a single page holding the text only as image, like a scanned document
+	 */
+	private static byte[] scannedPdf(String text) throws IOException {
+		final BufferedImage image = new BufferedImage(1200, 300, BufferedImage.TYPE_INT_RGB);
+		final Graphics2D graphics = image.createGraphics();
+		graphics.setColor(Color.WHITE);
+		graphics.fillRect(0, 0, image.getWidth(), image.getHeight());
+		graphics.setColor(Color.BLACK);
+		graphics.setFont(new Font(Font.SANS_SERIF, Font.BOLD, 72));
+		graphics.drawString(text, 40, 180);
+		graphics.dispose();
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (PDDocument document = new PDDocument()) {
+			final PDPage page = new PDPage(new PDRectangle(image.getWidth(), image.getHeight()));
+			document.addPage(page);
+			try (PDPageContentStream stream = new PDPageContentStream(document, page)) {
+				stream.drawImage(LosslessFactory.createFromImage(document, image), 0, 0);
+			}
+			document.save(bytes);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static byte[] zip(Map<String, byte[]> entries) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+			for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+				zip.putNextEntry(new ZipEntry(entry.getKey()));
+				zip.write(entry.getValue());
+				zip.closeEntry();
+			}
+		}
+		return bytes.toByteArray();
+	}
+
+
+	@Test
+	public void testChunkedOutput() throws IOException {
+
+		this.runner.enqueue(this.getClass().getResourceAsStream("/test_document_en.pdf"));
+		this.runner.run();
+		final String content = new ObjectMapper().readTree(this.runner.getContentAsByteArray(
+				this.runner.getFlowFilesForRelationship(ExtractTikaContent.REL_SUCCESS).get(0))).get("content").asText();
+
+		this.runner.clearTransferState();
+		this.runner.setProperty(ExtractTikaContent.EXTRACT_STRATEGY, ExtractTikaContent.STRATEGY_ALL);
+		this.runner.setProperty(ExtractTikaContent.OUTPUT_MODE, ExtractTikaContent.OUTPUT_CHUNKED);
+		this.runner.setProperty(ExtractTikaContent.CHUNK_SIZE, "200");
+		this.runner.enqueue(this.getClass().getResourceAsStream("/test_document_en.pdf"), Collections.singletonMap("filename", "en.pdf"));
+		this.runner.run();
+
+		this.runner.assertQueueEmpty();
+		this.runner.assertTransferCount(ExtractTikaContent.REL_SUCCESS, 1);
+		final MockFlowFile original = this.runner.getFlowFilesForRelationship(ExtractTikaContent.REL_SUCCESS).get(0);
+		final JsonNode metadata = new ObjectMapper().readTree(this.runner.getContentAsByteArray(original));
+		assertFalse(metadata.has("content"));
+		assertEquals("application/pdf", metadata.get("content_type").asText());
+
+		final List<MockFlowFile> chunks = this.runner.getFlowFilesForRelationship(ExtractTikaContent.REL_CHUNKS);
+		assertTrue(chunks.size() > 1);
+		original.assertAttributeEquals("fragment.count", String.valueOf(chunks.size()));
+		final StringBuilder joined = new StringBuilder();
+		for (int i = 0; i < chunks.size(); i++) {
+			final MockFlowFile chunk = chunks.get(i);
+			chunk.assertAttributeEquals("fragment.identifier", original.getAttribute("fragment.identifier"));
+			chunk.assertAttributeEquals("fragment.index", String.valueOf(i + 1));
+			chunk.assertAttributeEquals("fragment.count", String.valueOf(chunks.size()));
+			chunk.assertAttributeEquals("segment.original.filename", "en.pdf");
+			final String text = new ObjectMapper().readTree(this.runner.getContentAsByteArray(chunk)).get("content").asText();
+			assertTrue(text.length() <= 200);
+			joined.append(text);
+		}
+		assertEquals(content.trim(), joined.toString().trim());
+
+		// With a timeout the chunks are handed over from the parse thread, in the same order
+		this.runner.clearTransferState();
+		this.runner.setProperty(ExtractTikaContent.PARSE_TIMEOUT, "1 min");
+		this.runner.enqueue(this.getClass().getResourceAsStream("/test_document_en.pdf"), Collections.singletonMap("filename", "en.pdf"));
+		this.runner.run();
+
+		this.runner.assertTransferCount(ExtractTikaContent.REL_SUCCESS, 1);
+		final List<MockFlowFile> handedOver = this.runner.getFlowFilesForRelationship(ExtractTikaContent.REL_CHUNKS);
+		assertEquals(chunks.size(), handedOver.size());
+		for (int i = 0; i < chunks.size(); i++) {
+			handedOver.get(i).assertContentEquals(this.runner.getContentAsByteArray(chunks.get(i)));
+		}
+		this.runner.removeProperty(ExtractTikaContent.PARSE_TIMEOUT);
+
+		this.runner.clearTransferState();
+		this.runner.setProperty(ExtractTikaContent.CHUNK_SIZE, "100000");
+		this.runner.setProperty(ExtractTikaContent.CHUNK_BOUNDARY, ExtractTikaContent.CHUNK_BY_PAGE);
+		this.runner.enqueue(this.getClass().getResourceAsStream("/test_document.pdf"));
+		this.runner.run();
+
+		this.runner.assertTransferCount(ExtractTikaContent.REL_CHUNKS, 1);
+		final MockFlowFile page = this.runner.getFlowFilesForRelationship(ExtractTikaContent.REL_CHUNKS).get(0);
+		page.assertContentEquals("{\"content\":\"\\nTest document… \\n\\n\"}");
+		page.assertAttributeEquals(ExtractTikaContent.ATTRIBUTE_CHUNK_FIRST_PAGE, "1");
+		page.assertAttributeEquals(ExtractTikaContent.ATTRIBUTE_CHUNK_LAST_PAGE, "1");
+	}
+
+
+	@Test
+	public void testFieldNameFormatChange() {
+
+		this.runner.setProperty(ExtractTikaContent.EXTRACT_STRATEGY, ExtractTikaContent.STRATEGY_META);
+		this.runner.enqueue(this.getClass().getResourceAsStream("/test_document.pdf"));
+		this.runner.run();
+		this.runner.assertTransferCount(ExtractTikaContent.REL_SUCCESS, 1);
+		assertTrue(new String(this.runner.getContentAsByteArray(this.runner.getFlowFilesForRelationship(ExtractTikaContent.REL_SUCCESS).get(0)), StandardCharsets.UTF_8)
+				.contains("\"content_type\":\"application/pdf\""));
+
+		// Names cached for the previous format must not leak into the next schedule
+		this.runner.clearTransferState();
+		this.runner.setProperty(ExtractTikaContent.FIELDNAME_FORMAT, ExtractTikaContent.FORMAT_UPPER);
+		this.runner.enqueue(this.getClass().getResourceAsStream("/test_document.pdf"));
+		this.runner.run();
+		this.runner.assertTransferCount(ExtractTikaContent.REL_SUCCESS, 1);
+		final String json = new String(this.runner.getContentAsByteArray(this.runner.getFlowFilesForRelationship(ExtractTikaContent.REL_SUCCESS).get(0)), StandardCharsets.UTF_8);
+		assertTrue(json.contains("\"CONTENT_TYPE\":\"application/pdf\""));
+		assertFalse(json.contains("\"content_type\""));
+	}
+
+	@Test
+	public void testContentFormat() throws IOException {
+		final String html = "<html><head><title>Report</title></head><body><h1>Title</h1><p>Some   <b>bold</b> text</p>"
+				+ "<ul><li>one</li><li>two</li></ul><table><tr><th>a</th><th>b|c</th></tr><tr><td>1</td><td>2</td></tr></table></body></html>";
+		final Map<String, String> expected = new LinkedHashMap<>();
+		expected.put(ExtractTikaContent.CONTENT_XHTML, "<h1>Title</h1>\n<p>Some   bold text</p>\n<ul>\t<li>one</li>\n\t<li>two</li>\n</ul>\n"
+				+ "<table><tr>\t<th>a</th>\t<th>b|c</th></tr>\n<tr>\t<td>1</td>\t<td>2</td></tr>\n</table>");
+		expected.put(ExtractTikaContent.CONTENT_MARKDOWN, "# Title\n\nSome bold text\n\n- one\n- two\n\n| a | b\\|c |\n| --- | --- |\n| 1 | 2 |");
+		for (Map.Entry<String, String> format : expected.entrySet()) {
+			for (String outputMode : new String[] { ExtractTikaContent.OUTPUT_BUFFERED, ExtractTikaContent.OUTPUT_STREAMING }) {
+				this.runner.clearTransferState();
+				this.runner.setProperty(ExtractTikaContent.CONTENT_FORMAT, format.getKey());
+				this.runner.setProperty(ExtractTikaContent.OUTPUT_MODE, outputMode);
+				this.runner.enqueue(html);
+				this.runner.run();
+				this.runner.assertTransferCount(ExtractTikaContent.REL_SUCCESS, 1);
+				final JsonNode json = new ObjectMapper().readTree(this.runner.getContentAsByteArray(this.runner.getFlowFilesForRelationship(ExtractTikaContent.REL_SUCCESS).get(0)));
+				assertEquals(format.getKey() + " " + outputMode, format.getValue(), json.path("content").asText().trim());
+			}
+		}
+
+		this.runner.setProperty(ExtractTikaContent.OUTPUT_MODE, ExtractTikaContent.OUTPUT_CHUNKED);
+		this.runner.assertNotValid();
+	}
+
+	@Test
+	public void testMetadataSelection() throws IOException {
+		this.runner.setProperty(ExtractTikaContent.EXTRACT_STRATEGY, ExtractTikaContent.STRATEGY_META);
+		this.runner.setProperty(ExtractTikaContent.METADATA_INCLUDE, "dc:*, content-type");
+		this.runner.setProperty(ExtractTikaContent.METADATA_EXCLUDE, "dc:format");
+		this.runner.enqueue(this.getClass().getResourceAsStream("/test_document.pdf"));
+		this.runner.run();
+		this.runner.assertTransferCount(ExtractTikaContent.REL_SUCCESS, 1);
+		final JsonNode json = new ObjectMapper().readTree(this.runner.getContentAsByteArray(this.runner.getFlowFilesForRelationship(ExtractTikaContent.REL_SUCCESS).get(0)));
+		assertEquals("application/pdf", json.path("content_type").asText());
+		json.fieldNames().forEachRemaining(name -> assertTrue(name, name.equals("content_type") || name.startsWith("dc_")));
+		assertFalse(json.has("dc_format"));
+		this.runner.assertAllFlowFilesContainAttribute(ExtractTikaContent.REL_SUCCESS, ExtractTikaContent.ATTRIBUTE_TRUNCATED);
+		assertNull(this.runner.getFlowFilesForRelationship(ExtractTikaContent.REL_SUCCESS).get(0).getAttribute("tika.meta.content_type"));
+
+		// Selected keys go into attributes, even if the JSON document holds no metadata
+		this.runner.clearTransferState();
+		this.runner.setProperty(ExtractTikaContent.EXTRACT_STRATEGY, ExtractTikaContent.STRATEGY_CONTENT);
+		this.runner.setProperty(ExtractTikaContent.METADATA_ATTRIBUTES, "Content-Type,xmpTPg:NPages");
+		this.runner.enqueue(this.getClass().getResourceAsStream("/test_document.pdf"));
+		this.runner.run();
+		this.runner.assertTransferCount(ExtractTikaContent.REL_SUCCESS, 1);
+		final MockFlowFile flowFile = this.runner.getFlowFilesForRelationship(ExtractTikaContent.REL_SUCCESS).get(0);
+		flowFile.assertAttributeEquals("tika.meta.content_type", "application/pdf");
+		flowFile.assertAttributeEquals("tika.meta.xmptpg_npages", "1");
+		flowFile.assertContentEquals("{\"content\":\"\\nTest document… \\n\\n\\n\"}");
+	}
+
 
 	@Test
 	public void testEmptyProperties() {
@@ -0,0 +1,147 @@
+package com.ddmarley.nifi.processor;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.nifi.controller.AbstractControllerService;
+import org.apache.nifi.logging.ComponentLog;
+import org.apache.nifi.reporting.InitializationException;
+import org.apache.nifi.serialization.RecordSetWriter;
+import org.apache.nifi.serialization.RecordSetWriterFactory;
+import org.apache.nifi.serialization.WriteResult;
+import org.apache.nifi.serialization.record.Record;
+import org.apache.nifi.serialization.record.RecordSchema;
+import org.apache.nifi.serialization.record.RecordSet;
+import org.apache.nifi.util.MockFlowFile;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ExtractTikaRecordsTest {
+
+	private TestRunner runner;
+	private CollectingWriterFactory writerFactory;
+
+	@Before
+	public void initBefore() throws InitializationException {
+		this.runner = TestRunners.newTestRunner(new ExtractTikaRecords());
+		this.writerFactory = new CollectingWriterFactory();
+		this.runner.addControllerService("writer", this.writerFactory);
+		this.runner.enableControllerService(this.writerFactory);
+		this.runner.setProperty(ExtractTikaRecords.RECORD_WRITER, "writer");
+	}
+
+	@Test
+	public void testBatchIntoOneFlowFile() {
+		this.runner.setProperty(ExtractTikaContent.EXTRACT_STRATEGY, ExtractTikaContent.STRATEGY_ALL);
+		this.runner.setProperty(ExtractTikaContent.EXTRACT_LANG, "true");
+		this.runner.setProperty(ExtractTikaContent.METADATA_INCLUDE, "Content-Type");
+		this.runner.enqueue(this.getClass().getResourceAsStream("/test_document_en.pdf"), Collections.singletonMap("filename", "en.pdf"));
+		this.runner.enqueue(this.getClass().getResourceAsStream("/test_document_de.pdf"), Collections.singletonMap("filename", "de.pdf"));
+		this.runner.enqueue(new byte[0]);
+		this.runner.run();
+
+		this.runner.assertQueueEmpty();
+		this.runner.assertTransferCount(ExtractTikaContent.REL_SUCCESS, 1);
+		this.runner.assertTransferCount(ExtractTikaContent.REL_ORIGINAL, 3);
+		final MockFlowFile output = this.runner.getFlowFilesForRelationship(ExtractTikaContent.REL_SUCCESS).get(0);
+		output.assertAttributeEquals("record.count", "2");
+		output.assertAttributeEquals("mime.type", "text/plain");
+
+		final List<Record> records = this.writerFactory.records;
+		assertEquals(2, records.size());
+		assertEquals("en.pdf", records.get(0).getAsString(ExtractTikaRecords.FIELD_FILENAME));
+		assertEquals("en", records.get(0).getAsString(ExtractTikaRecords.FIELD_LANGUAGE));
+		assertEquals("de.pdf", records.get(1).getAsString(ExtractTikaRecords.FIELD_FILENAME));
+		assertEquals("de", records.get(1).getAsString(ExtractTikaRecords.FIELD_LANGUAGE));
+		assertEquals(Boolean.FALSE, records.get(1).getAsBoolean(ExtractTikaRecords.FIELD_TRUNCATED));
+		final Map<?, ?> metadata = (Map<?, ?>) records.get(0).getValue(ExtractTikaRecords.FIELD_METADATA);
+		assertEquals(Collections.singleton("content_type"), metadata.keySet());
+		assertArrayEquals(new Object[] { "application/pdf" }, (Object[]) metadata.get("content_type"));
+	}
+
+	@Test
+	public void testMetadataOnly() {
+		this.runner.setProperty(ExtractTikaContent.EXTRACT_STRATEGY, ExtractTikaContent.STRATEGY_META);
+		// Parsed on the parse executor, from a copy of the content
+		this.runner.setProperty(ExtractTikaContent.PARSE_TIMEOUT, "1 min");
+		this.runner.enqueue(this.getClass().getResourceAsStream("/test_document.pdf"));
+		this.runner.run();
+
+		this.runner.assertTransferCount(ExtractTikaContent.REL_SUCCESS, 1);
+		this.runner.assertTransferCount(ExtractTikaContent.REL_ORIGINAL, 1);
+		final Record record = this.writerFactory.records.get(0);
+		assertNull(record.getValue(ExtractTikaRecords.FIELD_CONTENT));
+		assertNull(record.getValue(ExtractTikaRecords.FIELD_LANGUAGE));
+		assertEquals("application/pdf", ((Object[]) ((Map<?, ?>) record.getValue(ExtractTikaRecords.FIELD_METADATA)).get("content_type"))[0]);
+	}
+
+	/**
+	 * Record writer factory keeping the written records and writing their filenames as text.
+	 */
+	private static class CollectingWriterFactory extends AbstractControllerService implements RecordSetWriterFactory {
+
+		private final List<Record> records = new ArrayList<>();
+
+		@Override
+		public RecordSchema getSchema(Map<String, String> variables, RecordSchema readSchema) {
+			return readSchema;
+		}
+
+		@Override
+		public RecordSetWriter createWriter(ComponentLog logger, RecordSchema schema, OutputStream out) {
+			return new RecordSetWriter() {
+				private int count = 0;
+
+				@Override
+				public WriteResult write(Record record) throws IOException {
+					records.add(record);
+					out.write((record.getAsString(ExtractTikaRecords.FIELD_FILENAME) + "\n").getBytes(StandardCharsets.UTF_8));
+					count++;
+					return WriteResult.of(1, Collections.emptyMap());
+				}
+
+				@Override
+				public WriteResult write(RecordSet recordSet) throws IOException {
+					for (Record record = recordSet.next(); record != null; record = recordSet.next()) {
+						write(record);
+					}
+					return WriteResult.of(count, Collections.emptyMap());
+				}
+
+				@Override
+				public void beginRecordSet() {
+				}
+
+				@Override
+				public WriteResult finishRecordSet() {
+					return WriteResult.of(count, Collections.emptyMap());
+				}
+
+				@Override
+				public String getMimeType() {
+					return "text/plain";
+				}
+
+				@Override
+				public void flush() throws IOException {
+					out.flush();
+				}
+
+				@Override
+				public void close() {
+				}
+			};
+		}
+	}
+}